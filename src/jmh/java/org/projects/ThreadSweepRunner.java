@@ -0,0 +1,57 @@
+package org.projects;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks matching a regular expression once for every thread count from 1 up to twice the number of
+ * cores: 1, 2, 4, ... and 2 x cores itself. Contention effects only show with several threads, and the JMH command
+ * line takes a single thread count per run.
+ * <br>
+ * Every run writes its results as JSON to target/jmh-results/{name}-{threads}-threads.json, so the files of two
+ * versions can be compared to catch regressions, e.g. with https://jmh.morethan.io.
+ * <br>
+ * Usage, after mvn -Pjmh package:
+ * java -cp target/benchmarks.jar org.projects.ThreadSweepRunner [benchmark regex] [results directory]
+ */
+public class ThreadSweepRunner {
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = args.length > 0 ? args[0] : ".*";
+        Path resultsDirectory = Path.of(args.length > 1 ? args[1] : "target/jmh-results");
+        run(include, resultsDirectory);
+    }
+
+    public static void run(String include, Path resultsDirectory) throws RunnerException, IOException {
+        Files.createDirectories(resultsDirectory);
+        String name = include.replaceAll("[^A-Za-z0-9]+", "_");
+        for (int threads : threadCounts()) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultsDirectory.resolve(name + "-" + threads + "-threads.json").toString())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+    static List<Integer> threadCounts() {
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads <<= 1) {
+            counts.add(threads);
+        }
+        counts.add(maxThreads);
+        return counts;
+    }
+}
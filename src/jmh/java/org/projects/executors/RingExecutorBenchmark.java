@@ -0,0 +1,122 @@
+package org.projects.executors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures submitting tiny tasks, each adding its argument to a sum, and waiting for them to complete, in batches of
+ * 1024 per invocation so the queues never grow without bound:
+ * 1. ringExecutor: RingExecutor.submit(handler, arg), the handler created once.
+ * 2. threadPoolSubmit: ThreadPoolExecutor.submit() of a lambda capturing the argument, as in the executor examples.
+ * 3. threadPoolExecute: ThreadPoolExecutor.execute() of the same lambda, without the FutureTask.
+ * Every benchmark thread has an executor of its own with two workers. main() runs with the gc profiler, whose
+ * gc.alloc.rate.norm is the bytes allocated per task by all threads of the JVM: 0 for ringExecutor once warmed up.
+ * Results are per task, in ops/us.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingExecutorBenchmark {
+
+    private static final int BATCH = 1024;
+    private static final int WORKERS = 2;
+
+    @Param({"ringExecutor", "threadPoolSubmit", "threadPoolExecute"})
+    String implementation;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final RingExecutor.TaskHandler add = this::add;
+    private RingExecutor ringExecutor;
+    private ThreadPoolExecutor threadPool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (implementation) {
+            case "ringExecutor" -> ringExecutor = new RingExecutor(WORKERS, 2 * BATCH);
+            case "threadPoolSubmit", "threadPoolExecute" -> {
+                threadPool = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>());
+                threadPool.prestartAllCoreThreads();
+            }
+            default -> throw new IllegalArgumentException(implementation);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (ringExecutor != null) {
+            ringExecutor.shutdown();
+            ringExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } else {
+            threadPool.shutdown();
+            threadPool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private void add(long arg) {
+        sum.getAndAdd(arg);
+        completed.incrementAndGet();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long submitBatch() {
+        long target = completed.get() + BATCH;
+        switch (implementation) {
+            case "ringExecutor" -> {
+                for (int i = 0; i < BATCH; i++) {
+                    ringExecutor.submit(add, i);
+                }
+            }
+            case "threadPoolSubmit" -> {
+                for (int i = 0; i < BATCH; i++) {
+                    long arg = i;
+                    threadPool.submit(() -> add(arg));
+                }
+            }
+            default -> {
+                for (int i = 0; i < BATCH; i++) {
+                    long arg = i;
+                    threadPool.execute(() -> add(arg));
+                }
+            }
+        }
+        while (completed.get() < target) {
+            // Yield rather than spin, the workers may need this core
+            Thread.yield();
+        }
+        return sum.get();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RingExecutorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,113 @@
+package org.projects.lockFree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projects.ThreadSweepRunner;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the increment strategies of CompareAndSwapExample and the ones that scale better, with all benchmark
+ * threads incrementing the same counter:
+ * 1. unsafe: a plain field increment, the lower bound. It loses updates as soon as there are two threads.
+ * 2. synchronized: a monitor around the increment.
+ * 3. AtomicInteger and AtomicLong: a locked read-modify-write instruction on a single cache line.
+ * 4. VarHandle modes on a plain long field: getAndAdd is the same volatile add AtomicLong does, getAndAddRelease
+ *    drops the acquire half, and the weak plain CAS loop is what a hand written retry loop costs.
+ * 5. LongAdder and StripedCounter: increments spread over padded cells, read with sum().
+ * The threads count comes from the command line (-t) or from ThreadSweepRunner, which runs every count from 1 to
+ * twice the number of cores. Throughput is reported in ops/us and average time in us/op.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterBenchmark {
+
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(CounterBenchmark.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private int unsafeCounter;
+    private int synchronizedCounter;
+    private long value;
+    private final AtomicInteger atomicInteger = new AtomicInteger();
+    private final AtomicLong atomicLong = new AtomicLong();
+    private final LongAdder longAdder = new LongAdder();
+    private final StripedCounter stripedCounter = new StripedCounter();
+
+    @Benchmark
+    public int unsafe() {
+        return ++unsafeCounter;
+    }
+
+    @Benchmark
+    public synchronized int synchronizedIncrement() {
+        return ++synchronizedCounter;
+    }
+
+    @Benchmark
+    public int atomicInteger() {
+        return atomicInteger.incrementAndGet();
+    }
+
+    @Benchmark
+    public long atomicLong() {
+        return atomicLong.incrementAndGet();
+    }
+
+    @Benchmark
+    public long varHandleVolatile() {
+        return (long) VALUE.getAndAdd(this, 1L);
+    }
+
+    @Benchmark
+    public long varHandleRelease() {
+        return (long) VALUE.getAndAddRelease(this, 1L);
+    }
+
+    @Benchmark
+    public long varHandleWeakCasPlain() {
+        long current;
+        do {
+            current = (long) VALUE.get(this);
+        } while (!VALUE.weakCompareAndSetPlain(this, current, current + 1));
+        return current;
+    }
+
+    @Benchmark
+    public void longAdder() {
+        longAdder.increment();
+    }
+
+    @Benchmark
+    public void stripedCounter() {
+        stripedCounter.increment();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ThreadSweepRunner.run(CounterBenchmark.class.getSimpleName(),
+                Path.of(args.length > 0 ? args[0] : "target/jmh-results"));
+    }
+}
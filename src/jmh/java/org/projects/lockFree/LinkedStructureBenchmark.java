@@ -0,0 +1,126 @@
+package org.projects.lockFree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projects.ThreadSweepRunner;
+
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lock-free linked structures under contention against their java.util.concurrent counterparts.
+ * Every benchmark thread adds one element and removes one, so the size stays around the prefilled 64 elements and
+ * all threads fight over the same top, or the same head and tail.
+ * 1. pushPop compares TreiberStack, allocating and pooled, with ConcurrentLinkedDeque used as a stack.
+ * 2. offerPoll compares MichaelScottQueue, allocating and pooled, with ConcurrentLinkedQueue.
+ * Run with -prof gc to see that the pooled modes allocate nothing per operation.
+ * The threads count comes from the command line (-t) or from ThreadSweepRunner.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkedStructureBenchmark {
+
+    private static final int PREFILL = 64;
+    private static final int POOL_CAPACITY = 4096;
+    private static final Integer ELEMENT = 42;
+
+    @State(Scope.Benchmark)
+    public static class Stacks {
+        @Param({"treiber", "treiberPooled", "concurrentLinkedDeque"})
+        String implementation;
+
+        TreiberStack<Integer> treiberStack;
+        ConcurrentLinkedDeque<Integer> deque;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            switch (implementation) {
+                case "treiber" -> treiberStack = new TreiberStack<>();
+                case "treiberPooled" -> treiberStack = new TreiberStack<>(POOL_CAPACITY);
+                case "concurrentLinkedDeque" -> deque = new ConcurrentLinkedDeque<>();
+                default -> throw new IllegalArgumentException(implementation);
+            }
+            for (int i = 0; i < PREFILL; i++) {
+                push(ELEMENT);
+            }
+        }
+
+        void push(Integer element) {
+            if (treiberStack != null) {
+                treiberStack.push(element);
+            } else {
+                deque.push(element);
+            }
+        }
+
+        Integer pop() {
+            return treiberStack != null ? treiberStack.pop() : deque.pollFirst();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Queues {
+        @Param({"michaelScott", "michaelScottPooled", "concurrentLinkedQueue"})
+        String implementation;
+
+        MichaelScottQueue<Integer> michaelScottQueue;
+        ConcurrentLinkedQueue<Integer> queue;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            switch (implementation) {
+                case "michaelScott" -> michaelScottQueue = new MichaelScottQueue<>();
+                case "michaelScottPooled" -> michaelScottQueue = new MichaelScottQueue<>(POOL_CAPACITY);
+                case "concurrentLinkedQueue" -> queue = new ConcurrentLinkedQueue<>();
+                default -> throw new IllegalArgumentException(implementation);
+            }
+            for (int i = 0; i < PREFILL; i++) {
+                offer(ELEMENT);
+            }
+        }
+
+        void offer(Integer element) {
+            if (michaelScottQueue != null) {
+                michaelScottQueue.offer(element);
+            } else {
+                queue.offer(element);
+            }
+        }
+
+        Integer poll() {
+            return michaelScottQueue != null ? michaelScottQueue.poll() : queue.poll();
+        }
+    }
+
+    @Benchmark
+    public Integer pushPop(Stacks stacks) {
+        stacks.push(ELEMENT);
+        return stacks.pop();
+    }
+
+    @Benchmark
+    public Integer offerPoll(Queues queues) {
+        queues.offer(ELEMENT);
+        return queues.poll();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ThreadSweepRunner.run(LinkedStructureBenchmark.class.getSimpleName(),
+                Path.of(args.length > 0 ? args[0] : "target/jmh-results"));
+    }
+}
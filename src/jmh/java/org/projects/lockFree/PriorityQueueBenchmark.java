@@ -0,0 +1,75 @@
+package org.projects.lockFree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projects.ThreadSweepRunner;
+
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures SkipListPriorityQueue against PriorityBlockingQueue with every benchmark thread inserting a random key and
+ * removing the minimum, so the size stays around the prefilled elements:
+ * 1. priorityBlockingQueue: a binary heap behind one lock, O(log n) but fully serialized.
+ * 2. skipList: the exact lock-free queue, where inserts spread over the list and the polls meet at the head.
+ * 3. skipListSpray: polls spread over the first 2 * cores elements as well.
+ * With one or two threads the heap is usually faster, it allocates nothing and its lock is uncontended. The skip list
+ * should overtake it from a few threads on, and the sprayed one should keep scaling where the exact one is limited
+ * by the CAS on the first node. The threads count comes from the command line (-t) or from ThreadSweepRunner.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriorityQueueBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Queues {
+        @Param({"priorityBlockingQueue", "skipList", "skipListSpray"})
+        String implementation;
+
+        @Param({"1024"})
+        int prefill;
+
+        BlockingQueue<Long> queue;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            queue = switch (implementation) {
+                case "priorityBlockingQueue" -> new PriorityBlockingQueue<>();
+                case "skipList" -> new SkipListPriorityQueue<>();
+                case "skipListSpray" -> new SkipListPriorityQueue<>(null,
+                        Runtime.getRuntime().availableProcessors());
+                default -> throw new IllegalArgumentException(implementation);
+            };
+            for (int i = 0; i < prefill; i++) {
+                queue.offer(ThreadLocalRandom.current().nextLong(1 << 20));
+            }
+        }
+    }
+
+    @Benchmark
+    public Long offerPoll(Queues queues) {
+        queues.queue.offer(ThreadLocalRandom.current().nextLong(1 << 20));
+        return queues.queue.poll();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ThreadSweepRunner.run(PriorityQueueBenchmark.class.getSimpleName(),
+                Path.of(args.length > 0 ? args[0] : "target/jmh-results"));
+    }
+}
@@ -1,5 +1,7 @@
 package org.projects.customLocks;
 
+import org.projects.trace.Tracer;
+
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -17,16 +19,16 @@ public class LockConditionExample {
 
     public void produce() throws InterruptedException {
         lock.lock();
-        System.out.println("Lock acquired by thread: " + Thread.currentThread().getName());
+        Tracer.info("Lock acquired by thread: {}", Thread.currentThread().getName());
         try {
             Thread.sleep(3000);
             while (isAvailable) {
-                System.out.println("Item already produced, thread " + Thread.currentThread().getName() + " is waiting.");
+                Tracer.info("Item already produced, thread {} is waiting.", Thread.currentThread().getName());
                 condition.await();
             }
-            System.out.println("Producing item by thread: " + Thread.currentThread().getName());
+            Tracer.info("Producing item by thread: {}", Thread.currentThread().getName());
             isAvailable = true;
-            System.out.println("Signaling consumer thread by thread: " + Thread.currentThread().getName());
+            Tracer.info("Signaling consumer thread by thread: {}", Thread.currentThread().getName());
             condition.signalAll();
         } finally {
             lock.unlock();
@@ -35,15 +37,15 @@ public class LockConditionExample {
 
     public void consume() throws InterruptedException {
         lock.lock();
-        System.out.println("Lock acquired by thread: " + Thread.currentThread().getName());
+        Tracer.info("Lock acquired by thread: {}", Thread.currentThread().getName());
         try {
             while (!isAvailable) {
-                System.out.println("No item to consume, thread " + Thread.currentThread().getName() + " is waiting.");
+                Tracer.info("No item to consume, thread {} is waiting.", Thread.currentThread().getName());
                 condition.await();
             }
-            System.out.println("Consuming item by thread: " + Thread.currentThread().getName());
+            Tracer.info("Consuming item by thread: {}", Thread.currentThread().getName());
             isAvailable = false;
-            System.out.println("Signaling producer thread by thread: " + Thread.currentThread().getName());
+            Tracer.info("Signaling producer thread by thread: {}", Thread.currentThread().getName());
             condition.signalAll();
         } finally {
             lock.unlock();
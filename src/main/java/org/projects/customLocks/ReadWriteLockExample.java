@@ -1,5 +1,7 @@
 package org.projects.customLocks;
 
+import org.projects.trace.Tracer;
+
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -14,7 +16,7 @@ public class ReadWriteLockExample {
 
     public void produce(ReadWriteLock readWriteLock) {
         readWriteLock.readLock().lock();
-        System.out.println("Read lock acquired by thread: " + Thread.currentThread().getName());
+        Tracer.info("Read lock acquired by thread: {}", Thread.currentThread().getName());
         // Simulate read operation
         try {
             Thread.sleep(5000);
@@ -22,14 +24,14 @@ public class ReadWriteLockExample {
             e.printStackTrace();
         } finally {
             readWriteLock.readLock().unlock();
-            System.out.println("Read lock released by thread: " + Thread.currentThread().getName());
+            Tracer.info("Read lock released by thread: {}", Thread.currentThread().getName());
         }
     }
 
     public void consume(ReadWriteLock readWriteLock) {
-        System.out.println("Attempting to acquire write lock by thread: " + Thread.currentThread().getName());
+        Tracer.info("Attempting to acquire write lock by thread: {}", Thread.currentThread().getName());
         readWriteLock.writeLock().lock();
-        System.out.println("Write lock acquired by thread: " + Thread.currentThread().getName());
+        Tracer.info("Write lock acquired by thread: {}", Thread.currentThread().getName());
         // Simulate write operation
         try {
             Thread.sleep(2000);
@@ -37,7 +39,7 @@ public class ReadWriteLockExample {
             e.printStackTrace();
         } finally {
             readWriteLock.writeLock().unlock();
-            System.out.println("Write lock released by thread: " + Thread.currentThread().getName());
+            Tracer.info("Write lock released by thread: {}", Thread.currentThread().getName());
         }
     }
 
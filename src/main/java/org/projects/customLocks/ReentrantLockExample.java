@@ -1,5 +1,7 @@
 package org.projects.customLocks;
 
+import org.projects.trace.Tracer;
+
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -13,10 +15,10 @@ public class ReentrantLockExample {
 
     public void produce(ReentrantLock lock) throws InterruptedException {
         lock.lock();
-        System.out.println("Lock acquired by thread: " + Thread.currentThread().getName());
+        Tracer.info("Lock acquired by thread: {}", Thread.currentThread().getName());
         Thread.sleep(2000);
 
-        System.out.println("Lock released by thread: " + Thread.currentThread().getName());
+        Tracer.info("Lock released by thread: {}", Thread.currentThread().getName());
         lock.unlock();
     }
 
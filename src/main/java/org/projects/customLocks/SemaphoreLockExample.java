@@ -1,11 +1,16 @@
 package org.projects.customLocks;
 
+import org.projects.trace.Tracer;
+
 import java.util.concurrent.Semaphore;
 
 /**
  * This example demonstrates the use of Semaphore for controlling access to a resource.
  * The Semaphore is initialized with a fixed number of permits, allowing multiple threads
  * to access the resource concurrently up to the limit of permits.
+ * A semaphore limits how many threads use the resource at the same time, not how often it is used: a caller that
+ * releases its permit quickly can acquire it again at once. To limit calls to N per second see
+ * org.projects.lockFree.RateLimiter.
  */
 public class SemaphoreLockExample {
 
@@ -13,19 +18,19 @@ public class SemaphoreLockExample {
 
     public void accessResource() {
         try {
-            System.out.println("Thread " + Thread.currentThread().getName() + " is attempting to acquire a permit.");
+            Tracer.info("Thread {} is attempting to acquire a permit.", Thread.currentThread().getName());
             semaphore.acquire();
-            System.out.println("Thread " + Thread.currentThread().getName() + " has acquired a permit.");
+            Tracer.info("Thread {} has acquired a permit.", Thread.currentThread().getName());
 
             // Simulate resource access
-            System.out.println("Thread " + Thread.currentThread().getName() + " is accessing the resource.");
+            Tracer.info("Thread {} is accessing the resource.", Thread.currentThread().getName());
             Thread.sleep(3000);
 
         } catch (InterruptedException e) {
             e.printStackTrace();
         } finally {
             semaphore.release();
-            System.out.println("Thread " + Thread.currentThread().getName() + " has released a permit.");
+            Tracer.info("Thread {} has released a permit.", Thread.currentThread().getName());
         }
     }
 
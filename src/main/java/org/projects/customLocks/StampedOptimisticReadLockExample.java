@@ -1,5 +1,7 @@
 package org.projects.customLocks;
 
+import org.projects.trace.Tracer;
+
 import java.util.concurrent.locks.StampedLock;
 
 /**
@@ -28,22 +30,22 @@ public class StampedOptimisticReadLockExample {
 
     public void read() {
         long stamp = stampedLock.tryOptimisticRead();
-        System.out.println("Optimistic read lock acquired by thread: " + Thread.currentThread().getName());
+        Tracer.info("Optimistic read lock acquired by thread: {}", Thread.currentThread().getName());
         // Simulate read operation
         try {
             Thread.sleep(2500);
             if (!stampedLock.validate(stamp)) {
-                System.out.println("Optimistic read failed, acquiring read lock by thread: " + Thread.currentThread().getName());
+                Tracer.info("Optimistic read failed, acquiring read lock by thread: {}", Thread.currentThread().getName());
                 stamp = stampedLock.readLock();
                 try {
                     // Perform read operation under read lock
                     Thread.sleep(1000);
                 } finally {
                     stampedLock.unlockRead(stamp);
-                    System.out.println("Read lock released by thread: " + Thread.currentThread().getName() + ", value: " + value);
+                    Tracer.info("Read lock released by thread: {}, value: {}", Thread.currentThread().getName(), value);
                 }
             } else {
-                System.out.println("Optimistic read successful by thread: " + Thread.currentThread().getName() + ", value: " + value);
+                Tracer.info("Optimistic read successful by thread: {}, value: {}", Thread.currentThread().getName(), value);
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -52,7 +54,7 @@ public class StampedOptimisticReadLockExample {
 
     public void write(int a) {
         long stamp = stampedLock.writeLock();
-        System.out.println("Write lock acquired by thread: " + Thread.currentThread().getName());
+        Tracer.info("Write lock acquired by thread: {}", Thread.currentThread().getName());
         // Simulate write operation
         try {
             Thread.sleep(2000);
@@ -62,7 +64,7 @@ public class StampedOptimisticReadLockExample {
         }
         finally {
             stampedLock.unlockWrite(stamp);
-            System.out.println("Write lock released by thread: " + Thread.currentThread().getName());
+            Tracer.info("Write lock released by thread: {}", Thread.currentThread().getName());
         }
     }
 
@@ -1,5 +1,7 @@
 package org.projects.customLocks;
 
+import org.projects.trace.Tracer;
+
 import java.util.concurrent.locks.StampedLock;
 
 /**
@@ -13,7 +15,7 @@ public class StampedReadWriteLockExample {
 
     public void produce(StampedLock stampedLock) {
         long stamp = stampedLock.readLock();
-        System.out.println("Read lock acquired by thread: " + Thread.currentThread().getName());
+        Tracer.info("Read lock acquired by thread: {}", Thread.currentThread().getName());
         // Simulate read operation
         try {
             Thread.sleep(5000);
@@ -21,14 +23,14 @@ public class StampedReadWriteLockExample {
             e.printStackTrace();
         } finally {
             stampedLock.unlockRead(stamp);
-            System.out.println("Read lock released by thread: " + Thread.currentThread().getName());
+            Tracer.info("Read lock released by thread: {}", Thread.currentThread().getName());
         }
     }
 
     public void consume(StampedLock stampedLock) {
-        System.out.println("Attempting to acquire write lock by thread: " + Thread.currentThread().getName());
+        Tracer.info("Attempting to acquire write lock by thread: {}", Thread.currentThread().getName());
         long stamp = stampedLock.writeLock();
-        System.out.println("Write lock acquired by thread: " + Thread.currentThread().getName());
+        Tracer.info("Write lock acquired by thread: {}", Thread.currentThread().getName());
         // Simulate write operation
         try {
             Thread.sleep(2000);
@@ -36,7 +38,7 @@ public class StampedReadWriteLockExample {
             e.printStackTrace();
         } finally {
             stampedLock.unlockWrite(stamp);
-            System.out.println("Write lock released by thread: " + Thread.currentThread().getName());
+            Tracer.info("Write lock released by thread: {}", Thread.currentThread().getName());
         }
     }
 
@@ -0,0 +1,235 @@
+package org.projects.executors;
+
+import org.projects.metrics.ConcurrentHistogram;
+import org.projects.trace.Tracer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Resizes a ThreadPoolExecutor at runtime so that the 99th percentile of the time tasks wait in its queue stays below
+ * a target, instead of the fixed core and maximum sizes of the other examples.
+ * <br>
+ * Tasks are passed through execute() or track(), which records the time from submission to start (the queue delay)
+ * and the time the task runs (the service time) in ConcurrentHistograms. Every interval the controller takes interval
+ * snapshots of both, together with the completed task count and the queue length of the executor, and then:
+ * 1. Smooths the p99 queue delay with an exponential moving average, so a single bad interval does not resize.
+ * 2. Estimates the number of threads the load needs with Little's law: threads = arrival rate * mean service time,
+ *    with 20% headroom. The arrival rate is the completion rate plus the growth of the queue. Tasks already queued
+ *    add the threads needed to work them off within a few intervals.
+ * 3. If the smoothed p99 is above the target and the estimate is above the current size, or the queue grows, grows
+ *    the pool to the estimate, by at least one thread and at most doubling it. A backlog that is already shrinking
+ *    does not grow the pool, although the delays of its tasks are still high.
+ * 4. If it is below half the target and the estimate is below the current size, shrinks the pool by a quarter of the
+ *    difference, at least one thread, and remembers that it did. This is the hill climbing part: if the next interval
+ *    shows the queue growing, or the delay coming close to the target, the step was wrong, and it is taken back.
+ * 5. After growing it holds the size for one interval, and for a few after taking a step back, so the pool has time to
+ *    settle before the next decision. Together with the smoothing this keeps the pool from oscillating around the target.
+ * <br>
+ * The controller sets core and maximum pool size to the same value, the pool has a fixed size that the controller
+ * moves. It therefore needs an unbounded queue such as LinkedBlockingQueue, with a bounded queue the executor would
+ * reject tasks before the controller had a chance to grow the pool.
+ */
+public class AdaptivePoolSizer implements AutoCloseable {
+
+    private static final double SMOOTHING = 0.5;
+    private static final double HEADROOM = 1.2;
+    private static final int HOLD_INTERVALS = 3;
+
+    private final ThreadPoolExecutor executor;
+    private final long targetP99Nanos;
+    private final int minSize;
+    private final int maxSize;
+    private final long intervalNanos;
+    private final ConcurrentHistogram queueDelay = new ConcurrentHistogram();
+    private final ConcurrentHistogram serviceTime = new ConcurrentHistogram();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AdaptivePoolSizer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Written by the scheduler thread only, read by getSmoothedP99()
+    private volatile double smoothedP99Nanos;
+    // Controller state, only used by the scheduler thread
+    private long lastCompleted;
+    private int lastQueued;
+    private int holdIntervals;
+    private int queuedBeforeShrink = -1;
+    private int lastShrinkStep;
+
+    /**
+     * @param targetP99 the 99th percentile of the queue delay to stay below
+     * @param minSize   the smallest pool size the controller sets
+     * @param maxSize   the largest pool size the controller sets
+     */
+    public AdaptivePoolSizer(ThreadPoolExecutor executor, long targetP99, TimeUnit unit, int minSize, int maxSize) {
+        this(executor, targetP99, unit, minSize, maxSize, 500, TimeUnit.MILLISECONDS);
+    }
+
+    public AdaptivePoolSizer(ThreadPoolExecutor executor, long targetP99, TimeUnit unit, int minSize, int maxSize,
+                             long interval, TimeUnit intervalUnit) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid pool size range " + minSize + " to " + maxSize);
+        }
+        this.executor = executor;
+        this.targetP99Nanos = unit.toNanos(targetP99);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.intervalNanos = intervalUnit.toNanos(interval);
+        this.lastCompleted = executor.getCompletedTaskCount();
+    }
+
+    /**
+     * Starts adjusting the pool size every interval.
+     */
+    public AdaptivePoolSizer start() {
+        scheduler.scheduleAtFixedRate(this::adjustSafely, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        return this;
+    }
+
+    /**
+     * Submits the task to the executor, measuring its queue delay and service time.
+     */
+    public void execute(Runnable task) {
+        executor.execute(track(task));
+    }
+
+    /**
+     * Wraps the task so that it records its queue delay and service time, for tasks submitted to the executor directly.
+     */
+    public Runnable track(Runnable task) {
+        long submittedNanos = System.nanoTime();
+        return () -> {
+            long startNanos = System.nanoTime();
+            queueDelay.record(startNanos - submittedNanos);
+            try {
+                task.run();
+            } finally {
+                serviceTime.recordSince(startNanos);
+            }
+        };
+    }
+
+    public long getSmoothedP99(TimeUnit unit) {
+        return unit.convert((long) smoothedP99Nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Runs adjust(), logging what it throws: an exception would cancel the periodic task and stop the sizing for good.
+     */
+    private void adjustSafely() {
+        try {
+            adjust();
+        } catch (RuntimeException e) {
+            Tracer.log(Tracer.Level.WARN, "Adjusting the pool size failed: {}", e);
+        }
+    }
+
+    private void adjust() {
+        ConcurrentHistogram.Snapshot delays = queueDelay.intervalSnapshot();
+        ConcurrentHistogram.Snapshot services = serviceTime.intervalSnapshot();
+        double seconds = delays.intervalNanos() / 1e9;
+        long completed = executor.getCompletedTaskCount();
+        int queued = executor.getQueue().size();
+        double throughput = (completed - lastCompleted) / seconds;
+        double arrivalRate = Math.max(0, throughput + (queued - lastQueued) / seconds);
+        lastCompleted = completed;
+        int queueGrowth = queued - lastQueued;
+        lastQueued = queued;
+
+        long p99 = delays.valueAtPercentile(99);
+        if (delays.totalCount() == 0 && queued > 0) {
+            // Nothing started although tasks are waiting, the delay of the waiting ones is at least the interval
+            p99 = intervalNanos;
+        }
+        double smoothed = SMOOTHING * p99 + (1 - SMOOTHING) * smoothedP99Nanos;
+        smoothedP99Nanos = smoothed;
+        double serviceSeconds = services.mean() / 1e9;
+        double drainSeconds = Math.max(targetP99Nanos, (HOLD_INTERVALS + 1) * intervalNanos) / 1e9;
+        double backlogThreads = queued * serviceSeconds / drainSeconds;
+        int littleSize = (int) Math.ceil((arrivalRate * serviceSeconds + backlogThreads) * HEADROOM);
+        int current = executor.getCorePoolSize();
+
+        int size = current;
+        String reason = null;
+        // The previous interval shrank the pool, check whether that hurt
+        boolean stepDownHurt = queuedBeforeShrink >= 0
+                && (queueGrowth > 0 && queued > queuedBeforeShrink || p99 > targetP99Nanos / 2);
+        queuedBeforeShrink = -1;
+        if (stepDownHurt) {
+            size = current + lastShrinkStep;
+            holdIntervals = HOLD_INTERVALS;
+            reason = "taking back the last step down";
+        } else if (holdIntervals > 0) {
+            holdIntervals--;
+        } else if (smoothed > targetP99Nanos && (littleSize > current || queueGrowth > 0)) {
+            size = Math.min(Math.max(current + 1, littleSize), 2 * current);
+            // New threads start at once, one interval shows whether they are enough
+            holdIntervals = 1;
+            reason = "p99 above target";
+        } else if (smoothed < targetP99Nanos / 2.0 && littleSize < current) {
+            lastShrinkStep = Math.max(1, (current - littleSize) / 4);
+            size = current - lastShrinkStep;
+            queuedBeforeShrink = queued;
+            reason = "p99 well below target";
+        }
+
+        size = Math.max(minSize, Math.min(maxSize, size));
+        if (size != current) {
+            resize(size);
+            Tracer.info("Pool size {} -> {}, {}", current, size, String.format(
+                    "%s: smoothed p99 %.1f ms, %.0f tasks/s, Little's law %d threads", reason, smoothed / 1e6,
+                    arrivalRate, littleSize));
+        } else {
+            // Clamped to the minimum, there is no step down to check
+            queuedBeforeShrink = -1;
+        }
+    }
+
+    private void resize(int size) {
+        // The core size may never be above the maximum size, so the order depends on the direction
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Sends tasks of 20 ms to a pool of 2 threads at 40 tasks/s, then at 400 tasks/s, ten times as many, and then at
+     * 40 tasks/s again, with a p99 queue delay target of 50 ms. At 400 tasks/s Little's law needs 8 threads, the
+     * controller grows the pool to about 10 and shrinks it again, a thread at a time, when the load drops.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        try (AdaptivePoolSizer sizer = new AdaptivePoolSizer(executor, 50, TimeUnit.MILLISECONDS, 1, 64,
+                250, TimeUnit.MILLISECONDS).start()) {
+            int[][] phases = {{40, 3}, {400, 5}, {40, 5}};
+            for (int[] phase : phases) {
+                int rate = phase[0];
+                long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(phase[1]);
+                Tracer.info("Sending {} tasks/s for {} s", rate, phase[1]);
+                for (long next = System.nanoTime(); next < end; next += periodNanos) {
+                    LockSupport.parkNanos(next - System.nanoTime());
+                    sizer.execute(() -> LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20)));
+                }
+                Tracer.info("End of phase: pool size {}, smoothed p99 queue delay {} ms", executor.getCorePoolSize(),
+                        sizer.getSmoothedP99(TimeUnit.MILLISECONDS));
+            }
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,53 @@
+package org.projects.executors;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A RejectedExecutionHandler that makes the submitting thread wait, up to a timeout, until the queue of the executor
+ * has room for the task, instead of dropping it or throwing at once.
+ * <br>
+ * The executor only calls the handler once all threads up to the maximum pool size are busy and the queue is full,
+ * so waiting for a free slot in the queue is waiting for one of the running tasks to finish. This slows the
+ * producer down to the rate at which the pool completes tasks, which is backpressure. The timeout bounds how long a
+ * producer can be held up, e.g. a request thread that has a deadline of its own, after it the task is rejected with a
+ * RejectedExecutionException as AbortPolicy does.
+ * <br>
+ * The task is offered to the queue directly, which is what execute() would have done, wrapped by
+ * InstrumentedThreadPoolExecutor.queueable() as execute() of that executor wraps it. If the executor is shut down
+ * while the task waits for a slot, the task is taken out of the queue again and rejected, so it is never left in a
+ * queue no worker will read.
+ */
+public class BlockingRejectionPolicy implements RejectedExecutionHandler {
+
+    private final long timeoutNanos;
+
+    public BlockingRejectionPolicy(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Task " + task + " rejected from " + executor);
+        }
+        Runnable queueable = InstrumentedThreadPoolExecutor.queueable(executor, task);
+        boolean queued;
+        try {
+            queued = executor.getQueue().offer(queueable, timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting to queue " + task, e);
+        }
+        if (!queued) {
+            throw new RejectedExecutionException("Task " + task + " timed out waiting for a slot in " + executor);
+        }
+        if (executor.isShutdown() && executor.remove(queueable)) {
+            throw new RejectedExecutionException("Task " + task + " rejected from " + executor);
+        }
+        // The pool may have shrunk to zero threads while the task waited, e.g. with allowCoreThreadTimeOut
+        executor.prestartCoreThread();
+    }
+}
@@ -1,5 +1,7 @@
 package org.projects.executors;
 
+import org.projects.trace.Tracer;
+
 import java.util.concurrent.*;
 
 /**
@@ -20,25 +22,30 @@ import java.util.concurrent.*;
  * while thenApplyAsync is used when the function returns a direct value. This means that thenComposeAsync is useful for chaining
  * asynchronous operations that depend on each other, while thenApplyAsync is used for transforming the result of a single asynchronous operation.
  * So basically, thenComposeAsync is for dependent async tasks, and thenApplyAsync is for independent transformations.
+ * <br>
+ * The stages run on a WorkStealingExecutor. A stage that completes on a worker submits the next Async stage from that
+ * worker, so it goes to the worker's own deque instead of a queue shared by all threads. A ThreadPoolExecutor works
+ * as well, but all its threads take the stages from one queue, and with a bounded queue such as an
+ * ArrayBlockingQueue(2) it rejects stages as soon as the queue is full.
+ * Every Async stage is a hop to another thread. FusedPipeline builds the same kind of chain but fuses the cheap stages
+ * into one task and only hops for stages marked as blocking or CPU-heavy.
  * For more information, refer to
  * <a href="https://stackoverflow.com/questions/30212335/what-is-the-difference-between-thenapply-and-thencompose-in-completablefuture">thenApply vs thenCompose</a>
  */
 public class CompletableFutureExample {
     public static void main(String[] args) {
-        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(2, 4, 60, TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(2), Executors.defaultThreadFactory(),
-                new ThreadPoolExecutor.AbortPolicy());
+        ExecutorService executor = new WorkStealingExecutor(2);
 
         /*
           supplyAsync: Used to run a task asynchronously that returns a result.
          */
         CompletableFuture<String> completableFuture = CompletableFuture.supplyAsync(() -> {
-            System.out.println("Executing supply async alone in thread: " + Thread.currentThread().getName());
+            Tracer.info("Executing supply async alone in thread: {}", Thread.currentThread().getName());
             return "Hello from CompletableFuture!\n";
-        }, threadPoolExecutor);
+        }, executor);
 
         try {
-            System.out.println(completableFuture.get());
+            Tracer.info("{}", completableFuture.get());
         } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
         }
@@ -48,15 +55,15 @@ public class CompletableFutureExample {
           Runs in the same thread as the previous stage.
          */
         CompletableFuture<String> completableFuture1 = CompletableFuture.supplyAsync(() -> {
-            System.out.println("Executing supply async in thread: " + Thread.currentThread().getName());
+            Tracer.info("Executing supply async in thread: {}", Thread.currentThread().getName());
             return "Hello from ";
-        }, threadPoolExecutor).thenApply((String s) -> {
-            System.out.println("Executing then apply in thread: " + Thread.currentThread().getName());
+        }, executor).thenApply((String s) -> {
+            Tracer.info("Executing then apply in thread: {}", Thread.currentThread().getName());
             return s + "CompletableFuture! with thenApply.\n";
         });
 
         try {
-            System.out.println(completableFuture1.get());
+            Tracer.info("{}", completableFuture1.get());
         } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
         }
@@ -67,15 +74,15 @@ public class CompletableFutureExample {
           By default, it uses the ForkJoinPool.commonPool() if no executor is provided.
          */
         CompletableFuture<String> completableFuture2 = CompletableFuture.supplyAsync(() -> {
-            System.out.println("Executing supply async in thread: " + Thread.currentThread().getName());
+            Tracer.info("Executing supply async in thread: {}", Thread.currentThread().getName());
             return System.currentTimeMillis();
-        }, threadPoolExecutor).thenApplyAsync((Long curTime) -> {
-            System.out.println("Executing then apply async in thread: " + Thread.currentThread().getName());
+        }, executor).thenApplyAsync((Long curTime) -> {
+            Tracer.info("Executing then apply async in thread: {}", Thread.currentThread().getName());
             return "Current Time in millis: " + curTime + " from CompletableFuture with thenApplyAsync.\n";
         });
 
         try {
-            System.out.println(completableFuture2.get());
+            Tracer.info("{}", completableFuture2.get());
         } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
         }
@@ -85,18 +92,18 @@ public class CompletableFutureExample {
           It flattens nested CompletableFutures into a single one.
          */
         CompletableFuture<String> completableFuture3 = CompletableFuture.supplyAsync(() -> {
-            System.out.println("Executing supply async in thread: " + Thread.currentThread().getName());
+            Tracer.info("Executing supply async in thread: {}", Thread.currentThread().getName());
             return "Hello from ";
-        }, threadPoolExecutor).thenComposeAsync((String s) -> {
-            System.out.println("Executing then compose in thread: " + Thread.currentThread().getName());
+        }, executor).thenComposeAsync((String s) -> {
+            Tracer.info("Executing then compose in thread: {}", Thread.currentThread().getName());
             return CompletableFuture.supplyAsync(() -> {
-                System.out.println("Executing inner supply async in thread: " + Thread.currentThread().getName());
+                Tracer.info("Executing inner supply async in thread: {}", Thread.currentThread().getName());
                 return s + "CompletableFuture! with thenCompose.\n";
-            }, threadPoolExecutor);
-        }, threadPoolExecutor);
+            }, executor);
+        }, executor);
 
         try {
-            System.out.println(completableFuture3.get());
+            Tracer.info("{}", completableFuture3.get());
         } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
         }
@@ -109,14 +116,14 @@ public class CompletableFutureExample {
             return 0;
         });
         CompletableFuture<Void> completableFuture5 = completableFuture4.thenApplyAsync((Integer val) -> {
-            System.out.println("Executing first then apply in thread: " + Thread.currentThread().getName());
+            Tracer.info("Executing first then apply in thread: {}", Thread.currentThread().getName());
             for(int i=0; i<1000; i++) {
                 val += 1;
             }
             return val;
-        }, threadPoolExecutor).thenAccept((Integer val) -> {
-            System.out.println("Executing then accept in thread: " + Thread.currentThread().getName());
-            System.out.println("Final value after chained operations: " + val + "\n");
+        }, executor).thenAccept((Integer val) -> {
+            Tracer.info("Executing then accept in thread: {}", Thread.currentThread().getName());
+            Tracer.info("Final value after chained operations: {}\n", val);
         });
 
 
@@ -128,16 +135,16 @@ public class CompletableFutureExample {
           It takes a BiFunction that defines how to combine the results.
          */
         CompletableFuture<String> combinedFuture = completableFutureString.thenCombineAsync(completableFutureInteger, (String message, Integer steps) -> {
-            System.out.println("Combining results in thread: " + Thread.currentThread().getName());
+            Tracer.info("Combining results in thread: {}", Thread.currentThread().getName());
             return steps + message + "\n";
-        }, threadPoolExecutor);
+        }, executor);
 
         try {
-            System.out.println(combinedFuture.get());
+            Tracer.info("{}", combinedFuture.get());
         } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
         }
 
-        threadPoolExecutor.shutdown();
+        executor.shutdown();
     }
 }
@@ -0,0 +1,255 @@
+package org.projects.executors;
+
+import org.projects.lockFree.SkipListPriorityQueue;
+import org.projects.lockFree.StripedCounter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ThreadPoolExecutor that runs the task with the earliest deadline first (EDF) and drops tasks whose deadline has
+ * passed before they start, instead of running tasks in the order they were submitted.
+ * <br>
+ * Under overload a FIFO queue makes every task wait for all the tasks before it. Once the wait is longer than the
+ * deadlines, every task is late: the pool is busy all the time, its throughput is at its maximum, and none of that
+ * work is of use to anyone, the clients have given up. This executor aims for goodput, the tasks that finish in time:
+ * 1. Every task has a deadline, given with execute() and submit(), or the default deadline of the executor.
+ * 2. The queue is a SkipListPriorityQueue ordered by deadline, so a worker always takes the most urgent task.
+ *    Tasks with the same deadline run in submission order.
+ * 3. A task whose deadline has passed when a worker takes it is not run, nor is one whose deadline is closer than
+ *    the average run time of the tasks so far, it would most likely complete late. Its Future completes with an
+ *    ExecutionException caused by a TimeoutException, and the worker moves on to the next task at once.
+ * <br>
+ * The executor counts the tasks that completed on time, the ones that started in time but completed late and the
+ * ones that were dropped in the queue. getDeadlineMissRate() is the share of the last two.
+ * <br>
+ * EDF is optimal as long as all deadlines can be met, and drops the tasks that are late anyway when they cannot.
+ * A task with a distant deadline may wait as long as more urgent tasks keep arriving, which is the point, but also
+ * means that tasks without a real deadline should get a generous one rather than none.
+ * The pool has a fixed number of threads and an unbounded queue, overload shows in the miss rate, not in rejections.
+ */
+public class DeadlineExecutor extends ThreadPoolExecutor {
+
+    // Far enough away to never expire, close enough that deadline differences do not overflow
+    private static final long NO_DEADLINE_NANOS = Long.MAX_VALUE / 4;
+    // Each task moves the average run time by 1/8 of its difference from it
+    private static final int RUN_TIME_SMOOTHING_SHIFT = 3;
+
+    private final long defaultDeadlineNanos;
+    private final StripedCounter onTime = new StripedCounter();
+    private final StripedCounter late = new StripedCounter();
+    private final StripedCounter expired = new StripedCounter();
+    private final AtomicLong sequencer = new AtomicLong();
+    private volatile long meanRunNanos;
+
+    /**
+     * A task with its absolute deadline in System.nanoTime().
+     */
+    private final class DeadlineTask<T> extends FutureTask<T> implements Comparable<DeadlineTask<?>> {
+        final long deadlineNanos;
+        final long sequence = sequencer.getAndIncrement();
+        // Passed to execute() without a Future, its exceptions go to the uncaught exception handler
+        final boolean reportExceptions;
+
+        DeadlineTask(Callable<T> callable, long deadlineNanos, boolean reportExceptions) {
+            super(callable);
+            this.deadlineNanos = deadlineNanos;
+            this.reportExceptions = reportExceptions;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                // Cancelled while queued, it neither ran nor expired
+                return;
+            }
+            long startNanos = System.nanoTime();
+            if (startNanos + meanRunNanos - deadlineNanos > 0) {
+                expired.increment();
+                super.setException(new TimeoutException("Deadline passes before the task can complete"));
+                return;
+            }
+            super.run();
+            long endNanos = System.nanoTime();
+            // Racy read-modify-write, a lost update only delays the average by one task
+            meanRunNanos += (endNanos - startNanos - meanRunNanos) >> RUN_TIME_SMOOTHING_SHIFT;
+            if (endNanos - deadlineNanos > 0) {
+                late.increment();
+            } else {
+                onTime.increment();
+            }
+        }
+
+        @Override
+        protected void setException(Throwable throwable) {
+            super.setException(throwable);
+            if (reportExceptions) {
+                TaskRunner.reportFailure(throwable);
+            }
+        }
+
+        @Override
+        public int compareTo(DeadlineTask<?> other) {
+            // Subtracting keeps the order right when nanoTime wraps around
+            int order = Long.compare(deadlineNanos - other.deadlineNanos, 0);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Creates an executor whose tasks have no deadline unless one is given.
+     */
+    public DeadlineExecutor(int threads) {
+        this(threads, NO_DEADLINE_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param defaultDeadline the deadline, relative to submission, of tasks submitted without one
+     */
+    public DeadlineExecutor(int threads, long defaultDeadline, TimeUnit unit) {
+        this(threads, defaultDeadline, unit, Executors.defaultThreadFactory());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DeadlineExecutor(int threads, long defaultDeadline, TimeUnit unit, ThreadFactory threadFactory) {
+        // Spray width 1: strict EDF order, the workers are few and mostly busy running tasks, not polling
+        super(threads, threads, 0, TimeUnit.SECONDS,
+                new SkipListPriorityQueue<Runnable>((a, b) -> ((DeadlineTask) a).compareTo((DeadlineTask) b), 1),
+                threadFactory);
+        this.defaultDeadlineNanos = unit.toNanos(defaultDeadline);
+    }
+
+    /**
+     * Runs the task with the default deadline.
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (task instanceof DeadlineTask<?>) {
+            super.execute(task);
+        } else {
+            execute(task, defaultDeadlineNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Runs the task unless the deadline, relative to now, has passed before a thread is free for it.
+     */
+    public void execute(Runnable task, long deadline, TimeUnit unit) {
+        super.execute(new DeadlineTask<>(Executors.callable(task), deadlineOf(deadline, unit), true));
+    }
+
+    public <T> Future<T> submit(Callable<T> task, long deadline, TimeUnit unit) {
+        DeadlineTask<T> future = new DeadlineTask<>(task, deadlineOf(deadline, unit), false);
+        super.execute(future);
+        return future;
+    }
+
+    public Future<?> submit(Runnable task, long deadline, TimeUnit unit) {
+        return submit(Executors.callable(task), deadline, unit);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new DeadlineTask<>(callable, deadlineOf(defaultDeadlineNanos, TimeUnit.NANOSECONDS), false);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return newTaskFor(Executors.callable(runnable, value));
+    }
+
+    private static long deadlineOf(long deadline, TimeUnit unit) {
+        return System.nanoTime() + Math.min(unit.toNanos(deadline), NO_DEADLINE_NANOS);
+    }
+
+    /**
+     * Returns the number of tasks that completed before their deadline.
+     */
+    public long getOnTimeCount() {
+        return onTime.sum();
+    }
+
+    /**
+     * Returns the number of tasks that started before their deadline but completed after it.
+     */
+    public long getLateCount() {
+        return late.sum();
+    }
+
+    /**
+     * Returns the number of tasks that were dropped because their deadline passed, or was too close, while they were
+     * queued.
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    /**
+     * Returns the share of finished tasks that missed their deadline, late or expired, between 0 and 1.
+     */
+    public double getDeadlineMissRate() {
+        long missed = late.sum() + expired.sum();
+        long total = missed + onTime.sum();
+        return total == 0 ? 0 : (double) missed / total;
+    }
+
+    /**
+     * Overloads two threads by half: tasks of 10 ms arrive at 300 per second for 3 seconds, where the pool completes
+     * 200 per second, each with a deadline between 50 and 250 ms. A FIFO ThreadPoolExecutor runs every task, and
+     * after the first few hundred milliseconds all of them late. The DeadlineExecutor drops the third it cannot do
+     * and completes most of the rest in time.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        ThreadPoolExecutor fifo = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        StripedCounter fifoOnTime = new StripedCounter();
+        StripedCounter fifoLate = new StripedCounter();
+        long fifoNanos = overload(fifo, (task, deadlineNanos) -> fifo.execute(() -> {
+            task.run();
+            (System.nanoTime() - deadlineNanos > 0 ? fifoLate : fifoOnTime).increment();
+        }));
+        System.out.printf("FIFO: %d on time, %d late, %.0f%% missed, goodput %.0f tasks/s, done after %d ms%n",
+                fifoOnTime.sum(), fifoLate.sum(), 100.0 * fifoLate.sum() / (fifoOnTime.sum() + fifoLate.sum()),
+                fifoOnTime.sum() / (fifoNanos / 1e9), TimeUnit.NANOSECONDS.toMillis(fifoNanos));
+
+        DeadlineExecutor edf = new DeadlineExecutor(2);
+        long edfNanos = overload(edf, (task, deadlineNanos) ->
+                edf.execute(task, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS));
+        System.out.printf("EDF:  %d on time, %d late, %d expired, %.0f%% missed, goodput %.0f tasks/s, "
+                        + "done after %d ms%n", edf.getOnTimeCount(), edf.getLateCount(), edf.getExpiredCount(),
+                100 * edf.getDeadlineMissRate(), edf.getOnTimeCount() / (edfNanos / 1e9),
+                TimeUnit.NANOSECONDS.toMillis(edfNanos));
+    }
+
+    private interface Submitter {
+        void submit(Runnable task, long deadlineNanos);
+    }
+
+    /**
+     * Submits the tasks, shuts the executor down and returns the time until the last task has finished.
+     */
+    private static long overload(ThreadPoolExecutor executor, Submitter submitter) throws InterruptedException {
+        Runnable work = () -> LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        long start = System.nanoTime();
+        long period = TimeUnit.SECONDS.toNanos(1) / 300;
+        long end = start + TimeUnit.SECONDS.toNanos(3);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long next = start; next < end; next += period) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            submitter.submit(work, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(random.nextInt(50, 250)));
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        return System.nanoTime() - start;
+    }
+}
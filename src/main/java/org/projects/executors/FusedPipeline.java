@@ -0,0 +1,320 @@
+package org.projects.executors;
+
+import org.projects.lockFree.StripedCounter;
+import org.projects.metrics.ConcurrentHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * A chain of CompletableFuture stages that only changes threads where a stage needs another executor.
+ * <br>
+ * In CompletableFutureExample every thenApplyAsync() and thenComposeAsync() is a hop: the stage is queued on an
+ * executor and a thread, often on another core, picks it up, with a queue handoff and cold caches each time. For
+ * the cheap stages of a chain, parsing, mapping, validating, the hop costs more than the stage itself. The builder
+ * takes the stages as they are written and marks what they need instead:
+ * 1. then() is a cheap stage. It is fused with the stages before it into one function, and runs on whatever thread
+ *    ran the previous stage, the caller's thread for the first stages.
+ * 2. thenBlocking() and thenCpu() are stages that must not run just anywhere: blocking I/O belongs on the blocking
+ *    executor, e.g. virtual threads, and heavy computation on the CPU executor, e.g. a WorkStealingExecutor with one
+ *    thread per core. Such a stage starts a new segment on its executor, unless the segment before already runs
+ *    there, then it is fused as well. Cheap stages after it run on the same thread.
+ * 3. thenCompose() joins a stage that returns a CompletionStage of its own, e.g. a remote call. The next stages run
+ *    on the thread that completes it.
+ * build() turns every segment into a single thenApply() or thenApplyAsync() of the fused functions, so a chain of a
+ * dozen stages with two blocking calls hops two or three times instead of twelve.
+ * <br>
+ * Every request counts the thread changes it actually made, comparing the thread of each segment with the previous
+ * one, and hopsPerRequest() returns their distribution. getPlannedHops() is the number of executor changes in the
+ * chain, the hops a request makes if every segment gets a different thread.
+ * <br>
+ * A fused segment is one task: its stages run back to back and an exception in one skips the rest, as in the
+ * CompletableFuture chain. Marking a slow stage as cheap runs it on the thread of the stage before, which may be the
+ * caller, so only stages that take microseconds should be cheap.
+ */
+public final class FusedPipeline<I, O> implements Function<I, CompletableFuture<O>> {
+
+    /**
+     * Consecutive stages fused into one function that runs on the executor, or inline for a null executor, followed
+     * by an optional composed stage.
+     */
+    private record Segment(Executor executor, Function<Object, Object> function,
+                           Function<Object, CompletionStage<Object>> compose) {
+    }
+
+    /**
+     * The thread changes of one request.
+     */
+    private static final class Hops {
+        Thread thread = Thread.currentThread();
+        int count;
+
+        void ranOn(Thread current) {
+            if (current != thread) {
+                thread = current;
+                count++;
+            }
+        }
+    }
+
+    private final List<Segment> segments;
+    private final int stageCount;
+    private final int plannedHops;
+    private final ConcurrentHistogram hops = new ConcurrentHistogram(1 << 16, 7);
+    private final StripedCounter requests = new StripedCounter();
+    private final StripedCounter totalHops = new StripedCounter();
+
+    private FusedPipeline(List<Segment> segments, int stageCount) {
+        this.segments = List.copyOf(segments);
+        this.stageCount = stageCount;
+        int changes = 0;
+        Executor previous = null;
+        for (Segment segment : segments) {
+            if (segment.executor != null && segment.executor != previous) {
+                changes++;
+            }
+            previous = segment.compose != null ? null : segment.executor;
+        }
+        this.plannedHops = changes;
+    }
+
+    /**
+     * Starts a pipeline whose thenBlocking() stages run on the blocking executor and thenCpu() stages on the CPU one.
+     */
+    public static <T> Builder<T, T> builder(Executor blockingExecutor, Executor cpuExecutor) {
+        return new Builder<>(blockingExecutor, cpuExecutor);
+    }
+
+    /**
+     * Runs the stages for the input. The fused stages at the start run on the calling thread before this returns.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<O> apply(I input) {
+        Hops requestHops = new Hops();
+        CompletableFuture<Object> future = CompletableFuture.completedFuture(input);
+        for (Segment segment : segments) {
+            Function<Object, Object> function = value -> {
+                requestHops.ranOn(Thread.currentThread());
+                return segment.function.apply(value);
+            };
+            future = segment.executor == null ? future.thenApply(function)
+                    : future.thenApplyAsync(function, segment.executor);
+            if (segment.compose != null) {
+                future = future.thenCompose(segment.compose);
+            }
+        }
+        return (CompletableFuture<O>) future.whenComplete((result, throwable) -> {
+            // The thread that completes the last composed stage counts as well
+            requestHops.ranOn(Thread.currentThread());
+            hops.record(requestHops.count);
+            totalHops.add(requestHops.count);
+            requests.increment();
+        });
+    }
+
+    public int getStageCount() {
+        return stageCount;
+    }
+
+    /**
+     * Returns the number of tasks a request runs, each fused segment is one.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public int getPlannedHops() {
+        return plannedHops;
+    }
+
+    public double getMeanHopsPerRequest() {
+        long count = requests.sum();
+        return count == 0 ? 0 : (double) totalHops.sum() / count;
+    }
+
+    /**
+     * Returns the thread changes per request of the requests completed since the previous call.
+     */
+    public ConcurrentHistogram.Snapshot hopsPerRequest() {
+        return hops.intervalSnapshot();
+    }
+
+    /**
+     * Collects the stages of one pipeline. Every method returns the same builder with the new result type, so stages
+     * are chained and not branched.
+     */
+    public static final class Builder<I, T> {
+        private final Executor blockingExecutor;
+        private final Executor cpuExecutor;
+        private final List<Segment> segments = new ArrayList<>();
+        private int stageCount;
+        // The segment being fused and the executor it runs on, no segment is open while openFunction is null
+        private Executor openExecutor;
+        private Function<Object, Object> openFunction;
+
+        private Builder(Executor blockingExecutor, Executor cpuExecutor) {
+            this.blockingExecutor = blockingExecutor;
+            this.cpuExecutor = cpuExecutor;
+        }
+
+        /**
+         * Adds a cheap stage, which runs on the thread of the stage before it.
+         */
+        public <R> Builder<I, R> then(Function<? super T, ? extends R> stage) {
+            return add(null, stage);
+        }
+
+        /**
+         * Adds a stage that blocks, e.g. on I/O, which runs on the blocking executor.
+         */
+        public <R> Builder<I, R> thenBlocking(Function<? super T, ? extends R> stage) {
+            return add(blockingExecutor, stage);
+        }
+
+        /**
+         * Adds a CPU-heavy stage, which runs on the CPU executor.
+         */
+        public <R> Builder<I, R> thenCpu(Function<? super T, ? extends R> stage) {
+            return add(cpuExecutor, stage);
+        }
+
+        /**
+         * Adds a stage that runs on the given executor.
+         */
+        public <R> Builder<I, R> thenOn(Executor executor, Function<? super T, ? extends R> stage) {
+            if (executor == null) {
+                throw new NullPointerException();
+            }
+            return add(executor, stage);
+        }
+
+        /**
+         * Adds a cheap stage that starts an asynchronous operation. The stages after it continue on the thread that
+         * completes the returned stage.
+         */
+        @SuppressWarnings("unchecked")
+        public <R> Builder<I, R> thenCompose(Function<? super T, ? extends CompletionStage<R>> stage) {
+            stageCount++;
+            Function<Object, Object> function = openFunction != null ? openFunction : Function.identity();
+            segments.add(new Segment(openExecutor, function,
+                    (Function<Object, CompletionStage<Object>>) (Function<?, ?>) stage));
+            openExecutor = null;
+            openFunction = null;
+            return (Builder<I, R>) this;
+        }
+
+        public FusedPipeline<I, T> build() {
+            if (openFunction != null) {
+                segments.add(new Segment(openExecutor, openFunction, null));
+                openFunction = null;
+            }
+            return new FusedPipeline<>(segments, stageCount);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <R> Builder<I, R> add(Executor executor, Function<? super T, ? extends R> stage) {
+            stageCount++;
+            Function<Object, Object> function = (Function<Object, Object>) (Function<?, ?>) stage;
+            if (openFunction == null) {
+                // After a composed stage or at the start, cheap stages run inline
+                openExecutor = executor;
+                openFunction = function;
+            } else if (executor == null || executor == openExecutor) {
+                openFunction = openFunction.andThen(function);
+            } else {
+                segments.add(new Segment(openExecutor, openFunction, null));
+                openExecutor = executor;
+                openFunction = function;
+            }
+            return (Builder<I, R>) this;
+        }
+    }
+
+    /**
+     * Runs a request handler of 12 stages, 8 cheap, 2 that block for 100 us and 2 that compute for 20 us, as a
+     * CompletableFuture chain with an Async stage per step as in CompletableFutureExample, and as a FusedPipeline,
+     * one request at a time. Reports the latency percentiles and the thread changes per request.
+     */
+    public static void main(String[] args) {
+        ExecutorService blocking = new VirtualThreadExecutor();
+        ExecutorService cpu = new WorkStealingExecutor(2);
+
+        FusedPipeline<String, String> pipeline = FusedPipeline.<String>builder(blocking, cpu)
+                .then(String::trim)
+                .then(request -> request.split(","))
+                .then(fields -> fields[0])
+                .thenBlocking(FusedPipeline::loadAccount)
+                .then(String::toUpperCase)
+                .then(account -> account + ":checked")
+                .thenCpu(FusedPipeline::score)
+                .then(score -> "score=" + score)
+                .thenBlocking(FusedPipeline::audit)
+                .thenCpu(FusedPipeline::score)
+                .then(Object::toString)
+                .then(result -> "{" + result + "}")
+                .build();
+        System.out.printf("%d stages fused into %d segments, %d planned hops%n", pipeline.getStageCount(),
+                pipeline.getSegmentCount(), pipeline.getPlannedHops());
+
+        for (int round = 0; round < 3; round++) {
+            ConcurrentHistogram chainLatency = new ConcurrentHistogram();
+            ConcurrentHistogram pipelineLatency = new ConcurrentHistogram();
+            for (int i = 0; i < 2_000; i++) {
+                String request = "  account-" + (i % 100) + ",payload  ";
+                long start = System.nanoTime();
+                CompletableFuture.supplyAsync(request::trim, cpu)
+                        .thenApplyAsync(trimmed -> trimmed.split(","), cpu)
+                        .thenApplyAsync(fields -> fields[0], cpu)
+                        .thenApplyAsync(FusedPipeline::loadAccount, blocking)
+                        .thenApplyAsync(String::toUpperCase, cpu)
+                        .thenApplyAsync(account -> account + ":checked", cpu)
+                        .thenApplyAsync(FusedPipeline::score, cpu)
+                        .thenApplyAsync(score -> "score=" + score, cpu)
+                        .thenApplyAsync(FusedPipeline::audit, blocking)
+                        .thenApplyAsync(FusedPipeline::score, cpu)
+                        .thenApplyAsync(Object::toString, cpu)
+                        .thenApplyAsync(result -> "{" + result + "}", cpu)
+                        .join();
+                chainLatency.recordSince(start);
+
+                start = System.nanoTime();
+                pipeline.apply(request).join();
+                pipelineLatency.recordSince(start);
+            }
+            System.out.println("Async chain:    12 hops/request, "
+                    + chainLatency.intervalSnapshot().summary(TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS));
+            System.out.printf("FusedPipeline: %.1f hops/request, %s%n", pipeline.getMeanHopsPerRequest(),
+                    pipelineLatency.intervalSnapshot().summary(TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS));
+        }
+        System.out.println("Hops per request: " + pipeline.hopsPerRequest());
+        blocking.shutdown();
+        cpu.shutdown();
+    }
+
+    private static String loadAccount(String id) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        return id + "@db";
+    }
+
+    private static String audit(String value) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        return value;
+    }
+
+    private static long score(Object value) {
+        long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(20);
+        long hash = value.hashCode();
+        while (System.nanoTime() < end) {
+            hash = hash * 31 + 17;
+        }
+        return hash & 0xFFFF;
+    }
+}
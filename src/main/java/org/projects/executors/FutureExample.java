@@ -1,12 +1,15 @@
 package org.projects.executors;
 
-import java.util.concurrent.Executors;
+import org.projects.trace.Tracer;
+
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeoutException;
 
 /**
- * This example demonstrates the use of Future to monitor the status of a submitted task in a ThreadPoolExecutor.
+ * This example demonstrates the use of Future to monitor the status of a submitted task in an ExecutorService.
+ * Any ExecutorService returns the same kind of Future. This example runs on a WorkStealingExecutor with one worker,
+ * a ThreadPoolExecutor with one thread would behave the same.
  * It shows how to check if the task is completed, handle timeouts when waiting for the task to complete,
  * and retrieve the final status of the task.
  * Future is useful for tracking the progress of asynchronous tasks and retrieving their results once they are done.
@@ -18,23 +21,22 @@ public class FutureExample {
 
     public static void main(String[] args) {
 
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, java.util.concurrent.TimeUnit.SECONDS,
-                new java.util.concurrent.ArrayBlockingQueue<>(2), Executors.defaultThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        ExecutorService executor = new WorkStealingExecutor(1);
 
         Future<?> future = executor.submit(() -> {
             try {
                 Thread.sleep(7000);
-                System.out.println("Task Completed");
+                Tracer.info("Task Completed");
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
         });
 
-        System.out.println("Is the task completed? " + future.isDone());
+        Tracer.info("Is the task completed? {}", future.isDone());
         try {
             future.get(2, java.util.concurrent.TimeUnit.SECONDS);
         } catch (TimeoutException exception) {
-            System.out.println("Task is still not completed, timeout occurred.");
+            Tracer.info("Task is still not completed, timeout occurred.");
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -45,8 +47,8 @@ public class FutureExample {
             e.printStackTrace();
         }
 
-        System.out.println("Is the task completed? " + future.isDone());
-        System.out.println("Is the task cancelled? " + future.isCancelled());
+        Tracer.info("Is the task completed? {}", future.isDone());
+        Tracer.info("Is the task cancelled? {}", future.isCancelled());
 
         executor.shutdown();
     }
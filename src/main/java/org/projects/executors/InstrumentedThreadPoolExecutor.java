@@ -0,0 +1,439 @@
+package org.projects.executors;
+
+import org.projects.lockFree.StripedCounter;
+import org.projects.metrics.ConcurrentHistogram;
+import org.projects.trace.Tracer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ThreadPoolExecutor that measures where the time of its tasks goes, so that a latency spike can be told apart as
+ * slow tasks (the run time grows) or a pool that is too small (the queue wait grows while the run time stays the same).
+ * <br>
+ * 1. execute() wraps every task with its submission time, and submit() goes through execute().
+ * 2. beforeExecute() records the queue wait, from submission to start, and afterExecute() the run time, both in
+ *    ConcurrentHistograms, so recording is wait-free and allocates nothing.
+ * 3. StripedCounters count rejected tasks, tasks that threw, including those of submit() whose Future holds the
+ *    exception, and submissions that found every thread up to the maximum pool size busy or other tasks already
+ *    waiting, i.e. the pool was saturated and the task had to queue.
+ *    The number of busy threads is an AtomicInteger of its own, getActiveCount() would take the main lock of the pool.
+ * <br>
+ * The percentiles are reported per statistics window: the first read after the window has passed starts a new one,
+ * and until the next window has passed every read returns the values of the window before. rollWindow() starts a new
+ * window at once. Everything is exposed through JMX as a ThreadPoolMetricsMXBean once registerMXBean() is called,
+ * including the pool sizes, which can also be changed there.
+ * <br>
+ * Since tasks are wrapped, getQueue() holds the wrappers, and everything that looks a task up in the queue has to
+ * look inside them: remove() finds the wrapper of the task, and purge() removes the wrappers of cancelled Futures.
+ * The handler passed to the constructor or to setRejectedExecutionHandler() gets the original task, as does the
+ * list returned by shutdownNow(). A handler that puts the task back into getQueue() wraps it again with queueable().
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor implements ThreadPoolMetricsMXBean {
+
+    private static final long DEFAULT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final ConcurrentHistogram queueWait = new ConcurrentHistogram();
+    private final ConcurrentHistogram runTime = new ConcurrentHistogram();
+    private final StripedCounter rejected;
+    private final StripedCounter failed = new StripedCounter();
+    private final StripedCounter saturated = new StripedCounter();
+    private final AtomicInteger busyThreads = new AtomicInteger();
+    private final long windowNanos;
+
+    private final Object windowLock = new Object();
+    private ConcurrentHistogram.Snapshot windowQueueWait;
+    private ConcurrentHistogram.Snapshot windowRunTime;
+    private long windowStartNanos = System.nanoTime();
+    private ObjectName objectName;
+
+    /**
+     * A task with the time it was submitted, and the time it started once a thread runs it.
+     */
+    private static final class TimedTask implements Runnable {
+        final Runnable task;
+        final long submittedNanos;
+        long startNanos;
+
+        TimedTask(Runnable task, long submittedNanos) {
+            this.task = task;
+            this.submittedNanos = submittedNanos;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+    public InstrumentedThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                          BlockingQueue<Runnable> workQueue) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, Executors.defaultThreadFactory(),
+                new AbortPolicy());
+    }
+
+    public InstrumentedThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                          BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                          RejectedExecutionHandler handler) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler,
+                DEFAULT_WINDOW_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param window the minimum length of a statistics window
+     */
+    public InstrumentedThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                          BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                          RejectedExecutionHandler handler, long window, TimeUnit windowUnit) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler,
+                windowUnit.toNanos(window), new StripedCounter());
+    }
+
+    // The rejection counter is created before super() so that the handler gets it without this escaping
+    private InstrumentedThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                           BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                           RejectedExecutionHandler handler, long windowNanos,
+                                           StripedCounter rejected) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory,
+                new CountingRejectedExecutionHandler(handler, rejected));
+        this.rejected = rejected;
+        this.windowNanos = windowNanos;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        // Threads that were just started have not reached beforeExecute() yet, tasks waiting show the pool is busy
+        if (busyThreads.get() >= getMaximumPoolSize() || !getQueue().isEmpty()) {
+            saturated.increment();
+        }
+        super.execute(new TimedTask(command, System.nanoTime()));
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+        busyThreads.incrementAndGet();
+        if (runnable instanceof TimedTask timed) {
+            timed.startNanos = System.nanoTime();
+            queueWait.record(timed.startNanos - timed.submittedNanos);
+        }
+        super.beforeExecute(thread, runnable);
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+        Runnable task = runnable;
+        if (runnable instanceof TimedTask timed) {
+            runTime.recordSince(timed.startNanos);
+            task = timed.task;
+        }
+        if (throwable != null || failedFuture(task)) {
+            failed.increment();
+        }
+        busyThreads.decrementAndGet();
+    }
+
+    /**
+     * Returns true if the task is a Future from submit() that completed with an exception. The FutureTask catches
+     * the exception itself, so afterExecute() never sees it as a throwable.
+     */
+    private static boolean failedFuture(Runnable task) {
+        if (!(task instanceof Future<?> future) || !future.isDone()) {
+            return false;
+        }
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (CancellationException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the handler of the caller, rejections are still counted and the handler gets the original task.
+     */
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        super.setRejectedExecutionHandler(new CountingRejectedExecutionHandler(handler, rejected));
+    }
+
+    /**
+     * Returns the handler of the caller, without the wrapper that counts rejections.
+     */
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        return ((CountingRejectedExecutionHandler) super.getRejectedExecutionHandler()).handler;
+    }
+
+    /**
+     * Returns the task as execute() of the executor would have queued it, for a RejectedExecutionHandler that puts a
+     * rejected task into getQueue() itself, e.g. BlockingRejectionPolicy. An InstrumentedThreadPoolExecutor only times
+     * its wrappers, the queue wait of the task starts now. Other executors get the task as it is.
+     */
+    public static Runnable queueable(ThreadPoolExecutor executor, Runnable task) {
+        if (executor instanceof InstrumentedThreadPoolExecutor && !(task instanceof TimedTask)) {
+            return new TimedTask(task, System.nanoTime());
+        }
+        return task;
+    }
+
+    /**
+     * Removes the task from the queue if it has not started, looking for it inside the wrappers.
+     */
+    @Override
+    public boolean remove(Runnable task) {
+        for (Runnable queued : getQueue()) {
+            if (queued instanceof TimedTask timed && timed.task.equals(task) && super.remove(queued)) {
+                return true;
+            }
+        }
+        // A wrapper itself, e.g. from queueable()
+        return super.remove(task);
+    }
+
+    /**
+     * Removes the wrappers of cancelled Futures from the queue, which the purge() of ThreadPoolExecutor does not
+     * recognize as Futures.
+     */
+    @Override
+    public void purge() {
+        getQueue().removeIf(queued -> queued instanceof TimedTask timed
+                && timed.task instanceof Future<?> future && future.isCancelled());
+        super.purge();
+    }
+
+    /**
+     * Returns the tasks that never ran, unwrapped.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = new ArrayList<>();
+        for (Runnable runnable : super.shutdownNow()) {
+            tasks.add(runnable instanceof TimedTask timed ? timed.task : runnable);
+        }
+        return tasks;
+    }
+
+    @Override
+    protected void terminated() {
+        super.terminated();
+        unregisterMXBean();
+    }
+
+    /**
+     * Registers the executor with the platform MBeanServer as org.projects.executors:type=ThreadPool,name=name.
+     * It is unregistered when the executor terminates.
+     */
+    public synchronized InstrumentedThreadPoolExecutor registerMXBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("org.projects.executors:type=ThreadPool,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + name, e);
+        }
+        return this;
+    }
+
+    private synchronized void unregisterMXBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            Tracer.info("Cannot unregister {}: {}", objectName, e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Ends the current statistics window, the following reads return its values.
+     */
+    public void rollWindow() {
+        synchronized (windowLock) {
+            windowQueueWait = queueWait.intervalSnapshot();
+            windowRunTime = runTime.intervalSnapshot();
+            windowStartNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Returns the queue waits of the most recent statistics window, in nanoseconds.
+     */
+    public ConcurrentHistogram.Snapshot recentQueueWait() {
+        synchronized (windowLock) {
+            rollWindowIfPassed();
+            return windowQueueWait;
+        }
+    }
+
+    /**
+     * Returns the run times of the most recent statistics window, in nanoseconds.
+     */
+    public ConcurrentHistogram.Snapshot recentRunTime() {
+        synchronized (windowLock) {
+            rollWindowIfPassed();
+            return windowRunTime;
+        }
+    }
+
+    private void rollWindowIfPassed() {
+        if (windowQueueWait == null || System.nanoTime() - windowStartNanos >= windowNanos) {
+            rollWindow();
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    @Override
+    public int getQueueRemainingCapacity() {
+        return getQueue().remainingCapacity();
+    }
+
+    @Override
+    public long getRejectedTaskCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getFailedTaskCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getSaturatedSubmissionCount() {
+        return saturated.sum();
+    }
+
+    @Override
+    public double getQueueWaitP50Millis() {
+        return millis(recentQueueWait().valueAtPercentile(50));
+    }
+
+    @Override
+    public double getQueueWaitP99Millis() {
+        return millis(recentQueueWait().valueAtPercentile(99));
+    }
+
+    @Override
+    public double getQueueWaitP999Millis() {
+        return millis(recentQueueWait().valueAtPercentile(99.9));
+    }
+
+    @Override
+    public double getQueueWaitMaxMillis() {
+        return millis(recentQueueWait().max());
+    }
+
+    @Override
+    public double getRunTimeP50Millis() {
+        return millis(recentRunTime().valueAtPercentile(50));
+    }
+
+    @Override
+    public double getRunTimeP99Millis() {
+        return millis(recentRunTime().valueAtPercentile(99));
+    }
+
+    @Override
+    public double getRunTimeP999Millis() {
+        return millis(recentRunTime().valueAtPercentile(99.9));
+    }
+
+    @Override
+    public double getRunTimeMaxMillis() {
+        return millis(recentRunTime().max());
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Counts rejections and passes the original task on to the handler of the caller.
+     */
+    private static final class CountingRejectedExecutionHandler implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler handler;
+        private final StripedCounter rejected;
+
+        CountingRejectedExecutionHandler(RejectedExecutionHandler handler, StripedCounter rejected) {
+            if (handler == null) {
+                throw new NullPointerException();
+            }
+            this.handler = handler;
+            this.rejected = rejected;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            rejected.increment();
+            handler.rejectedExecution(runnable instanceof TimedTask timed ? timed.task : runnable, executor);
+        }
+    }
+
+    /**
+     * Runs the same burst of 20 tasks on a pool that is too small and on a pool of the right size, with tasks of the
+     * same run time: the queue wait shows the difference, the run time does not. Then shows the metrics over JMX.
+     */
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[] {2, 20}) {
+            InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor(threads, threads, 60,
+                    TimeUnit.SECONDS, new ArrayBlockingQueue<>(100)).registerMXBean("pool-" + threads);
+            for (int i = 0; i < 20; i++) {
+                executor.execute(() -> {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            Thread.sleep(1000);
+            executor.rollWindow();
+            Tracer.info("{} threads, queue wait: {}", threads,
+                    executor.recentQueueWait().summary(TimeUnit.NANOSECONDS, TimeUnit.MILLISECONDS));
+            Tracer.info("{} threads, run time:   {}", threads,
+                    executor.recentRunTime().summary(TimeUnit.NANOSECONDS, TimeUnit.MILLISECONDS));
+
+            ObjectName name = new ObjectName("org.projects.executors:type=ThreadPool,name=\"pool-" + threads + "\"");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Tracer.info("JMX {}: QueueWaitP99Millis={}, SaturatedSubmissionCount={}", name,
+                    server.getAttribute(name, "QueueWaitP99Millis"),
+                    server.getAttribute(name, "SaturatedSubmissionCount"));
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
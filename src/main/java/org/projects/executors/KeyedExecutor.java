@@ -0,0 +1,319 @@
+package org.projects.executors;
+
+import org.projects.lockFree.MichaelScottQueue;
+import org.projects.lockFree.StripedCounter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the tasks of the same key one at a time in submission order, e.g. the events of one account, while tasks of
+ * different keys run in parallel on a shared pool, without a lock per key and without a thread per key.
+ * <br>
+ * Every key that has tasks has a lane: a lock-free MichaelScottQueue of its tasks and a count of the tasks pending.
+ * 1. execute(key, task) looks up the lane in a ConcurrentHashMap, creating it on first use, increments the count and
+ *    queues the task. The producer that moves the count from 0 to 1 submits the lane to the pool, so a lane is on
+ *    the pool at most once, and that is what makes it serial.
+ * 2. The lane runs its tasks in order until the count drops to 0. After at most maxBatch tasks it submits itself
+ *    to the pool again and returns the thread, so a hot key gets its turn like every other lane but never holds
+ *    a pool thread while other keys wait.
+ * 3. A lane that has been idle for idleTimeout is removed from the map by a sweeper thread. Removal retires the
+ *    lane first by moving its count from 0 to -1 with a CAS, a producer that finds a retired lane creates a new
+ *    one, so no task is ever queued on a lane that has left the map.
+ * <br>
+ * hotLanes() returns the lanes that ran the most tasks since the previous call, with their backlog, to find keys
+ * that dominate the load or fall behind. A single hot key can only ever use one thread, it is serial by definition,
+ * so a key whose backlog keeps growing needs a finer key, not a bigger pool.
+ * <br>
+ * If the pool rejects a lane, e.g. because it is shut down, the task that started the lane is taken out again and
+ * execute() throws the RejectedExecutionException, so the key is not left with a count no lane will ever bring back
+ * to 0. Tasks of the key that other producers queued meanwhile were accepted and run on the rejected caller. A lane
+ * that is rejected when it resubmits itself keeps running its tasks on its current thread. A pool that accepts every
+ * task, e.g. a ThreadPoolExecutor with an unbounded queue, never gets there. A FIFO pool is best, a lane that
+ * resubmits itself goes to the back of the queue behind the other lanes.
+ */
+public class KeyedExecutor<K> implements AutoCloseable {
+
+    private static final int RETIRED = -1;
+
+    /**
+     * The tasks run for a key since the previous call of hotLanes(), and the tasks waiting for it.
+     */
+    public record LaneStats<K>(K key, long tasksRun, int backlog, int peakBacklog) {
+    }
+
+    private final class Lane implements Runnable {
+        final K key;
+        final MichaelScottQueue<Runnable> tasks = new MichaelScottQueue<>();
+        // Queued plus running tasks, RETIRED once removed from the map
+        final AtomicInteger pending = new AtomicInteger();
+        // Written by the thread running the lane, which is only ever one at a time
+        volatile long tasksRun;
+        volatile long idleSinceNanos;
+        volatile int peakPending;
+        long tasksRunAtLastReport;
+
+        Lane(K key) {
+            this.key = key;
+            // Not reclaimed before its creator has queued the first task
+            this.idleSinceNanos = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            while (!runBatch()) {
+                // More tasks are waiting, queue up behind the other lanes
+                try {
+                    pool.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // The tasks were accepted before the pool stopped taking lanes, they run on this thread
+                }
+            }
+        }
+
+        /**
+         * Runs up to maxBatch tasks, and returns true if the lane has none left.
+         */
+        boolean runBatch() {
+            for (int ran = 0; ran < maxBatch; ran++) {
+                TaskRunner.run(nextTask());
+                tasksRun++;
+                if (pending.decrementAndGet() == 0) {
+                    idleSinceNanos = System.nanoTime();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Takes the task back out of the lane after the pool rejected the lane. The lane is not on the pool, so the
+         * calling thread is the only one taking its tasks. Tasks that other producers queued in the meantime were
+         * accepted, they run on the calling thread in their order.
+         */
+        void withdraw(Runnable task) {
+            Runnable next;
+            while ((next = nextTask()) != task) {
+                // Counted by its producer after this task, but queued before it
+                TaskRunner.run(next);
+                tasksRun++;
+                pending.decrementAndGet();
+            }
+            if (pending.decrementAndGet() == 0) {
+                idleSinceNanos = System.nanoTime();
+            } else {
+                run();
+            }
+        }
+
+        private Runnable nextTask() {
+            Runnable task;
+            // The producer counts the task before queueing it, wait the moment until it is there
+            while ((task = tasks.poll()) == null) {
+                Thread.onSpinWait();
+            }
+            return task;
+        }
+    }
+
+    private final Executor pool;
+    private final int maxBatch;
+    private final long idleTimeoutNanos;
+    private final ConcurrentHashMap<K, Lane> lanes = new ConcurrentHashMap<>();
+    private final StripedCounter lanesCreated = new StripedCounter();
+    private final AtomicLong lanesReclaimed = new AtomicLong();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "KeyedExecutor-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Runs up to 32 tasks of a lane at a time and reclaims lanes idle for a second.
+     */
+    public KeyedExecutor(Executor pool) {
+        this(pool, 32, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param maxBatch    the number of tasks a lane runs before it lets other lanes have the thread
+     * @param idleTimeout how long a lane without tasks is kept for its key
+     */
+    public KeyedExecutor(Executor pool, int maxBatch, long idleTimeout, TimeUnit unit) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Max batch must be at least 1: " + maxBatch);
+        }
+        this.pool = pool;
+        this.maxBatch = maxBatch;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        long sweepNanos = Math.max(1, idleTimeoutNanos / 2);
+        sweeper.scheduleWithFixedDelay(this::reclaimIdleLanes, sweepNanos, sweepNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs the task after all tasks submitted before it for the same key.
+     *
+     * @throws RejectedExecutionException if the task starts a lane and the pool rejects the lane
+     */
+    public void execute(K key, Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            Lane lane = lanes.get(key);
+            if (lane == null) {
+                lane = lanes.computeIfAbsent(key, k -> {
+                    lanesCreated.increment();
+                    return new Lane(k);
+                });
+            }
+            int count = lane.pending.get();
+            if (count == RETIRED) {
+                // Removed by the sweeper after the lookup, the next lookup creates a new lane
+                lanes.remove(key, lane);
+                continue;
+            }
+            if (!lane.pending.compareAndSet(count, count + 1)) {
+                continue;
+            }
+            lane.tasks.offer(task);
+            if (count + 1 > lane.peakPending) {
+                lane.peakPending = count + 1;
+            }
+            if (count == 0) {
+                try {
+                    pool.execute(lane);
+                } catch (RejectedExecutionException e) {
+                    lane.withdraw(task);
+                    throw e;
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Returns the number of keys with a lane, the ones with tasks and the idle ones not reclaimed yet.
+     */
+    public int getLaneCount() {
+        return lanes.size();
+    }
+
+    public long getLanesCreated() {
+        return lanesCreated.sum();
+    }
+
+    public long getLanesReclaimed() {
+        return lanesReclaimed.get();
+    }
+
+    /**
+     * Returns up to limit lanes that ran the most tasks since the previous call, the hottest first.
+     */
+    public synchronized List<LaneStats<K>> hotLanes(int limit) {
+        List<LaneStats<K>> stats = new ArrayList<>();
+        for (Lane lane : lanes.values()) {
+            long tasksRun = lane.tasksRun;
+            stats.add(new LaneStats<>(lane.key, tasksRun - lane.tasksRunAtLastReport,
+                    Math.max(0, lane.pending.get()), lane.peakPending));
+            lane.tasksRunAtLastReport = tasksRun;
+        }
+        stats.sort(Comparator.comparingLong((LaneStats<K> lane) -> lane.tasksRun()).reversed());
+        return stats.subList(0, Math.min(limit, stats.size()));
+    }
+
+    /**
+     * Stops reclaiming idle lanes. Tasks already submitted still run on the pool, which the caller shuts down.
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    private void reclaimIdleLanes() {
+        long now = System.nanoTime();
+        for (Map.Entry<K, Lane> entry : lanes.entrySet()) {
+            Lane lane = entry.getValue();
+            if (lane.pending.get() == 0 && now - lane.idleSinceNanos >= idleTimeoutNanos
+                    && lane.pending.compareAndSet(0, RETIRED)) {
+                lanes.remove(entry.getKey(), lane);
+                lanesReclaimed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Sends 200_000 events for 10_000 accounts to a KeyedExecutor on 4 threads, a tenth of them for a single hot
+     * account, each event a few microseconds of work. Every event checks that it is the next one of its account.
+     * The events of the other accounts complete before the hot account's, which are serial, and are not held up
+     * by them. Then waits until the idle lanes have been reclaimed.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int accounts = 10_000;
+        int events = 200_000;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        KeyedExecutor<Integer> executor = new KeyedExecutor<>(pool, 32, 200, TimeUnit.MILLISECONDS);
+        long[] submitted = new long[accounts];
+        long[] processed = new long[accounts];
+        AtomicInteger outOfOrder = new AtomicInteger();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int[] keys = new int[events];
+        int hotEvents = 0;
+        for (int i = 0; i < events; i++) {
+            keys[i] = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(accounts - 1);
+            hotEvents += keys[i] == 0 ? 1 : 0;
+        }
+        CountDownLatch hotDone = new CountDownLatch(hotEvents);
+        CountDownLatch othersDone = new CountDownLatch(events - hotEvents);
+
+        long start = System.nanoTime();
+        for (int account : keys) {
+            long sequence = submitted[account]++;
+            CountDownLatch done = account == 0 ? hotDone : othersDone;
+            executor.execute(account, () -> {
+                // Plain array access, tasks of one account never run at the same time
+                if (processed[account]++ != sequence) {
+                    outOfOrder.incrementAndGet();
+                }
+                long end = System.nanoTime() + 5_000;
+                while (System.nanoTime() < end) {
+                    Thread.onSpinWait();
+                }
+                done.countDown();
+            });
+        }
+        othersDone.await();
+        long othersNanos = System.nanoTime() - start;
+        List<LaneStats<Integer>> hottest = executor.hotLanes(3);
+        hotDone.await();
+        long hotNanos = System.nanoTime() - start;
+        System.out.printf("%,d events for %,d accounts, %d out of order, %,d lanes created%n", events, accounts,
+                outOfOrder.get(), executor.getLanesCreated());
+        System.out.printf("%,d events of other accounts done after %,d ms, %,d events of the hot account after %,d ms%n",
+                events - hotEvents, TimeUnit.NANOSECONDS.toMillis(othersNanos), hotEvents,
+                TimeUnit.NANOSECONDS.toMillis(hotNanos));
+        for (LaneStats<Integer> lane : hottest) {
+            System.out.println("Hot lane " + lane);
+        }
+        Thread.sleep(500);
+        System.out.printf("After 500 ms idle: %d lanes left, %,d reclaimed%n", executor.getLaneCount(),
+                executor.getLanesReclaimed());
+        executor.close();
+        pool.shutdown();
+    }
+}
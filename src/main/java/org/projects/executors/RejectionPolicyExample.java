@@ -0,0 +1,90 @@
+package org.projects.executors;
+
+import org.projects.lockFree.RateLimiter;
+import org.projects.trace.Tracer;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This example sends the same burst of 40 tasks to the pool of ThreadPoolExecutorExample, 2 core and 4 maximum
+ * threads with a queue of 2, with different RejectedExecutionHandlers. Everything beyond 6 tasks is rejected by the
+ * executor, what happens to those tasks is up to the handler:
+ * 1. AbortPolicy throws, and the tasks are lost unless the submitter handles the exception.
+ * 2. Logging them, as CustomRejectedExecutionHandler of ThreadPoolExecutorExample does, loses them as well.
+ * 3. BlockingRejectionPolicy makes the submitter wait for a slot in the queue, so the burst is spread out over time.
+ * 4. ThrottledCallerRunsPolicy runs a few of them on the submitter and blocks for the rest.
+ * 5. SpillOverPolicy writes them to a file and feeds them back, the submitter never waits.
+ * The last three run every task, with the same 4 threads. For each handler the example prints how many tasks ran,
+ * how long the submitter was busy submitting and how long the whole burst took.
+ */
+public class RejectionPolicyExample {
+
+    private static final int TASKS = 40;
+    private static final AtomicInteger completed = new AtomicInteger();
+
+    /**
+     * A task that can be written to the spill file, its fields are all it needs.
+     */
+    private record SleepTask(int id, long millis) implements Runnable, Serializable {
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            completed.incrementAndGet();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        run("AbortPolicy", new ThreadPoolExecutor.AbortPolicy());
+        run("Log and drop", (task, executor) -> Tracer.info("Task {} rejected from {}", task, executor));
+        run("BlockingRejectionPolicy", new BlockingRejectionPolicy(5, TimeUnit.SECONDS));
+        ThrottledCallerRunsPolicy throttled = new ThrottledCallerRunsPolicy(new RateLimiter(5, 2),
+                new BlockingRejectionPolicy(5, TimeUnit.SECONDS));
+        run("ThrottledCallerRunsPolicy", throttled);
+        Tracer.info("  {} tasks ran on the caller, {} waited for a slot", throttled.getCallerRunCount(),
+                throttled.getFallbackCount());
+        Path directory = Files.createTempDirectory("spill");
+        try (SpillOverPolicy spillOver = new SpillOverPolicy(directory)) {
+            run("SpillOverPolicy", spillOver);
+            Tracer.info("  {} tasks were spilled to disk", spillOver.getTotalSpilledCount());
+        }
+        Files.delete(directory);
+    }
+
+    private static void run(String name, RejectedExecutionHandler handler) throws InterruptedException, IOException {
+        completed.set(0);
+        InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor(2, 4, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(2), Executors.defaultThreadFactory(), handler);
+        long start = System.nanoTime();
+        int thrown = 0;
+        for (int i = 1; i <= TASKS; i++) {
+            try {
+                executor.execute(new SleepTask(i, 100));
+            } catch (RejectedExecutionException e) {
+                thrown++;
+            }
+        }
+        long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (handler instanceof SpillOverPolicy spillOver) {
+            spillOver.awaitDrained(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        Tracer.info("{}", String.format("%-25s %2d of %d tasks ran, %2d rejected, %2d threw, submitting took %4d ms, "
+                        + "all done after %4d ms", name, completed.get(), TASKS, executor.getRejectedTaskCount(), thrown,
+                submitMillis, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+}
@@ -0,0 +1,316 @@
+package org.projects.executors;
+
+import com.sun.management.ThreadMXBean;
+import org.projects.lockFree.ObjectLongRing;
+import org.projects.lockFree.StripedCounter;
+import org.projects.lockFree.WaitStrategy;
+import org.projects.metrics.WriterReaderPhaser;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * An executor for millions of tiny tasks per second whose submit and execute path allocates nothing.
+ * <br>
+ * executor.submit(runnable) on a ThreadPoolExecutor allocates a FutureTask, a node of the LinkedBlockingQueue, and
+ * usually a lambda that captures the task's arguments, about 80 bytes per task. For a task that itself takes a
+ * few hundred nanoseconds that garbage and the collections it causes cost more than the work. This executor keeps
+ * the tasks in a pre-allocated ObjectLongRing instead:
+ * 1. A task is a TaskHandler, code that is created once, and a long argument, e.g. an id or an index into arrays the
+ *    handler owns. submit(handler, arg) writes both into the next free slot of the ring, nothing is allocated.
+ * 2. Workers claim slots, run handler.handle(arg) and release the slot afterwards, so slots are recycled lap after
+ *    lap. A full ring makes submit() wait, which is backpressure instead of an unbounded queue.
+ * 3. submit() returns the position of the task in the ring as a ticket. Since the slot is released only after the
+ *    task has run, isDone(ticket) is one read of the slot sequence and replaces the Future, and awaitDone() waits on
+ *    it. A handler may also signal completion itself, e.g. by counting down a latch it owns.
+ * <br>
+ * shutdown() and submit() coordinate through a WriterReaderPhaser: submit() is a writer critical section, and
+ * shutdown() flips the phase to wait for submitters that passed the state check, and only then lets the workers exit
+ * once they find the ring empty, so every task accepted before shutdown runs and none is accepted after. shutdown()
+ * never waits for a free slot, so a handler may call it even when the ring is full.
+ * <br>
+ * Workers wait for tasks with the WaitStrategy of the ring, parking by default. Handlers must be cheap to call and
+ * should not block, a blocked worker holds its slot.
+ */
+public class RingExecutor {
+
+    /**
+     * The code of a task, called with the argument it was submitted with. Implementations are created once and
+     * submitted many times, so a handler should keep no per-task state in its fields.
+     */
+    @FunctionalInterface
+    public interface TaskHandler {
+        void handle(long arg);
+    }
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOPPED = 2;
+
+    private final ObjectLongRing<TaskHandler> ring;
+    private final WaitStrategy waitStrategy;
+    private final Thread[] workers;
+    private final CountDownLatch terminated;
+    private final WriterReaderPhaser submitters = new WriterReaderPhaser();
+    private final StripedCounter completed = new StripedCounter();
+    private volatile int state = RUNNING;
+    // Set once no submitter can publish anymore, so an empty ring stays empty
+    private volatile boolean closed;
+    private final BooleanSupplier workOrClosed = () -> closed || getQueueSize() > 0;
+
+    public RingExecutor(int threads, int capacity) {
+        this(threads, capacity, WaitStrategy.parking(), Thread.ofPlatform().name("ring-worker-", 0).factory());
+    }
+
+    /**
+     * @param capacity the number of task slots, rounded up to a power of two. Running tasks hold their slot, so it
+     *                 should be well above the number of threads.
+     */
+    public RingExecutor(int threads, int capacity, WaitStrategy waitStrategy, ThreadFactory threadFactory) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+        }
+        this.ring = new ObjectLongRing<>(capacity, waitStrategy);
+        this.waitStrategy = waitStrategy;
+        this.workers = new Thread[threads];
+        this.terminated = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = threadFactory.newThread(this::runWorker);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues handler.handle(arg), waiting while the ring is full.
+     *
+     * @return the ticket to pass to isDone() and awaitDone()
+     * @throws RejectedExecutionException if the executor has been shut down
+     */
+    public long submit(TaskHandler handler, long arg) {
+        long critical = submitters.writerCriticalSectionEnter();
+        try {
+            if (state != RUNNING) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            return ring.put(handler, arg);
+        } finally {
+            submitters.writerCriticalSectionExit(critical);
+        }
+    }
+
+    /**
+     * Queues handler.handle(arg) if a slot is free.
+     *
+     * @return the ticket, or -1 if the ring is full
+     * @throws RejectedExecutionException if the executor has been shut down
+     */
+    public long trySubmit(TaskHandler handler, long arg) {
+        long critical = submitters.writerCriticalSectionEnter();
+        try {
+            if (state != RUNNING) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            return ring.offer(handler, arg);
+        } finally {
+            submitters.writerCriticalSectionExit(critical);
+        }
+    }
+
+    /**
+     * Returns true once the task of the ticket has run, or was discarded by shutdownNow().
+     */
+    public boolean isDone(long ticket) {
+        return ring.isDone(ticket);
+    }
+
+    /**
+     * Waits until the task of the ticket is done, spinning briefly and then parking for growing periods.
+     */
+    public void awaitDone(long ticket) {
+        long parkNanos = 1_000;
+        for (int spins = 0; !ring.isDone(ticket); spins++) {
+            if (spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos << 1, 1_000_000);
+            }
+        }
+    }
+
+    public long getCompletedTaskCount() {
+        return completed.sum();
+    }
+
+    public int getQueueSize() {
+        return ring.size();
+    }
+
+    /**
+     * Runs the tasks already submitted and rejects new ones.
+     */
+    public void shutdown() {
+        stop(SHUTDOWN);
+    }
+
+    /**
+     * Discards the tasks that have not started and stops the workers after their current task. The discarded tasks
+     * are reported as done by isDone(), they are not returned, the ring holds no Runnables.
+     */
+    public void shutdownNow() {
+        stop(STOPPED);
+    }
+
+    public boolean isShutdown() {
+        return state != RUNNING;
+    }
+
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    private void stop(int newState) {
+        submitters.readerLock();
+        try {
+            if (state >= newState) {
+                return;
+            }
+            state = newState;
+            // Every submitter that saw RUNNING has put its task once this returns
+            submitters.flipPhase();
+            closed = true;
+            waitStrategy.signalAll();
+        } finally {
+            submitters.readerUnlock();
+        }
+    }
+
+    private void runWorker() {
+        try {
+            while (true) {
+                // Read closed before claiming: every task is published before it is set, so if it was set and the
+                // ring is empty, no task is left
+                boolean wasClosed = closed;
+                long position = ring.tryClaim();
+                if (position < 0) {
+                    if (wasClosed) {
+                        return;
+                    }
+                    waitStrategy.await(workOrClosed);
+                    continue;
+                }
+                TaskHandler handler = ring.objectAt(position);
+                long arg = ring.valueAt(position);
+                if (state != STOPPED) {
+                    TaskRunner.run(handler, arg);
+                    completed.increment();
+                }
+                ring.release(position);
+            }
+        } finally {
+            terminated.countDown();
+        }
+    }
+
+    /**
+     * Submits the same tiny task, adding its argument to a sum, 10 million times to a ThreadPoolExecutor and to a
+     * RingExecutor, each with 2 threads, and reports the bytes allocated per task by the submitting thread and by the
+     * workers, measured with ThreadMXBean. After warming up, the RingExecutor allocates 0 bytes per task.
+     * RingExecutorBenchmark measures the same with the JMH gc profiler.
+     */
+    public static void main(String[] args) throws Exception {
+        int tasks = 10_000_000;
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? " (warm-up)" : "";
+
+            AtomicLong poolSum = new AtomicLong();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    Thread.ofPlatform().name("pool-worker-", 0).factory());
+            pool.prestartAllCoreThreads();
+            long[] poolWorkersBefore = allocatedBytes("pool-worker-");
+            long start = System.nanoTime();
+            long before = currentThreadAllocatedBytes();
+            Future<?> last = null;
+            for (int i = 0; i < tasks; i++) {
+                long arg = i;
+                last = pool.submit(() -> poolSum.addAndGet(arg));
+                if ((i & 0xFFFF) == 0) {
+                    // Keep the unbounded queue from growing without bound
+                    last.get();
+                }
+            }
+            long submitterBytes = currentThreadAllocatedBytes() - before;
+            last.get();
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            report("ThreadPoolExecutor" + label, tasks, System.nanoTime() - start, submitterBytes,
+                    difference(allocatedBytes("pool-worker-"), poolWorkersBefore));
+
+            AtomicLong ringSum = new AtomicLong();
+            TaskHandler add = ringSum::addAndGet;
+            RingExecutor ringExecutor = new RingExecutor(2, 1024);
+            long[] ringWorkersBefore = allocatedBytes("ring-worker-");
+            start = System.nanoTime();
+            before = currentThreadAllocatedBytes();
+            long ticket = -1;
+            for (int i = 0; i < tasks; i++) {
+                ticket = ringExecutor.submit(add, i);
+            }
+            submitterBytes = currentThreadAllocatedBytes() - before;
+            ringExecutor.awaitDone(ticket);
+            long[] ringWorkersAfter = allocatedBytes("ring-worker-");
+            ringExecutor.shutdown();
+            ringExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            report("RingExecutor" + label, tasks, System.nanoTime() - start, submitterBytes,
+                    difference(ringWorkersAfter, ringWorkersBefore));
+            if (ringSum.get() != poolSum.get()) {
+                throw new IllegalStateException("Sums differ: " + ringSum.get() + " != " + poolSum.get());
+            }
+        }
+    }
+
+    private static void report(String name, int tasks, long nanos, long submitterBytes, long workerBytes) {
+        System.out.printf("%-30s %,6d ms, %,11d tasks/s, %6.1f bytes/task submitting, %6.1f bytes/task in workers%n",
+                name, TimeUnit.NANOSECONDS.toMillis(nanos), tasks * 1_000_000_000L / nanos,
+                (double) submitterBytes / tasks, (double) workerBytes / tasks);
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return ((ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Returns the bytes allocated so far by each live thread whose name starts with the prefix.
+     */
+    private static long[] allocatedBytes(String prefix) {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith(prefix))
+                .sorted((a, b) -> a.getName().compareTo(b.getName()))
+                .mapToLong(thread -> threadMXBean.getThreadAllocatedBytes(thread.threadId()))
+                .toArray();
+    }
+
+    private static long difference(long[] after, long[] before) {
+        long bytes = 0;
+        for (int i = 0; i < Math.min(after.length, before.length); i++) {
+            bytes += after[i] - before[i];
+        }
+        return bytes;
+    }
+}
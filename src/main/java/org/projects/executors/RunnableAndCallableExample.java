@@ -1,13 +1,15 @@
 package org.projects.executors;
 
+import org.projects.trace.Tracer;
+
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
 
 /**
- * This example demonstrates the differences between Runnable and Callable tasks when submitted to a ThreadPoolExecutor.
+ * This example demonstrates the differences between Runnable and Callable tasks when submitted to an ExecutorService,
+ * here a WorkStealingExecutor. A ThreadPoolExecutor returns the same Futures and behaves the same.
  * It shows how Future behaves differently based on whether the task is a Runnable or a Callable.
  * Runnable tasks do not return a result, while Callable tasks do.
  * 1. When a Runnable is submitted, Future.get() returns null since Runnable does not produce a result.
@@ -17,17 +19,16 @@ import java.util.concurrent.ThreadPoolExecutor;
  */
 public class RunnableAndCallableExample {
     public static void main(String[] args) {
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 4, 60, java.util.concurrent.TimeUnit.SECONDS,
-                new java.util.concurrent.ArrayBlockingQueue<>(2), Executors.defaultThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        ExecutorService executor = new WorkStealingExecutor(2);
 
         // Runnable has return type void, so Future.get() returns null
         Future<?> future1 = executor.submit(() -> {
-            System.out.println("Runnable Task executed by " + Thread.currentThread().getName());
+            Tracer.info("Runnable Task executed by {}", Thread.currentThread().getName());
         });
 
         try {
             Object object1 = future1.get();
-            System.out.println("Future from Runnable returns: " + object1);
+            Tracer.info("Future from Runnable returns: {}", object1);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -40,7 +41,7 @@ public class RunnableAndCallableExample {
 
         try {
             List<Integer> resultList = future2.get();
-            System.out.println("Future from Runnable with result returns: " + resultList.toString());
+            Tracer.info("Future from Runnable with result returns: {}", resultList.toString());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -52,7 +53,7 @@ public class RunnableAndCallableExample {
 
         try {
             List<Integer> result = future3.get();
-            System.out.println("Future from Callable returns: " + result.toString());
+            Tracer.info("Future from Callable returns: {}", result.toString());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -0,0 +1,342 @@
+package org.projects.executors;
+
+import org.projects.trace.Tracer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A RejectedExecutionHandler that writes the tasks the executor has no room for to a local overflow file, and feeds
+ * them back into the executor as soon as its queue has room again.
+ * <br>
+ * A queue in memory that is big enough for the largest burst holds every task of the burst on the heap, and an
+ * unbounded one turns a long overload into an OutOfMemoryError. Serialized tasks on disk cost a few bytes of heap
+ * for the file positions, however many there are, so the executor keeps its small queue and bounded heap while a
+ * burst is absorbed and nothing is dropped.
+ * <br>
+ * 1. A rejected task is serialized with ObjectOutputStream and appended to the file as [length][bytes] under a lock.
+ * 2. The first spill starts a drainer thread. It reads the oldest spilled task and offers it to the queue of the
+ *    executor, waiting until a worker has taken a task out. The file position only advances once the task is in the
+ *    queue, so spilled tasks run in the order they were spilled.
+ * 3. When the last spilled task is back in the executor the file is truncated, so it does not grow across bursts.
+ * If the file cannot be read the drainer stops, awaitDrained() throws the IOException and further rejected tasks are
+ * rejected with a RejectedExecutionException, rather than spilled to a file no one reads. If the executor is shut
+ * down while tasks are spilled, the drainer stops as well and awaitDrained() returns false at once.
+ * <br>
+ * A policy belongs to one executor, the first one whose task it spills, since the drainer feeds the file back into
+ * that executor. Tasks another executor passes to it are rejected with a RejectedExecutionException.
+ * <br>
+ * Only tasks passed to execute() that are Serializable can be spilled, submit() wraps tasks in a FutureTask, which is
+ * not. Other tasks go to the fallback handler. Spilled tasks are copies: they are new objects when they run, so
+ * a task must not rely on its identity or on state shared by reference with the submitter. Tasks that arrive while
+ * others are spilled are not held back, if the queue has room they run before the spilled ones.
+ * <br>
+ * The file is an overflow area, not a journal. It is deleted by close(), and tasks still in it when the executor is
+ * shut down are not run. org.projects.journal.Journal is the structure to use where queued work has to survive a crash.
+ */
+public class SpillOverPolicy implements RejectedExecutionHandler, Closeable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final RejectedExecutionHandler fallback;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition spilled = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+
+    // Guarded by lock
+    private long writePosition;
+    private long readPosition;
+    private int spilledCount;
+    private long totalSpilled;
+    // The executor the spilled tasks go back to, the one that rejected the first task
+    private ThreadPoolExecutor executor;
+    private Thread drainer;
+    private boolean closed;
+    // Set when the drainer has stopped before the policy was closed, the tasks still in the file are lost
+    private boolean drainerStopped;
+    // Why the drainer stopped, null if the executor was shut down
+    private IOException failure;
+
+    /**
+     * Creates the overflow file in the directory, and rejects tasks that cannot be serialized with a
+     * RejectedExecutionException.
+     */
+    public SpillOverPolicy(Path directory) throws IOException {
+        this(directory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public SpillOverPolicy(Path directory, RejectedExecutionHandler fallback) throws IOException {
+        this.file = Files.createTempFile(directory, "spill-", ".bin");
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Task " + task + " rejected from " + executor);
+        }
+        byte[] bytes = task instanceof Serializable ? serialize(task) : null;
+        if (bytes == null) {
+            fallback.rejectedExecution(task, executor);
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                throw new RejectedExecutionException("Spill file of " + executor + " is closed");
+            }
+            if (this.executor == null) {
+                this.executor = executor;
+            } else if (this.executor != executor) {
+                throw new RejectedExecutionException("Spill file " + file + " belongs to " + this.executor);
+            }
+            if (drainerStopped) {
+                throw new RejectedExecutionException("Spill file " + file + " is no longer drained", failure);
+            }
+            ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes);
+            writeFully(record.flip(), writePosition);
+            writePosition += record.capacity();
+            spilledCount++;
+            totalSpilled++;
+            if (drainer == null) {
+                drainer = new Thread(() -> drain(executor), "SpillOverPolicy-drainer");
+                drainer.setDaemon(true);
+                drainer.start();
+            }
+            spilled.signal();
+        } catch (IOException e) {
+            throw new RejectedExecutionException("Cannot spill " + task + " to " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of tasks in the overflow file.
+     */
+    public int getSpilledCount() {
+        lock.lock();
+        try {
+            return spilledCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of tasks spilled since the policy was created.
+     */
+    public long getTotalSpilledCount() {
+        lock.lock();
+        try {
+            return totalSpilled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every spilled task has been put back into the executor, e.g. before shutting the executor down.
+     *
+     * @return false if spilled tasks were left when the timeout elapsed
+     * @throws IOException if the spill file could not be read, the tasks left in it will never run
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException, IOException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (spilledCount > 0) {
+                if (failure != null) {
+                    throw new IOException("Cannot drain " + spilledCount + " spilled tasks from " + file, failure);
+                }
+                if (drainerStopped) {
+                    // The executor was shut down, the tasks left in the file will not run
+                    return false;
+                }
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = drained.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the drainer and deletes the overflow file, with the tasks still in it.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = drainer;
+            if (spilledCount > 0) {
+                Tracer.info("Dropping {} spilled tasks from {}", spilledCount, file);
+            }
+            spilled.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    private void drain(ThreadPoolExecutor executor) {
+        try {
+            while (true) {
+                long[] length = new long[1];
+                Runnable spilledTask = nextSpilled(length);
+                if (spilledTask == null) {
+                    return;
+                }
+                // Queued as execute() would have queued it, its queue wait starts once it is read back
+                Runnable task = InstrumentedThreadPoolExecutor.queueable(executor, spilledTask);
+                // Waiting in offer() means all threads are busy and the queue is full, exactly when spilling helps
+                while (!executor.getQueue().offer(task, 100, TimeUnit.MILLISECONDS)) {
+                    if (executor.isShutdown()) {
+                        stopped(null);
+                        return;
+                    }
+                }
+                if (executor.isShutdown() && executor.remove(task)) {
+                    stopped(null);
+                    return;
+                }
+                executor.prestartCoreThread();
+                consumed(length[0]);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } catch (IOException e) {
+            Tracer.log(Tracer.Level.WARN, "Cannot read spilled tasks from {}: {}", file, e);
+            stopped(e);
+        }
+    }
+
+    /**
+     * Records that the drainer stopped with tasks left in the file, and wakes the threads in awaitDrained() so that
+     * they do not wait for them.
+     *
+     * @param e why the file could not be read, or null if the executor was shut down
+     */
+    private void stopped(IOException e) {
+        lock.lock();
+        try {
+            drainerStopped = true;
+            failure = e;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a spilled task and reads it without consuming it, or returns null once the policy is closed.
+     * Records that cannot be deserialized are logged and skipped.
+     */
+    private Runnable nextSpilled(long[] recordLength) throws InterruptedException, IOException {
+        lock.lock();
+        try {
+            while (true) {
+                while (spilledCount == 0 && !closed) {
+                    spilled.await();
+                }
+                if (closed) {
+                    return null;
+                }
+                lengthBuffer.clear();
+                readFully(lengthBuffer, readPosition);
+                ByteBuffer bytes = ByteBuffer.allocate(lengthBuffer.flip().getInt());
+                readFully(bytes, readPosition + Integer.BYTES);
+                recordLength[0] = Integer.BYTES + bytes.capacity();
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.array()))) {
+                    return (Runnable) in.readObject();
+                } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                    Tracer.info("Skipping spilled task that cannot be read: {}", e);
+                    consumed(recordLength[0]);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void consumed(long recordLength) throws IOException {
+        lock.lock();
+        try {
+            readPosition += recordLength;
+            if (--spilledCount == 0) {
+                // Everything written has been read, start the file over
+                channel.truncate(0);
+                readPosition = 0;
+                writePosition = 0;
+                drained.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static byte[] serialize(Runnable task) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(task);
+        } catch (NotSerializableException e) {
+            // A field of the task is not Serializable
+            return null;
+        } catch (IOException e) {
+            throw new RejectedExecutionException("Cannot serialize " + task, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.projects.executors;
+
+/**
+ * Runs tasks on the workers of the executors in this package that loop over their own queues instead of using a
+ * ThreadPoolExecutor.
+ * <br>
+ * A task that throws does not kill its worker. ThreadPoolExecutor lets the worker die and starts a new one, but a
+ * worker here owns state, e.g. the deque of a WorkStealingExecutor or the lane of a KeyedExecutor, that a new thread
+ * would not take over. The exception goes to the uncaught exception handler of the thread instead, which prints it
+ * by default, and the worker goes on with its next task.
+ */
+final class TaskRunner {
+
+    private TaskRunner() {
+    }
+
+    static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable throwable) {
+            reportFailure(throwable);
+        }
+    }
+
+    static void run(RingExecutor.TaskHandler handler, long arg) {
+        try {
+            handler.handle(arg);
+        } catch (Throwable throwable) {
+            reportFailure(throwable);
+        }
+    }
+
+    static void reportFailure(Throwable throwable) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, throwable);
+    }
+}
@@ -1,5 +1,7 @@
 package org.projects.executors;
 
+import org.projects.trace.Tracer;
+
 import java.util.concurrent.*;
 
 /**
@@ -19,12 +21,15 @@ import java.util.concurrent.*;
  * KeepAlive time is the amount of time that excess idle threads (threads that are not core threads) will wait for new tasks
  * before terminating. This helps to reduce resource consumption when the demand for threads decreases. If a thread has been
  * idle for longer than the keepAlive time, it will be terminated and removed from the pool.
+ * The executor is an InstrumentedThreadPoolExecutor, so the statistics of each scenario include the percentiles of the
+ * time tasks waited in the queue and ran.
+ * See also RejectionPolicyExample, DeadlineExecutor, VirtualThreadExecutor and org.projects.lockFree.SkipListPriorityQueue.
  */
 public class ThreadPoolExecutorExample {
 
     public static void main(String[] args) throws InterruptedException {
 
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 4, 60, TimeUnit.SECONDS,
+        InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor(2, 4, 60, TimeUnit.SECONDS,
                 new ArrayBlockingQueue<>(2), new CustomThreadFactory(), new CustomRejectedExecutionHandler());
 
         Runnable runnable = () -> {
@@ -34,32 +39,43 @@ public class ThreadPoolExecutorExample {
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
-            System.out.println("Completed Task created on " + time + " by " + Thread.currentThread().getName());
+            Tracer.info("Completed Task by {} created on {}", Thread.currentThread().getName(), time);
         };
 
-        System.out.println("Scenario where tasks are accepted and no threads other than core threads are created as queue has space");
+        Tracer.info("Scenario where tasks are accepted and no threads other than core threads are created as queue has space");
         for (int i = 1; i <= 4; i++) {
             Thread.sleep(100);
             executor.submit(runnable);
         }
 
         Thread.sleep(7000);
+        printStatistics(executor);
 
-        System.out.println("\nScenario where tasks are accepted and new threads are created up to maximum pool size as queue is full");
+        Tracer.info("\nScenario where tasks are accepted and new threads are created up to maximum pool size as queue is full");
         for (int i = 1; i <= 5; i++) {
             Thread.sleep(100);
             executor.submit(runnable);
         }
 
         Thread.sleep(7000);
+        printStatistics(executor);
 
-        System.out.println("\nScenario where tasks are rejected as both queue and maximum pool size are reached");
+        Tracer.info("\nScenario where tasks are rejected as both queue and maximum pool size are reached");
         for (int i = 1; i <= 8; i++) {
             Thread.sleep(100);
             executor.submit(runnable);
         }
 
         executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        printStatistics(executor);
+    }
+
+    private static void printStatistics(InstrumentedThreadPoolExecutor executor) {
+        executor.rollWindow();
+        Tracer.info("Queue wait: {}", executor.recentQueueWait().summary(TimeUnit.NANOSECONDS, TimeUnit.MILLISECONDS));
+        Tracer.info("Run time:   {}", executor.recentRunTime().summary(TimeUnit.NANOSECONDS, TimeUnit.MILLISECONDS));
+        Tracer.info("Rejected {} tasks so far", executor.getRejectedTaskCount());
     }
 
 }
@@ -80,6 +96,6 @@ class CustomRejectedExecutionHandler implements RejectedExecutionHandler {
 
     @Override
     public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-        System.out.println("Task " + r.toString() + " rejected from " + executor.toString());
+        Tracer.info("Task {} rejected from {}", r.toString(), executor.toString());
     }
 }
\ No newline at end of file
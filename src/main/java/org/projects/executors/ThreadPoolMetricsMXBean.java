@@ -0,0 +1,54 @@
+package org.projects.executors;
+
+/**
+ * The JMX view of an InstrumentedThreadPoolExecutor, e.g. in JConsole or VisualVM under org.projects.executors.
+ * The percentiles cover the most recent statistics window, see InstrumentedThreadPoolExecutor.
+ */
+public interface ThreadPoolMetricsMXBean {
+
+    int getCorePoolSize();
+
+    void setCorePoolSize(int corePoolSize);
+
+    int getMaximumPoolSize();
+
+    void setMaximumPoolSize(int maximumPoolSize);
+
+    int getPoolSize();
+
+    int getActiveCount();
+
+    int getLargestPoolSize();
+
+    long getCompletedTaskCount();
+
+    int getQueueSize();
+
+    int getQueueRemainingCapacity();
+
+    long getRejectedTaskCount();
+
+    long getFailedTaskCount();
+
+    /**
+     * Returns the number of tasks that were submitted while every thread up to the maximum pool size was busy
+     * or other tasks were already waiting in the queue.
+     */
+    long getSaturatedSubmissionCount();
+
+    double getQueueWaitP50Millis();
+
+    double getQueueWaitP99Millis();
+
+    double getQueueWaitP999Millis();
+
+    double getQueueWaitMaxMillis();
+
+    double getRunTimeP50Millis();
+
+    double getRunTimeP99Millis();
+
+    double getRunTimeP999Millis();
+
+    double getRunTimeMaxMillis();
+}
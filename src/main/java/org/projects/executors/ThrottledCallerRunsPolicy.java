@@ -0,0 +1,69 @@
+package org.projects.executors;
+
+import org.projects.lockFree.RateLimiter;
+import org.projects.lockFree.StripedCounter;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * A CallerRunsPolicy that runs at most a given number of rejected tasks per second on the submitting threads, and
+ * hands the rest to a fallback handler.
+ * <br>
+ * Running a rejected task on the caller is natural backpressure: while the caller runs the task it submits nothing,
+ * and the pool gets time to catch up. Unlimited, it also moves the overload to the callers. A caller that is an
+ * acceptor or event loop thread stops accepting anything for the time of the task, and in a long burst every caller
+ * ends up as an extra, unbounded worker, which is the over-provisioning the pool size was meant to prevent.
+ * <br>
+ * A RateLimiter therefore decides whether the caller runs the task: within the rate it does, beyond it the fallback
+ * handler gets the task, e.g. a BlockingRejectionPolicy that waits for a slot in the queue, or a SpillOverPolicy.
+ * The limiter takes a permit with a single CAS, so the check costs nothing compared with running the task.
+ */
+public class ThrottledCallerRunsPolicy implements RejectedExecutionHandler {
+
+    private final RateLimiter callerRuns;
+    private final RejectedExecutionHandler fallback;
+    private final StripedCounter ranOnCaller = new StripedCounter();
+    private final StripedCounter passedOn = new StripedCounter();
+
+    /**
+     * Rejects the tasks beyond the rate with a RejectedExecutionException.
+     */
+    public ThrottledCallerRunsPolicy(double callerRunsPerSecond) {
+        this(new RateLimiter(callerRunsPerSecond), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public ThrottledCallerRunsPolicy(RateLimiter callerRuns, RejectedExecutionHandler fallback) {
+        this.callerRuns = callerRuns;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Task " + task + " rejected from " + executor);
+        }
+        if (callerRuns.tryAcquire()) {
+            ranOnCaller.increment();
+            task.run();
+        } else {
+            passedOn.increment();
+            fallback.rejectedExecution(task, executor);
+        }
+    }
+
+    /**
+     * Returns the number of rejected tasks that ran on the submitting thread.
+     */
+    public long getCallerRunCount() {
+        return ranOnCaller.sum();
+    }
+
+    /**
+     * Returns the number of rejected tasks that went to the fallback handler.
+     */
+    public long getFallbackCount() {
+        return passedOn.sum();
+    }
+}
@@ -0,0 +1,242 @@
+package org.projects.executors;
+
+import org.projects.trace.Tracer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An ExecutorService that runs every task on a new virtual thread, with at most maxConcurrency tasks running at once.
+ * <br>
+ * The ThreadPoolExecutors of the other examples have 1 to 4 platform threads, and their tasks mostly sleep. While a
+ * task sleeps, or waits for I/O, it holds on to a platform thread, which is an OS thread with a stack of its own, so
+ * the pool rejects and queues tasks while the CPU is idle. Making the pool bigger does not scale far, every platform
+ * thread costs about a megabyte of reserved stack and OS scheduling work.
+ * <br>
+ * A virtual thread is scheduled by the JVM on a small pool of carrier threads. When it blocks in sleep, a lock, a
+ * Condition or most I/O, its stack is copied to the heap and the carrier runs another virtual thread. A blocked task
+ * therefore costs a few hundred bytes to a few kilobytes of heap, and a million of them fit in a normal heap.
+ * Pooling virtual threads makes no sense, they are cheap to create, so every task gets a new one.
+ * <br>
+ * What a pool size also did was limit how many tasks use a downstream resource at the same time, e.g. connections of
+ * a database. That limit is a Semaphore here: a task acquires a permit on its virtual thread before it runs and
+ * releases it afterwards. execute() itself never blocks and never rejects, tasks beyond the limit wait as parked
+ * virtual threads, and a task may submit and wait for other tasks without deadlocking the executor.
+ * <br>
+ * Virtual threads do not help CPU bound tasks, and a virtual thread that blocks inside a synchronized block pins its
+ * carrier on Java 21, so long waits should use java.util.concurrent locks as in the lockFree and locks packages.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+
+    private final ExecutorService threadPerTask;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+
+    /**
+     * Creates an executor without a concurrency limit.
+     */
+    public VirtualThreadExecutor() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public VirtualThreadExecutor(int maxConcurrency) {
+        this(maxConcurrency, "virtual-");
+    }
+
+    /**
+     * @param maxConcurrency the number of tasks that may run at the same time
+     * @param namePrefix     the prefix of the thread names, followed by a counter
+     */
+    public VirtualThreadExecutor(int maxConcurrency, String namePrefix) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Max concurrency must be at least 1: " + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+        this.threadPerTask = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        threadPerTask.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                // Interrupted by shutdownNow() while waiting for a permit, the task never started
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * Returns the number of tasks currently running.
+     */
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * Returns an estimate of the number of tasks waiting for a permit.
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public void shutdown() {
+        threadPerTask.shutdown();
+    }
+
+    /**
+     * Interrupts all tasks, running or waiting for a permit. The returned list is always empty, every task has its
+     * thread from the start.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        return threadPerTask.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return threadPerTask.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return threadPerTask.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threadPerTask.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 1. Runs the 17 tasks of ThreadPoolExecutorExample, 2 seconds of sleep each, capped at 4 like its pool. None is
+     *    rejected, the 4 run at a time, the rest wait as virtual threads.
+     * 2. Benchmarks blocking tasks on a platform thread each and on a virtual thread each, for 10_000, 100_000 and
+     *    1_000_000 tasks in flight, or the counts given as arguments. Each task blocks until all tasks have started,
+     *    then sleeps 100 ms. The memory is measured while all tasks are blocked: the process resident set size for
+     *    both, since platform thread stacks are outside the heap, and the used heap. Platform threads are only tried
+     *    up to 10_000 tasks, beyond that most systems refuse to create more. Below about 10_000 tasks the memory
+     *    figures are mostly noise of the JIT and the GC.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        VirtualThreadExecutor capped = new VirtualThreadExecutor(4);
+        long start = System.nanoTime();
+        for (int i = 1; i <= 17; i++) {
+            int id = i;
+            capped.execute(() -> {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                Tracer.info("Completed Task {} by {}", id, Thread.currentThread());
+            });
+        }
+        Thread.sleep(100);
+        Tracer.info("Submitted 17 tasks, {} running and {} waiting", capped.getActiveCount(),
+                capped.getWaitingCount());
+        capped.shutdown();
+        capped.awaitTermination(1, TimeUnit.MINUTES);
+        Tracer.info("All tasks completed after {} ms\n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        int[] counts = {10_000, 100_000, 1_000_000};
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int count : counts) {
+            if (count <= 10_000) {
+                Tracer.info("{}", runBlockingTasks("platform", count, Executors.newThreadPerTaskExecutor(
+                        Thread.ofPlatform().factory())));
+            }
+            Tracer.info("{}", runBlockingTasks("virtual", count, new VirtualThreadExecutor()));
+        }
+    }
+
+    private static String runBlockingTasks(String kind, int count, ExecutorService executor)
+            throws InterruptedException {
+        System.gc();
+        long rssBefore = residentSetSize();
+        long heapBefore = usedHeap();
+        CountDownLatch started = new CountDownLatch(count);
+        CountDownLatch gate = new CountDownLatch(1);
+        long start = System.nanoTime();
+        int submitted = 0;
+        try {
+            for (; submitted < count; submitted++) {
+                executor.execute(() -> {
+                    started.countDown();
+                    try {
+                        gate.await();
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            started.await();
+        } catch (OutOfMemoryError e) {
+            gate.countDown();
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            return String.format("%-8s %,9d tasks: failed after %,d threads: %s", kind, count, submitted,
+                    e.getMessage());
+        }
+        long rssPerTask = (residentSetSize() - rssBefore) / count;
+        long heapPerTask = (usedHeap() - heapBefore) / count;
+        gate.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        long nanos = System.nanoTime() - start;
+        return String.format("%-8s %,9d tasks: %,6d ms, %,9d tasks/s, %,7d bytes RSS and %,6d bytes heap per task",
+                kind, count, TimeUnit.NANOSECONDS.toMillis(nanos), count * 1_000_000_000L / nanos,
+                rssPerTask, heapPerTask);
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Returns the resident set size of the process on Linux, and 0 where /proc is not available.
+     */
+    private static long residentSetSize() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return 0;
+    }
+}
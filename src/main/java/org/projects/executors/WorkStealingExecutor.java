@@ -0,0 +1,348 @@
+package org.projects.executors;
+
+import org.projects.lockFree.MichaelScottQueue;
+import org.projects.lockFree.StripedCounter;
+import org.projects.lockFree.WorkStealingDeque;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An ExecutorService where every worker has a deque of its own, the design of ForkJoinPool, as an alternative to a
+ * ThreadPoolExecutor whose workers all take their tasks from one BlockingQueue and its lock.
+ * <br>
+ * 1. A task submitted from a worker, e.g. the next stage of a CompletableFuture or a subtask, is pushed on the
+ *    worker's own WorkStealingDeque without any contention, and the worker pops its tasks LIFO, the newest first,
+ *    while its data is still in the cache.
+ * 2. A task submitted from outside goes to a shared lock-free injector queue, a MichaelScottQueue.
+ * 3. A worker without local tasks takes one from the injector, or steals the oldest task of another worker, starting
+ *    at a random victim so thieves spread over the workers. Workers only meet when one runs out of work.
+ * 4. A worker that finds nothing anywhere parks. Before parking it announces itself as idle and looks once more, and
+ *    execute() checks for idle workers after adding a task, so a task is never left behind with everyone parked.
+ *    execute() wakes one idle worker, and a worker that took a task while more are waiting wakes the next one.
+ * <br>
+ * The queues are unbounded, so unlike the ThreadPoolExecutors with an ArrayBlockingQueue(2) in the other examples
+ * a burst of tasks is never rejected. There is also no core and maximum pool size, the pool has a fixed number of
+ * workers, which is what CPU bound fine-grained tasks need. Blocking tasks should go to a ThreadPoolExecutor or to
+ * virtual threads instead, since a blocked worker cannot run or hand out the tasks in its deque until it returns.
+ */
+public class WorkStealingExecutor extends AbstractExecutorService {
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+    private static final VarHandle PARKED;
+
+    static {
+        try {
+            PARKED = MethodHandles.lookup().findVarHandle(Worker.class, "parked", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final class Worker implements Runnable {
+        final WorkStealingDeque<Runnable> deque = new WorkStealingDeque<>();
+        Thread thread;
+        @SuppressWarnings("unused")
+        volatile boolean parked;
+
+        @Override
+        public void run() {
+            currentWorker.set(this);
+            try {
+                runWorker(this);
+            } finally {
+                terminated.countDown();
+            }
+        }
+    }
+
+    private final Worker[] workers;
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+    private final MichaelScottQueue<Runnable> injector = new MichaelScottQueue<>();
+    private final AtomicInteger idleWorkers = new AtomicInteger();
+    private final StripedCounter steals = new StripedCounter();
+    private final CountDownLatch terminated;
+    private volatile int state = RUNNING;
+
+    /**
+     * Creates one worker per core.
+     */
+    public WorkStealingExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public WorkStealingExecutor(int parallelism) {
+        this(parallelism, Executors.defaultThreadFactory());
+    }
+
+    public WorkStealingExecutor(int parallelism, ThreadFactory threadFactory) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.workers = new Worker[parallelism];
+        this.terminated = new CountDownLatch(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker();
+            workers[i].thread = threadFactory.newThread(workers[i]);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        if (state != RUNNING) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        Worker current = currentWorker.get();
+        if (current != null) {
+            current.deque.push(task);
+        } else {
+            injector.offer(task);
+        }
+        signalWork();
+    }
+
+    @Override
+    public void shutdown() {
+        if (state == RUNNING) {
+            state = SHUTDOWN;
+        }
+        wakeAll();
+    }
+
+    /**
+     * Stops the workers after their current task and returns the tasks that did not run.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        state = STOP;
+        List<Runnable> pending = new ArrayList<>();
+        for (Runnable task; (task = injector.poll()) != null; ) {
+            pending.add(task);
+        }
+        for (Worker worker : workers) {
+            for (Runnable task; (task = worker.deque.steal()) != null || !worker.deque.isEmpty(); ) {
+                if (task != null) {
+                    pending.add(task);
+                }
+            }
+            worker.thread.interrupt();
+        }
+        wakeAll();
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return state != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    public int getParallelism() {
+        return workers.length;
+    }
+
+    /**
+     * Returns the number of tasks that were taken from another worker's deque.
+     */
+    public long getStealCount() {
+        return steals.sum();
+    }
+
+    private void runWorker(Worker worker) {
+        while (true) {
+            Runnable task = findWork(worker);
+            if (task == null) {
+                if (state != RUNNING && (state == STOP || !hasWork())) {
+                    return;
+                }
+                task = idle(worker);
+            }
+            if (task != null) {
+                clearInterrupt();
+                TaskRunner.run(task);
+            }
+        }
+    }
+
+    /**
+     * Clears an interrupt left behind by the previous task, e.g. one that restored its interrupt status or was
+     * cancelled with cancel(true), as ThreadPoolExecutor does. Only shutdownNow() interrupts the next task, the state
+     * is checked again after clearing in case shutdownNow() interrupted in between.
+     */
+    private void clearInterrupt() {
+        Thread thread = Thread.currentThread();
+        if ((state == STOP || (Thread.interrupted() && state == STOP)) && !thread.isInterrupted()) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Parks the worker until execute() or shutdown wakes it, and returns a task if the final check found one.
+     */
+    private Runnable idle(Worker worker) {
+        worker.parked = true;
+        idleWorkers.incrementAndGet();
+        // Announced as idle before looking again: a task added after this look will see the idle worker
+        Runnable task = state == RUNNING ? findWork(worker) : null;
+        if (task == null && state == RUNNING) {
+            while (worker.parked && state == RUNNING) {
+                // park() returns at once while the thread is interrupted, and shutdownNow() changes the state anyway
+                Thread.interrupted();
+                LockSupport.park(this);
+            }
+        }
+        if (PARKED.compareAndSet(worker, true, false)) {
+            // Not woken by signalWork(), which decrements the count itself
+            idleWorkers.decrementAndGet();
+        }
+        return task;
+    }
+
+    private Runnable findWork(Worker worker) {
+        Runnable task = worker.deque.pop();
+        if (task != null) {
+            return task;
+        }
+        task = injector.poll();
+        if (task == null) {
+            int start = ThreadLocalRandom.current().nextInt(workers.length);
+            for (int i = 0; i < workers.length && task == null; i++) {
+                Worker victim = workers[(start + i) % workers.length];
+                if (victim != worker) {
+                    task = victim.deque.steal();
+                }
+            }
+            if (task == null) {
+                return null;
+            }
+            steals.increment();
+        }
+        // More work may be waiting than the workers that are awake, pass it on
+        if (idleWorkers.get() > 0 && hasWork()) {
+            signalWork();
+        }
+        return task;
+    }
+
+    private boolean hasWork() {
+        if (!injector.isEmpty()) {
+            return true;
+        }
+        for (Worker worker : workers) {
+            if (!worker.deque.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wakes one parked worker, if there is one.
+     */
+    private void signalWork() {
+        // The task must be visible before reading the idle count, the mirror image of idle()
+        VarHandle.fullFence();
+        if (idleWorkers.get() == 0) {
+            return;
+        }
+        int start = ThreadLocalRandom.current().nextInt(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[(start + i) % workers.length];
+            if (worker.parked && PARKED.compareAndSet(worker, true, false)) {
+                idleWorkers.decrementAndGet();
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private void wakeAll() {
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    /**
+     * Runs a recursive sum that splits into fine-grained tasks on a ThreadPoolExecutor with one shared queue and on
+     * a WorkStealingExecutor, each task submitting its two halves from the worker it runs on.
+     */
+    public static void main(String[] args) throws Exception {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int leaves = 1 << 18;
+        for (int round = 0; round < 3; round++) {
+            ThreadPoolExecutor threadPool = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>());
+            long sharedQueueNanos = sum(threadPool, leaves);
+            threadPool.shutdown();
+
+            WorkStealingExecutor workStealing = new WorkStealingExecutor(parallelism);
+            long workStealingNanos = sum(workStealing, leaves);
+            workStealing.shutdown();
+            workStealing.awaitTermination(10, TimeUnit.SECONDS);
+
+            System.out.printf("%d tasks on %d workers: ThreadPoolExecutor %d ms, WorkStealingExecutor %d ms "
+                            + "(%d steals)%n", 2 * leaves - 1, parallelism, sharedQueueNanos / 1_000_000,
+                    workStealingNanos / 1_000_000, workStealing.getStealCount());
+        }
+    }
+
+    private static long sum(ExecutorService executor, int leaves) throws InterruptedException {
+        AtomicLong total = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(leaves);
+        long start = System.nanoTime();
+        executor.execute(new RangeSum(executor, 0, leaves, total, done));
+        done.await();
+        long nanos = System.nanoTime() - start;
+        if (total.get() != (long) leaves * (leaves - 1) / 2) {
+            throw new IllegalStateException("Wrong sum " + total.get());
+        }
+        return nanos;
+    }
+
+    private record RangeSum(ExecutorService executor, int from, int to, AtomicLong total, CountDownLatch done)
+            implements Runnable {
+        @Override
+        public void run() {
+            if (to - from == 1) {
+                total.addAndGet(from);
+                done.countDown();
+            } else {
+                int middle = (from + to) >>> 1;
+                executor.execute(new RangeSum(executor, from, middle, total, done));
+                executor.execute(new RangeSum(executor, middle, to, total, done));
+            }
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package org.projects.ipc;
+
+import org.projects.lockFree.WaitStrategy;
+import org.projects.locks.BlockingBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * A bounded single-producer single-consumer queue that lives in a memory-mapped file, so the producer and the consumer
+ * can be different JVMs on the same host. On Linux the file should be under /dev/shm, which is backed by memory, so
+ * handing an item over costs a few cache line transfers instead of a round trip through a socket.
+ * <br>
+ * The file layout is:
+ * 1. A header with a magic number, the capacity and the slot size.
+ * 2. The producer position (tail) and the consumer position (head), each on its own cache line so that the two
+ *    processes do not invalidate each other's line on every update (false sharing).
+ * 3. capacity fixed size slots, each holding the record length followed by the record bytes.
+ * <br>
+ * The producer writes the slot with plain stores and then publishes it by writing the tail with a release store through
+ * a VarHandle. The consumer reads the tail with an acquire load before reading the slot, which guarantees it sees the
+ * complete record, and frees the slot again with a release store of the head. Each side keeps a local copy of the other
+ * side's position and only re-reads it when the ring looks full or empty. Batch operations publish the position once
+ * for the whole batch.
+ * <br>
+ * Only one thread in all processes may put, and only one may poll. The wait strategy only sees positions moving,
+ * it cannot be signalled across processes, so a blocking strategy must not be used. The default one parks with backoff.
+ */
+public class SharedMemoryQueue implements BlockingBuffer<String>, Closeable {
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final int MAGIC = 0x51554555;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int SLOT_SIZE_OFFSET = 8;
+    private static final int TAIL_OFFSET = 64;
+    private static final int HEAD_OFFSET = 128;
+    private static final int DATA_OFFSET = 192;
+    // The largest power of two an int holds, rounding a larger capacity up would overflow
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final int slotSize;
+    private final WaitStrategy waitStrategy;
+
+    // Producer side
+    private long tail;
+    private long headCache;
+    // Consumer side
+    private long head;
+    private long tailCache;
+
+    public SharedMemoryQueue(Path file, int capacity, int slotSize) throws IOException {
+        this(file, capacity, slotSize, WaitStrategy.parking());
+    }
+
+    /**
+     * Creates the queue file, or opens it if another process has already created it. The capacity is rounded up to a
+     * power of two, and every record must fit slotSize - 4 bytes. The whole file must fit a single mapping of
+     * at most 2 GB.
+     */
+    public SharedMemoryQueue(Path file, int capacity, int slotSize, WaitStrategy waitStrategy) throws IOException {
+        if (capacity < 1 || capacity > MAX_CAPACITY || slotSize <= Integer.BYTES) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " or slot size " + slotSize);
+        }
+        int roundedCapacity = 1 << (32 - Integer.numberOfLeadingZeros(capacity - 1));
+        // Keep slots 8-byte aligned
+        long alignedSlotSize = ((long) slotSize + 7) & ~7L;
+        if (DATA_OFFSET + roundedCapacity * alignedSlotSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capacity " + roundedCapacity + " of " + alignedSlotSize
+                    + " byte slots does not fit a single mapping");
+        }
+        this.file = file;
+        this.capacity = roundedCapacity;
+        this.mask = this.capacity - 1;
+        this.slotSize = (int) alignedSlotSize;
+        this.waitStrategy = waitStrategy;
+
+        boolean created;
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            created = true;
+        } catch (FileAlreadyExistsException e) {
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            created = false;
+        }
+        try (FileChannel mappedChannel = channel) {
+            buffer = mappedChannel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + (long) this.capacity * this.slotSize);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+
+        if (created) {
+            buffer.putInt(CAPACITY_OFFSET, this.capacity);
+            buffer.putInt(SLOT_SIZE_OFFSET, this.slotSize);
+            INT.setRelease(buffer, MAGIC_OFFSET, MAGIC);
+        } else {
+            // The creating process may still be writing the header
+            while ((int) INT.getAcquire(buffer, MAGIC_OFFSET) != MAGIC) {
+                Thread.onSpinWait();
+            }
+            if (buffer.getInt(CAPACITY_OFFSET) != this.capacity || buffer.getInt(SLOT_SIZE_OFFSET) != this.slotSize) {
+                throw new IllegalStateException("Queue file " + file + " was created with capacity "
+                        + buffer.getInt(CAPACITY_OFFSET) + " and slot size " + buffer.getInt(SLOT_SIZE_OFFSET));
+            }
+        }
+
+        tail = (long) LONG.getAcquire(buffer, TAIL_OFFSET);
+        head = (long) LONG.getAcquire(buffer, HEAD_OFFSET);
+        headCache = head;
+        tailCache = tail;
+    }
+
+    /**
+     * Returns a path for the named queue under /dev/shm when it exists, otherwise under the temporary directory.
+     */
+    public static Path defaultPath(String name) {
+        Path shm = Path.of("/dev/shm");
+        return (Files.isDirectory(shm) ? shm : Path.of(System.getProperty("java.io.tmpdir"))).resolve(name);
+    }
+
+    /**
+     * Copies source[offset, offset + length) into the next slot if there is space, returning false instead of waiting
+     * when the queue is full.
+     */
+    public boolean offer(byte[] source, int offset, int length) {
+        checkLength(length);
+        if (!hasSpace()) {
+            return false;
+        }
+        write(tail, source, offset, length);
+        publishTail(tail + 1);
+        return true;
+    }
+
+    public void put(byte[] source, int offset, int length) {
+        checkLength(length);
+        while (!hasSpace()) {
+            waitStrategy.await(this::hasSpace);
+        }
+        write(tail, source, offset, length);
+        publishTail(tail + 1);
+    }
+
+    /**
+     * Copies the oldest record into target starting at offset and removes it, or returns -1 instead of waiting
+     * when the queue is empty.
+     *
+     * @return the length of the record
+     */
+    public int tryPoll(byte[] target, int offset) {
+        if (!hasData()) {
+            return -1;
+        }
+        int length = read(head, target, offset);
+        releaseHead(head + 1);
+        return length;
+    }
+
+    public int poll(byte[] target, int offset) {
+        while (!hasData()) {
+            waitStrategy.await(this::hasData);
+        }
+        int length = read(head, target, offset);
+        releaseHead(head + 1);
+        return length;
+    }
+
+    @Override
+    public void put(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        put(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public String poll() {
+        while (!hasData()) {
+            waitStrategy.await(this::hasData);
+        }
+        String data = readString(head);
+        releaseHead(head + 1);
+        return data;
+    }
+
+    @Override
+    public boolean offerUntil(String data, long deadlineNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        checkLength(bytes.length);
+        while (!hasSpace()) {
+            if (!waitStrategy.await(this::hasSpace, deadlineNanos)) {
+                return false;
+            }
+        }
+        write(tail, bytes, 0, bytes.length);
+        publishTail(tail + 1);
+        return true;
+    }
+
+    @Override
+    public String pollUntil(long deadlineNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        while (!hasData()) {
+            if (!waitStrategy.await(this::hasData, deadlineNanos)) {
+                return null;
+            }
+        }
+        String data = readString(head);
+        releaseHead(head + 1);
+        return data;
+    }
+
+    @Override
+    public void putAll(Collection<? extends String> items) {
+        long position = tail;
+        for (String data : items) {
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            checkLength(bytes.length);
+            if (position - headCache >= capacity) {
+                // Let the consumer see what was written so far before waiting for it to make space
+                publishTail(position);
+                while (!hasSpace()) {
+                    waitStrategy.await(this::hasSpace);
+                }
+            }
+            write(position++, bytes, 0, bytes.length);
+        }
+        publishTail(position);
+    }
+
+    @Override
+    public int offerBatch(String[] items, int from, int length) {
+        hasSpace();
+        int count = (int) Math.min(length, capacity - (tail - headCache));
+        long position = tail;
+        for (int i = from; i < from + count; i++) {
+            byte[] bytes = items[i].getBytes(StandardCharsets.UTF_8);
+            checkLength(bytes.length);
+            write(position++, bytes, 0, bytes.length);
+        }
+        if (count > 0) {
+            publishTail(position);
+        }
+        return Math.max(count, 0);
+    }
+
+    @Override
+    public int drainTo(Consumer<? super String> consumer, int maxElements) {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        while (!hasData()) {
+            waitStrategy.await(this::hasData);
+        }
+        int count = (int) Math.min(maxElements, tailCache - head);
+        for (int i = 0; i < count; i++) {
+            consumer.accept(readString(head + i));
+        }
+        releaseHead(head + count);
+        return count;
+    }
+
+    @Override
+    public int drainTo(String[] target, int maxElements) {
+        int[] count = new int[1];
+        drainTo(data -> target[count[0]++] = data, maxElements);
+        return count[0];
+    }
+
+    @Override
+    public int size() {
+        long currentHead = (long) LONG.getAcquire(buffer, HEAD_OFFSET);
+        long currentTail = (long) LONG.getAcquire(buffer, TAIL_OFFSET);
+        return (int) Math.max(0, Math.min(capacity, currentTail - currentHead));
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Unmapping happens when the buffer is garbage collected. The file is left in place for the other process,
+     * delete() removes it.
+     */
+    @Override
+    public void close() {
+        buffer.force();
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private boolean hasSpace() {
+        if (tail - headCache < capacity) {
+            return true;
+        }
+        headCache = (long) LONG.getAcquire(buffer, HEAD_OFFSET);
+        return tail - headCache < capacity;
+    }
+
+    private boolean hasData() {
+        if (head < tailCache) {
+            return true;
+        }
+        tailCache = (long) LONG.getAcquire(buffer, TAIL_OFFSET);
+        return head < tailCache;
+    }
+
+    private void publishTail(long position) {
+        tail = position;
+        LONG.setRelease(buffer, TAIL_OFFSET, position);
+    }
+
+    private void releaseHead(long position) {
+        head = position;
+        LONG.setRelease(buffer, HEAD_OFFSET, position);
+    }
+
+    private void checkLength(int length) {
+        if (length < 0 || length > slotSize - Integer.BYTES) {
+            throw new IllegalArgumentException("Record length " + length + " does not fit slot size " + slotSize);
+        }
+    }
+
+    private int slotOffset(long position) {
+        return DATA_OFFSET + ((int) position & mask) * slotSize;
+    }
+
+    private void write(long position, byte[] source, int offset, int length) {
+        int slot = slotOffset(position);
+        buffer.putInt(slot, length);
+        buffer.put(slot + Integer.BYTES, source, offset, length);
+    }
+
+    private int read(long position, byte[] target, int offset) {
+        int slot = slotOffset(position);
+        int length = buffer.getInt(slot);
+        buffer.get(slot + Integer.BYTES, target, offset, length);
+        return length;
+    }
+
+    private String readString(long position) {
+        int slot = slotOffset(position);
+        byte[] bytes = new byte[buffer.getInt(slot)];
+        buffer.get(slot + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Without arguments this measures the round trip between two processes: it starts a second JVM running the echo
+     * side, which polls every record from the ping queue and puts it into the pong queue, and reports the one way
+     * handoff latency as half of each round trip. Both sides spin and yield, so on a single core machine the numbers
+     * mostly show the scheduler.
+     */
+    public static void main(String[] args) throws Exception {
+        Path ping = defaultPath("multithreading-ping");
+        Path pong = defaultPath("multithreading-pong");
+        int messages = 20_000;
+
+        if (args.length > 0 && args[0].equals("echo")) {
+            try (SharedMemoryQueue in = new SharedMemoryQueue(ping, 1024, 64, WaitStrategy.yielding());
+                 SharedMemoryQueue out = new SharedMemoryQueue(pong, 1024, 64, WaitStrategy.yielding())) {
+                byte[] record = new byte[64];
+                for (int i = 0; i < messages; i++) {
+                    int length = in.poll(record, 0);
+                    out.put(record, 0, length);
+                }
+            }
+            return;
+        }
+
+        Files.deleteIfExists(ping);
+        Files.deleteIfExists(pong);
+        try (SharedMemoryQueue out = new SharedMemoryQueue(ping, 1024, 64, WaitStrategy.yielding());
+             SharedMemoryQueue in = new SharedMemoryQueue(pong, 1024, 64, WaitStrategy.yielding())) {
+            Process echo = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), SharedMemoryQueue.class.getName(), "echo")
+                    .inheritIO().start();
+
+            byte[] record = new byte[64];
+            long[] oneWayNanos = new long[messages];
+            for (int i = 0; i < messages; i++) {
+                long start = System.nanoTime();
+                out.put(record, 0, 16);
+                in.poll(record, 0);
+                oneWayNanos[i] = (System.nanoTime() - start) / 2;
+            }
+            echo.waitFor();
+
+            // Skip the first half, which includes the warm-up of both JVMs
+            long[] measured = Arrays.copyOfRange(oneWayNanos, messages / 2, messages);
+            Arrays.sort(measured);
+            System.out.println("One way handoff between processes: median " + measured[measured.length / 2]
+                    + " ns, p99 " + measured[measured.length * 99 / 100] + " ns");
+            out.delete();
+            in.delete();
+        }
+    }
+}
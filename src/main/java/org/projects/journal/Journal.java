@@ -0,0 +1,489 @@
+package org.projects.journal;
+
+import org.projects.trace.Tracer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead journal of string entries stored in fixed size, memory-mapped segment files.
+ * <br>
+ * Appending copies the entry into the mapped segment under a short lock and assigns it the next sequence number.
+ * That only puts the bytes in the page cache, the entry is durable once the mapping has been forced to disk.
+ * Forcing once per entry would cost one disk flush per entry, so the journal uses group commit: a single flusher
+ * thread forces all entries appended so far with one force() call, either once maxBatchEntries entries are
+ * waiting or at the latest maxBatchDelay after the previous commit. Threads calling awaitDurable() wait until the
+ * batch containing their entry has been forced, so many producers share the cost of one flush.
+ * <br>
+ * Consumers acknowledge entries when they are done with them. The checkpoint is the highest sequence below which
+ * every entry has been acknowledged, it is written to its own file with the next group commit. Segments that only
+ * hold entries up to the checkpoint are deleted. When a journal is opened again, the entries after the checkpoint
+ * are handed over once by unacknowledged() so they can be replayed. Entries acknowledged out of order after the
+ * checkpoint are replayed as well, so consumers should be prepared to see an entry more than once after a crash.
+ * <br>
+ * Each record is stored as [length][crc32][sequence][UTF-8 bytes]. A length of zero marks the end of the data
+ * in a segment, and a record with a wrong checksum (a write torn by a crash) ends the replay of its segment. A
+ * reopened journal never appends behind such a record, it starts a new segment, whose entries are replayed again.
+ * <br>
+ * If forcing a segment or the checkpoint fails, the flusher stops and keeps the exception: every thread waiting in
+ * awaitDurable(), and every later call, throws an IllegalStateException with it as the cause instead of waiting for
+ * a commit that never comes. A segment file that cannot be deleted is only logged and retried.
+ */
+public final class Journal implements Closeable {
+
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    /**
+     * An entry of the journal with the sequence number it was assigned when appended.
+     */
+    public record Entry(long sequence, String data) {
+    }
+
+    private static final class Segment {
+        final long index;
+        final Path path;
+        final MappedByteBuffer buffer;
+        volatile long lastSequence;
+
+        Segment(long index, Path path, MappedByteBuffer buffer) {
+            this.index = index;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxBatchEntries;
+    private final long maxBatchDelayNanos;
+    private final MappedByteBuffer checkpointBuffer;
+    // Handed over by the first call of unacknowledged(), guarded by ackLock
+    private List<Entry> unacknowledged = new ArrayList<>();
+
+    // Guards appending and the segment list
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private final CRC32 crc32 = new CRC32();
+    private volatile long appendedSequence;
+
+    // Guards the group commit state
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition commitRequested = commitLock.newCondition();
+    private final Condition committed = commitLock.newCondition();
+    private volatile long durableSequence;
+    private long commits;
+    private boolean closed;
+    // Why the flusher stopped before the journal was closed, nothing appended after it becomes durable
+    private Throwable failure;
+    private boolean flusherStopped;
+
+    // Guards the acknowledgements
+    private final ReentrantLock ackLock = new ReentrantLock();
+    private final PriorityQueue<Long> outOfOrderAcks = new PriorityQueue<>();
+    private long checkpoint;
+    private long persistedCheckpoint;
+    // Acknowledged segments whose file could not be deleted yet, only touched by the flusher
+    private final List<Segment> undeleted = new ArrayList<>();
+
+    private final Thread flusher;
+
+    public Journal(Path directory) throws IOException {
+        this(directory, 16 * 1024 * 1024, 256, TimeUnit.MILLISECONDS.toNanos(2));
+    }
+
+    public Journal(Path directory, int segmentSize, int maxBatchEntries, long maxBatchDelayNanos) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.maxBatchEntries = maxBatchEntries;
+        this.maxBatchDelayNanos = maxBatchDelayNanos;
+
+        this.checkpointBuffer = map(directory.resolve(CHECKPOINT_FILE), Long.BYTES);
+        this.checkpoint = checkpointBuffer.getLong(0);
+        this.persistedCheckpoint = checkpoint;
+        this.appendedSequence = checkpoint;
+
+        replay();
+        this.durableSequence = appendedSequence;
+        long lastIndex = segments.isEmpty() ? -1 : segments.get(segments.size() - 1).index;
+        // Never append behind a record that may have been torn, start a fresh segment instead
+        roll(lastIndex + 1);
+
+        this.flusher = new Thread(this::flushLoop, "JournalFlusher-" + directory.getFileName());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Returns the entries found after the checkpoint when the journal was opened, in sequence order, as an
+     * unmodifiable list. The first call hands the entries over and later calls return an empty list, so the journal
+     * does not keep the replayed data reachable once the caller has queued it.
+     */
+    public List<Entry> unacknowledged() {
+        ackLock.lock();
+        try {
+            List<Entry> entries = Collections.unmodifiableList(unacknowledged);
+            unacknowledged = List.of();
+            return entries;
+        } finally {
+            ackLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the entry to the journal and returns its sequence number. The entry is not durable until
+     * awaitDurable() for this sequence returns.
+     */
+    public long append(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        int recordSize = HEADER_SIZE + bytes.length;
+        if (recordSize > segmentSize - Integer.BYTES) {
+            throw new IllegalArgumentException("Entry of " + bytes.length + " bytes does not fit a segment");
+        }
+
+        appendLock.lock();
+        try {
+            Segment segment = segments.get(segments.size() - 1);
+            ByteBuffer buffer = segment.buffer;
+            // Keep room for the zero length end marker after the record
+            if (buffer.position() + recordSize > segmentSize - Integer.BYTES) {
+                segment = roll(segment.index + 1);
+                buffer = segment.buffer;
+            }
+
+            long sequence = appendedSequence + 1;
+            crc32.reset();
+            crc32.update(bytes);
+            int start = buffer.position();
+            buffer.position(start + Integer.BYTES);
+            buffer.putInt((int) crc32.getValue());
+            buffer.putLong(sequence);
+            buffer.put(bytes);
+            // The length goes last, so a reader never sees a length without the record behind it
+            buffer.putInt(start, recordSize);
+            segment.lastSequence = sequence;
+            appendedSequence = sequence;
+            return sequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the entry with the given sequence, and every entry before it, has been forced to disk.
+     *
+     * @throws IllegalStateException if the journal is closed or forcing it to disk failed before the entry was durable
+     */
+    public void awaitDurable(long sequence) throws InterruptedException {
+        commitLock.lock();
+        try {
+            if (sequence - durableSequence >= maxBatchEntries) {
+                commitRequested.signal();
+            }
+            while (durableSequence < sequence) {
+                checkFlusher();
+                committed.await();
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the entry with the given sequence, and every entry before it, has been forced to disk, or until the
+     * deadline passes.
+     *
+     * @return false if the entry was not durable yet at the deadline
+     */
+    public boolean awaitDurable(long sequence, long deadlineNanos) throws InterruptedException {
+        commitLock.lock();
+        try {
+            if (sequence - durableSequence >= maxBatchEntries) {
+                commitRequested.signal();
+            }
+            while (durableSequence < sequence) {
+                checkFlusher();
+                long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                committed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Throws if no commit will make further entries durable, called with the commit lock held.
+     */
+    private void checkFlusher() {
+        if (failure != null) {
+            throw new IllegalStateException("Journal flusher failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        if (flusherStopped) {
+            throw new IllegalStateException("Journal flusher has stopped");
+        }
+    }
+
+    /**
+     * Marks the entry as consumed. The checkpoint advances once every earlier entry has been acknowledged too.
+     */
+    public void acknowledge(long sequence) {
+        ackLock.lock();
+        try {
+            if (sequence <= checkpoint) {
+                return;
+            }
+            if (sequence != checkpoint + 1) {
+                outOfOrderAcks.add(sequence);
+                return;
+            }
+            checkpoint = sequence;
+            while (!outOfOrderAcks.isEmpty() && outOfOrderAcks.peek() <= checkpoint + 1) {
+                checkpoint = Math.max(checkpoint, outOfOrderAcks.poll());
+            }
+        } finally {
+            ackLock.unlock();
+        }
+    }
+
+    public long checkpoint() {
+        ackLock.lock();
+        try {
+            return checkpoint;
+        } finally {
+            ackLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of force() rounds so far, each of which made a whole batch of entries durable.
+     */
+    public long commits() {
+        commitLock.lock();
+        try {
+            return commits;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        commitLock.lock();
+        try {
+            closed = true;
+            commitRequested.signal();
+            // Also wakes the waiters if the flusher has already stopped on a failure
+            committed.signalAll();
+        } finally {
+            commitLock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        Throwable stoppedBy = null;
+        try {
+            while (true) {
+                boolean stopping;
+                commitLock.lock();
+                try {
+                    // Commit at the latest maxBatchDelay after the previous commit, or as soon as a batch is full
+                    if (!closed && appendedSequence - durableSequence < maxBatchEntries) {
+                        commitRequested.awaitNanos(maxBatchDelayNanos);
+                    }
+                    stopping = closed;
+                } catch (InterruptedException e) {
+                    stopping = true;
+                } finally {
+                    commitLock.unlock();
+                }
+
+                commit();
+                if (stopping) {
+                    return;
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            // A failed force() leaves the mapped pages in an unknown state, later commits cannot promise anything
+            Tracer.log(Tracer.Level.ERROR, "Journal flusher of {} stopped: {}", directory, e);
+            stoppedBy = e;
+        } finally {
+            commitLock.lock();
+            try {
+                failure = stoppedBy;
+                flusherStopped = true;
+                committed.signalAll();
+            } finally {
+                commitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Forces everything appended so far, then persists the checkpoint and deletes the segments it covers.
+     */
+    private void commit() {
+        List<Segment> dirty = new ArrayList<>();
+        long target;
+        appendLock.lock();
+        try {
+            target = appendedSequence;
+            for (Segment segment : segments) {
+                if (segment.lastSequence > durableSequence) {
+                    dirty.add(segment);
+                }
+            }
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (!dirty.isEmpty()) {
+            for (Segment segment : dirty) {
+                segment.buffer.force();
+            }
+            commitLock.lock();
+            try {
+                durableSequence = target;
+                commits++;
+                committed.signalAll();
+            } finally {
+                commitLock.unlock();
+            }
+        }
+
+        long currentCheckpoint = checkpoint();
+        if (currentCheckpoint != persistedCheckpoint) {
+            checkpointBuffer.putLong(0, currentCheckpoint);
+            checkpointBuffer.force();
+            persistedCheckpoint = currentCheckpoint;
+            deleteAcknowledgedSegments(currentCheckpoint);
+        } else if (!undeleted.isEmpty()) {
+            deleteAcknowledgedSegments(currentCheckpoint);
+        }
+    }
+
+    /**
+     * Deletes the files of the segments up to the checkpoint. A file that cannot be deleted only costs disk space,
+     * its entries are acknowledged and not replayed, so it is logged and tried again with the next commit.
+     */
+    private void deleteAcknowledgedSegments(long upTo) {
+        appendLock.lock();
+        try {
+            // The last segment is still being appended to, so it is always kept
+            while (segments.size() > 1 && segments.get(0).lastSequence <= upTo) {
+                undeleted.add(segments.remove(0));
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        for (Iterator<Segment> iterator = undeleted.iterator(); iterator.hasNext(); ) {
+            Segment segment = iterator.next();
+            try {
+                Files.deleteIfExists(segment.path);
+                iterator.remove();
+            } catch (IOException e) {
+                Tracer.log(Tracer.Level.WARN, "Cannot delete acknowledged segment {}: {}", segment.path, e);
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment file, called with the append lock held or from the constructor.
+     */
+    private Segment roll(long index) {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+        try {
+            Segment segment = new Segment(index, path, map(path, segmentSize));
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void replay() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long index = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(index, path, map(path, (int) Files.size(path)));
+            segment.lastSequence = checkpoint;
+            segments.add(segment);
+
+            ByteBuffer buffer = segment.buffer;
+            // A torn record ends this segment only, later segments were written by later sessions
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int start = buffer.position();
+                int recordSize = buffer.getInt(start);
+                if (recordSize == 0) {
+                    break;
+                }
+                if (recordSize < HEADER_SIZE || start + recordSize > buffer.limit()) {
+                    break;
+                }
+                int checksum = buffer.getInt(start + Integer.BYTES);
+                long sequence = buffer.getLong(start + 2 * Integer.BYTES);
+                byte[] bytes = new byte[recordSize - HEADER_SIZE];
+                buffer.get(start + HEADER_SIZE, bytes);
+                crc32.reset();
+                crc32.update(bytes);
+                if ((int) crc32.getValue() != checksum) {
+                    break;
+                }
+
+                buffer.position(start + recordSize);
+                segment.lastSequence = sequence;
+                if (sequence > checkpoint) {
+                    unacknowledged.add(new Entry(sequence, new String(bytes, StandardCharsets.UTF_8)));
+                }
+                appendedSequence = Math.max(appendedSequence, sequence);
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.projects.journal;
+
+import org.projects.lockFree.RingBufferQueue;
+import org.projects.lockFree.WaitStrategy;
+import org.projects.locks.BlockingBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A BlockingBuffer whose entries survive a crash of the JVM, built from a Journal and an in-memory RingBufferQueue.
+ * <br>
+ * put() appends the entry to the journal and returns only once it is durable. Since the journal uses group commit,
+ * producers putting at the same time share one force() to disk instead of paying for one each, and putAll()
+ * waits for a single commit for the whole batch. The entry is then handed to consumers through the in-memory queue.
+ * <br>
+ * poll() and drainTo() acknowledge the entries they return, so the journal treats them as consumed. Consumers that
+ * must not lose an entry if they crash while processing it use take() and acknowledge() it when done instead.
+ * When the queue is opened again on the same directory, all unacknowledged entries are put back into the queue
+ * in their original order before any new entry. The in-memory capacity grows to hold them if needed.
+ */
+public class JournaledBufferQueue implements BlockingBuffer<String>, Closeable {
+
+    private final Journal journal;
+    private final RingBufferQueue<Journal.Entry> buffer;
+
+    public JournaledBufferQueue(Path directory, int capacity) throws IOException {
+        this(new Journal(directory), capacity);
+    }
+
+    public JournaledBufferQueue(Journal journal, int capacity) {
+        this.journal = journal;
+        List<Journal.Entry> replayed = journal.unacknowledged();
+        this.buffer = new RingBufferQueue<>(Math.max(capacity, replayed.size()), WaitStrategy.blocking());
+        for (Journal.Entry entry : replayed) {
+            buffer.offer(entry);
+        }
+    }
+
+    @Override
+    public void put(String data) {
+        Journal.Entry entry = new Journal.Entry(journal.append(data), data);
+        awaitDurable(entry.sequence());
+        buffer.put(entry);
+    }
+
+    @Override
+    public String poll() {
+        Journal.Entry entry = buffer.poll();
+        journal.acknowledge(entry.sequence());
+        return entry.data();
+    }
+
+    /**
+     * Waits until the deadline for the entry to become durable first, then for space in the buffer. An entry that
+     * times out is acknowledged right away, so it is not replayed after a restart.
+     */
+    @Override
+    public boolean offerUntil(String data, long deadlineNanos) throws InterruptedException {
+        Journal.Entry entry = new Journal.Entry(journal.append(data), data);
+        try {
+            if (journal.awaitDurable(entry.sequence(), deadlineNanos) && buffer.offerUntil(entry, deadlineNanos)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            journal.acknowledge(entry.sequence());
+            throw e;
+        }
+        journal.acknowledge(entry.sequence());
+        return false;
+    }
+
+    @Override
+    public String pollUntil(long deadlineNanos) throws InterruptedException {
+        Journal.Entry entry = buffer.pollUntil(deadlineNanos);
+        if (entry == null) {
+            return null;
+        }
+        journal.acknowledge(entry.sequence());
+        return entry.data();
+    }
+
+    /**
+     * Removes and returns the oldest entry without acknowledging it, waiting for one if the queue is empty.
+     * The entry is replayed after a restart unless acknowledge() is called for it.
+     */
+    public Journal.Entry take() {
+        return buffer.poll();
+    }
+
+    public void acknowledge(Journal.Entry entry) {
+        journal.acknowledge(entry.sequence());
+    }
+
+    @Override
+    public void putAll(Collection<? extends String> items) {
+        List<Journal.Entry> entries = new ArrayList<>(items.size());
+        for (String data : items) {
+            entries.add(new Journal.Entry(journal.append(data), data));
+        }
+        if (!entries.isEmpty()) {
+            awaitDurable(entries.get(entries.size() - 1).sequence());
+        }
+        buffer.putAll(entries);
+    }
+
+    /**
+     * Journals as many items as there is space for right now, waits until they are durable and only then offers
+     * them to the buffer. Items that no longer fit, because other producers took the space in the meantime, are
+     * acknowledged so they are not replayed as if they had been accepted.
+     */
+    @Override
+    public int offerBatch(String[] items, int from, int length) {
+        int fit = Math.min(length, buffer.capacity() - buffer.size());
+        if (fit <= 0) {
+            return 0;
+        }
+        Journal.Entry[] entries = new Journal.Entry[fit];
+        for (int i = 0; i < fit; i++) {
+            entries[i] = new Journal.Entry(journal.append(items[from + i]), items[from + i]);
+        }
+        awaitDurable(entries[fit - 1].sequence());
+        // One batch, so that consumers already waiting in poll() are signalled once it is in
+        int count = buffer.offerBatch(entries, 0, fit);
+        for (int i = count; i < fit; i++) {
+            journal.acknowledge(entries[i].sequence());
+        }
+        return count;
+    }
+
+    @Override
+    public int drainTo(Consumer<? super String> consumer, int maxElements) {
+        return buffer.drainTo(entry -> {
+            journal.acknowledge(entry.sequence());
+            consumer.accept(entry.data());
+        }, maxElements);
+    }
+
+    @Override
+    public int drainTo(String[] target, int maxElements) {
+        int[] count = new int[1];
+        drainTo(data -> target[count[0]++] = data, maxElements);
+        return count[0];
+    }
+
+    @Override
+    public int size() {
+        return buffer.size();
+    }
+
+    @Override
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    public Journal journal() {
+        return journal;
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    private void awaitDurable(long sequence) {
+        try {
+            journal.awaitDurable(sequence);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+
+        /* Items that were put but not consumed before the queue is closed are replayed when it is opened again */
+        try (JournaledBufferQueue queue = new JournaledBufferQueue(directory, 16)) {
+            for (int i = 1; i <= 6; i++) {
+                queue.put("Item" + i);
+            }
+            for (int i = 1; i <= 4; i++) {
+                System.out.println("Data consumed: " + queue.poll());
+            }
+        }
+        try (JournaledBufferQueue queue = new JournaledBufferQueue(directory, 16)) {
+            System.out.println("Replayed after reopening: " + queue.size() + " items");
+            while (queue.size() > 0) {
+                System.out.println("Data consumed: " + queue.poll());
+            }
+        }
+
+        /* Producers putting at the same time share the force() of each group commit */
+        try (JournaledBufferQueue queue = new JournaledBufferQueue(directory, 1024)) {
+            int producers = 8;
+            int itemsPerProducer = 2_000;
+            Thread[] threads = new Thread[producers + 1];
+            for (int p = 0; p < producers; p++) {
+                threads[p] = new Thread(() -> {
+                    for (int i = 0; i < itemsPerProducer; i++) {
+                        queue.put("Item" + i);
+                    }
+                }, "ProducerThread-" + p);
+            }
+            threads[producers] = new Thread(() -> {
+                String[] batch = new String[256];
+                int consumed = 0;
+                while (consumed < producers * itemsPerProducer) {
+                    consumed += queue.drainTo(batch, batch.length);
+                }
+            }, "ConsumerThread");
+
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println("Put " + producers * itemsPerProducer + " durable items in " + elapsed / 1_000_000
+                    + " ms with " + queue.journal().commits() + " commits");
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.projects.lockFree;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Objects;
+
+/**
+ * A bounded producer-consumer queue of byte records with the same put/poll semantics as BufferQueue.
+ * Every slot is a fixed size region of one pre-allocated byte[] plus its record length, so records are copied in
+ * and out of the ring instead of being kept as separate heap objects, and no operation allocates.
+ * Records can be passed as a byte[] range or as the remaining bytes of a ByteBuffer, and must not be longer
+ * than the slot size.
+ * <br>
+ * Slots are claimed the same way as in RingBufferQueue, see SequencedRing. tryPoll() returns -1 when the queue is empty.
+ * Every source and target is checked before a slot is claimed: a copy that failed after the claim would leave the
+ * slot unpublished or unreleased, and every later producer or consumer would wait for it forever.
+ */
+public class ByteSlotBufferQueue extends SequencedRing {
+
+    private final int slotSize;
+    private final byte[] slots;
+    private final int[] lengths;
+
+    public ByteSlotBufferQueue(int capacity, int slotSize) {
+        this(capacity, slotSize, WaitStrategy.yielding());
+    }
+
+    public ByteSlotBufferQueue(int capacity, int slotSize, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        if (slotSize < 1) {
+            throw new IllegalArgumentException("Slot size must be positive: " + slotSize);
+        }
+        this.slotSize = slotSize;
+        this.slots = new byte[Math.multiplyExact(this.capacity, slotSize)];
+        this.lengths = new int[this.capacity];
+    }
+
+    public int slotSize() {
+        return slotSize;
+    }
+
+    /**
+     * Copies source[offset, offset + length) into the queue if there is space for it, returning false instead of
+     * waiting when the queue is full.
+     */
+    public boolean offer(byte[] source, int offset, int length) {
+        checkSource(source, offset, length);
+        long position = claimPut();
+        if (position < 0) {
+            return false;
+        }
+        write(position, source, offset, length);
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    /**
+     * Copies the remaining bytes of the source buffer into the queue if there is space for them, returning false
+     * instead of waiting when the queue is full. The source position is advanced only when the record was added.
+     */
+    public boolean offer(ByteBuffer source) {
+        checkLength(source.remaining());
+        long position = claimPut();
+        if (position < 0) {
+            return false;
+        }
+        write(position, source);
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    public void put(byte[] source, int offset, int length) {
+        checkSource(source, offset, length);
+        write(awaitClaimPut(), source, offset, length);
+        waitStrategy.signalAll();
+    }
+
+    public void put(ByteBuffer source) {
+        checkLength(source.remaining());
+        write(awaitClaimPut(), source);
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * Copies the oldest record into target starting at offset and removes it, or returns -1 instead of waiting
+     * when the queue is empty. The target must have room for slotSize() bytes.
+     *
+     * @return the length of the record
+     */
+    public int tryPoll(byte[] target, int offset) {
+        checkTarget(target, offset);
+        long position = claimPoll();
+        if (position < 0) {
+            return -1;
+        }
+        int length = read(position, target, offset);
+        waitStrategy.signalAll();
+        return length;
+    }
+
+    /**
+     * Copies the oldest record into target starting at offset and removes it, waiting for one if the queue is empty.
+     * The target must have room for slotSize() bytes.
+     *
+     * @return the length of the record
+     */
+    public int poll(byte[] target, int offset) {
+        checkTarget(target, offset);
+        int length = read(awaitClaimPoll(), target, offset);
+        waitStrategy.signalAll();
+        return length;
+    }
+
+    /**
+     * Copies the oldest record into the target buffer at its position and removes it, waiting for one if the queue
+     * is empty. The target must have slotSize() bytes remaining.
+     *
+     * @return the length of the record
+     */
+    public int poll(ByteBuffer target) {
+        checkTarget(target);
+        int length = read(awaitClaimPoll(), target);
+        waitStrategy.signalAll();
+        return length;
+    }
+
+    private void checkLength(int length) {
+        if (length < 0 || length > slotSize) {
+            throw new IllegalArgumentException("Record length " + length + " does not fit slot size " + slotSize);
+        }
+    }
+
+    private void checkSource(byte[] source, int offset, int length) {
+        checkLength(length);
+        Objects.checkFromIndexSize(offset, length, source.length);
+    }
+
+    private void checkTarget(byte[] target, int offset) {
+        Objects.checkFromIndexSize(offset, slotSize, target.length);
+    }
+
+    private void checkTarget(ByteBuffer target) {
+        if (target.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        if (target.remaining() < slotSize) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    private void write(long position, byte[] source, int offset, int length) {
+        int index = (int) position & mask;
+        System.arraycopy(source, offset, slots, index * slotSize, length);
+        lengths[index] = length;
+        publishPut(position);
+    }
+
+    private void write(long position, ByteBuffer source) {
+        int index = (int) position & mask;
+        int length = source.remaining();
+        source.get(slots, index * slotSize, length);
+        lengths[index] = length;
+        publishPut(position);
+    }
+
+    private int read(long position, byte[] target, int offset) {
+        int index = (int) position & mask;
+        int length = lengths[index];
+        System.arraycopy(slots, index * slotSize, target, offset, length);
+        releasePoll(position);
+        return length;
+    }
+
+    private int read(long position, ByteBuffer target) {
+        int index = (int) position & mask;
+        int length = lengths[index];
+        target.put(slots, index * slotSize, length);
+        releasePoll(position);
+        return length;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ByteSlotBufferQueue byteSlotBufferQueue = new ByteSlotBufferQueue(4, 64);
+
+        Thread producer = new Thread(() -> {
+            ByteBuffer record = ByteBuffer.allocate(64);
+            for (int i = 1; i <= 6; i++) {
+                record.clear();
+                record.putInt(i).putLong(System.nanoTime()).flip();
+                byteSlotBufferQueue.put(record);
+            }
+        }, "ProducerThread");
+
+        Thread consumer = new Thread(() -> {
+            ByteBuffer record = ByteBuffer.allocate(64);
+            for (int i = 1; i <= 6; i++) {
+                record.clear();
+                int length = byteSlotBufferQueue.poll(record);
+                record.flip();
+                System.out.println("Record " + record.getInt() + " of " + length + " bytes consumed by thread: "
+                        + Thread.currentThread().getName());
+            }
+        }, "ConsumerThread");
+
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+    }
+}
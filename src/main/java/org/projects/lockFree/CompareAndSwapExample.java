@@ -20,10 +20,14 @@ import java.util.concurrent.atomic.AtomicInteger;
  * The changes to the cached value may not be immediately reflected in the main memory, leading to inconsistencies as these
  * changes are synchronized back to main memory at some later point in time. So volatile ensures that the variable is always
  * read from and written to main memory, ensuring visibility of changes across threads.
+ * With many threads, all the CASes on the one AtomicInteger compete for the same cache line, so they fail and retry more
+ * often the more threads there are. The striped method spreads the increments over several padded cells of a
+ * StripedCounter, so threads rarely touch the same cell, and only the rare read adds the cells up.
  */
 public class CompareAndSwapExample {
     private int counter = 0;
     private AtomicInteger atomicCounter = new AtomicInteger(0);
+    private StripedCounter stripedCounter = new StripedCounter();
 
     public void threadUnsafeIncrement() {
         counter++;
@@ -37,6 +41,10 @@ public class CompareAndSwapExample {
         atomicCounter.getAndIncrement();
     }
 
+    public void stripedIncrement() {
+        stripedCounter.increment();
+    }
+
     public int getCounter() {
         return counter;
     }
@@ -49,6 +57,10 @@ public class CompareAndSwapExample {
         return atomicCounter.get();
     }
 
+    public long getStripedCounter() {
+        return stripedCounter.sum();
+    }
+
     public static void main(String[] args) {
         CompareAndSwapExample example = new CompareAndSwapExample();
         int numberOfThreads = 100;
@@ -121,5 +133,25 @@ public class CompareAndSwapExample {
         }
 
         System.out.println("Final atomic counter value: " + example.getAtomicCounter());
+
+        // Testing striped increment
+        for (int i = 0; i < numberOfThreads; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < incrementsPerThread; j++) {
+                    example.stripedIncrement();
+                }
+            });
+            threads[i].start();
+        }
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        System.out.println("Final striped counter value: " + example.getStripedCounter());
     }
 }
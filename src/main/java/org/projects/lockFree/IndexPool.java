@@ -0,0 +1,86 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free free-list of the indices 0 to capacity - 1, used by the pooled modes of TreiberStack and
+ * MichaelScottQueue to reuse their nodes instead of allocating one per element.
+ * <br>
+ * The free-list is itself a Treiber stack of indices. Reusing nodes brings back the ABA problem the garbage collector
+ * normally prevents: a thread reads head = A and A.next = B, other threads pop A and B and push A again, and the
+ * first thread's CAS from A to B succeeds although B is no longer in the list. So the head is a stamped reference
+ * like AtomicStampedReference: the index and a stamp are packed into one long and every successful CAS increments the
+ * stamp. A thread that saw an old version of the head then fails its CAS even if the same index is back on top.
+ * Packing both into one long keeps it a single CAS without allocating, unlike AtomicStampedReference which
+ * allocates a new pair object for every update.
+ */
+final class IndexPool {
+
+    static final int NONE = -1;
+
+    private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final int[] next;
+    private final AtomicLong head;
+
+    IndexPool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        next = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            next[i] = i + 1 < capacity ? i + 1 : NONE;
+        }
+        head = new AtomicLong(pack(0, 0));
+    }
+
+    /**
+     * Takes a free index, or returns NONE if all indices are in use.
+     */
+    int allocate() {
+        while (true) {
+            long current = head.get();
+            int index = index(current);
+            if (index == NONE) {
+                return NONE;
+            }
+            // Another thread may have allocated and reused the index since head was read, then the stamp has changed
+            // and the CAS fails, so the possibly stale next value is never installed
+            int following = (int) NEXT.getAcquire(next, index);
+            if (head.compareAndSet(current, pack(following, stamp(current) + 1))) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Returns an index that the caller owns exclusively to the pool.
+     */
+    void free(int index) {
+        while (true) {
+            long current = head.get();
+            NEXT.setRelease(next, index, index(current));
+            if (head.compareAndSet(current, pack(index, stamp(current) + 1))) {
+                return;
+            }
+        }
+    }
+
+    int capacity() {
+        return next.length;
+    }
+
+    static long pack(int index, int stamp) {
+        return ((long) stamp << 32) | (index & 0xFFFF_FFFFL);
+    }
+
+    static int index(long stamped) {
+        return (int) stamped;
+    }
+
+    static int stamp(long stamped) {
+        return (int) (stamped >>> 32);
+    }
+}
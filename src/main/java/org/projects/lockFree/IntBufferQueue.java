@@ -0,0 +1,114 @@
+package org.projects.lockFree;
+
+/**
+ * A bounded producer-consumer queue of primitive ints with the same put/poll semantics as BufferQueue.
+ * The values are stored directly in a pre-allocated int[], so unlike a queue of Integer objects there is no boxing
+ * and no queue node per element, and put() and poll() allocate nothing once the queue is constructed.
+ * <br>
+ * Slots are claimed the same way as in RingBufferQueue, see SequencedRing. Since an int cannot be null,
+ * tryPoll() takes the value to return when the queue is empty.
+ */
+public class IntBufferQueue extends SequencedRing {
+
+    private final int[] values;
+
+    public IntBufferQueue(int capacity) {
+        this(capacity, WaitStrategy.yielding());
+    }
+
+    public IntBufferQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.values = new int[this.capacity];
+    }
+
+    /**
+     * Adds the value if there is space for it, returning false instead of waiting when the queue is full.
+     */
+    public boolean offer(int value) {
+        if (!add(value)) {
+            return false;
+        }
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    /**
+     * Removes and returns the oldest value, or returns emptyValue instead of waiting when the queue is empty.
+     */
+    public int tryPoll(int emptyValue) {
+        long position = claimPoll();
+        if (position < 0) {
+            return emptyValue;
+        }
+        int value = take(position);
+        waitStrategy.signalAll();
+        return value;
+    }
+
+    public void put(int value) {
+        long position = awaitClaimPut();
+        values[(int) position & mask] = value;
+        publishPut(position);
+        waitStrategy.signalAll();
+    }
+
+    public int poll() {
+        int value = take(awaitClaimPoll());
+        waitStrategy.signalAll();
+        return value;
+    }
+
+    /**
+     * Adds as many of source[from, from + length) as currently fit without waiting.
+     *
+     * @return the number of values added
+     */
+    public int offerBatch(int[] source, int from, int length) {
+        int count = 0;
+        while (count < length && add(source[from + count])) {
+            count++;
+        }
+        if (count > 0) {
+            waitStrategy.signalAll();
+        }
+        return count;
+    }
+
+    /**
+     * Waits until at least one value is available, then removes up to maxElements values into target from index 0.
+     *
+     * @return the number of values removed
+     */
+    public int drainTo(int[] target, int maxElements) {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        target[0] = take(awaitClaimPoll());
+        int count = 1;
+        long position;
+        while (count < maxElements && (position = claimPoll()) >= 0) {
+            target[count++] = take(position);
+        }
+        waitStrategy.signalAll();
+        return count;
+    }
+
+    /**
+     * Adds the value if there is space for it, without waking waiting consumers.
+     */
+    private boolean add(int value) {
+        long position = claimPut();
+        if (position < 0) {
+            return false;
+        }
+        values[(int) position & mask] = value;
+        publishPut(position);
+        return true;
+    }
+
+    private int take(long position) {
+        int value = values[(int) position & mask];
+        releasePoll(position);
+        return value;
+    }
+}
@@ -0,0 +1,155 @@
+package org.projects.lockFree;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A bounded producer-consumer queue of primitive longs with the same put/poll semantics as BufferQueue.
+ * The values are stored directly in a pre-allocated long[], so unlike a queue of Long objects there is no boxing
+ * and no queue node per element, and put() and poll() allocate nothing once the queue is constructed.
+ * This keeps high rate paths such as telemetry from creating garbage for the collector.
+ * <br>
+ * Slots are claimed the same way as in RingBufferQueue, see SequencedRing. Since a long cannot be null,
+ * tryPoll() takes the value to return when the queue is empty.
+ */
+public class LongBufferQueue extends SequencedRing {
+
+    private final long[] values;
+
+    public LongBufferQueue(int capacity) {
+        this(capacity, WaitStrategy.yielding());
+    }
+
+    public LongBufferQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.values = new long[this.capacity];
+    }
+
+    /**
+     * Adds the value if there is space for it, returning false instead of waiting when the queue is full.
+     */
+    public boolean offer(long value) {
+        if (!add(value)) {
+            return false;
+        }
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    /**
+     * Removes and returns the oldest value, or returns emptyValue instead of waiting when the queue is empty.
+     */
+    public long tryPoll(long emptyValue) {
+        long position = claimPoll();
+        if (position < 0) {
+            return emptyValue;
+        }
+        long value = take(position);
+        waitStrategy.signalAll();
+        return value;
+    }
+
+    public void put(long value) {
+        long position = awaitClaimPut();
+        values[(int) position & mask] = value;
+        publishPut(position);
+        waitStrategy.signalAll();
+    }
+
+    public long poll() {
+        long value = take(awaitClaimPoll());
+        waitStrategy.signalAll();
+        return value;
+    }
+
+    /**
+     * Adds as many of source[from, from + length) as currently fit without waiting.
+     *
+     * @return the number of values added
+     */
+    public int offerBatch(long[] source, int from, int length) {
+        int count = 0;
+        while (count < length && add(source[from + count])) {
+            count++;
+        }
+        if (count > 0) {
+            waitStrategy.signalAll();
+        }
+        return count;
+    }
+
+    /**
+     * Waits until at least one value is available, then removes up to maxElements values into target from index 0.
+     *
+     * @return the number of values removed
+     */
+    public int drainTo(long[] target, int maxElements) {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        target[0] = take(awaitClaimPoll());
+        int count = 1;
+        long position;
+        while (count < maxElements && (position = claimPoll()) >= 0) {
+            target[count++] = take(position);
+        }
+        waitStrategy.signalAll();
+        return count;
+    }
+
+    /**
+     * Adds the value if there is space for it, without waking waiting consumers.
+     */
+    private boolean add(long value) {
+        long position = claimPut();
+        if (position < 0) {
+            return false;
+        }
+        values[(int) position & mask] = value;
+        publishPut(position);
+        return true;
+    }
+
+    private long take(long position) {
+        long value = values[(int) position & mask];
+        releasePoll(position);
+        return value;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LongBufferQueue longBufferQueue = new LongBufferQueue(1024);
+        int items = 10_000_000;
+        long[] allocated = new long[2];
+        long[] sum = new long[1];
+
+        Thread producer = new Thread(() -> {
+            long before = threadMXBean.getCurrentThreadAllocatedBytes();
+            for (long i = 1; i <= items; i++) {
+                longBufferQueue.put(i);
+            }
+            allocated[0] = threadMXBean.getCurrentThreadAllocatedBytes() - before;
+        }, "ProducerThread");
+
+        Thread consumer = new Thread(() -> {
+            long before = threadMXBean.getCurrentThreadAllocatedBytes();
+            long total = 0;
+            for (int i = 1; i <= items; i++) {
+                total += longBufferQueue.poll();
+            }
+            allocated[1] = threadMXBean.getCurrentThreadAllocatedBytes() - before;
+            sum[0] = total;
+        }, "ConsumerThread");
+
+        long start = System.nanoTime();
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Moved " + items + " longs in " + elapsed / 1_000_000 + " ms, sum: " + sum[0]);
+        System.out.println("Bytes allocated by producer: " + allocated[0] + ", by consumer: " + allocated[1]);
+    }
+}
@@ -0,0 +1,328 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A lock-free hash map from primitive long keys to objects, for lookups by numeric id such as sessions or
+ * connections.
+ * <br>
+ * ConcurrentHashMap&lt;Long, V&gt; boxes every key into a Long and allocates a node per entry, which costs about
+ * 50 bytes per entry besides the value and a pointer chase per lookup. This map keeps keys and values in two parallel
+ * arrays instead (open addressing): the slot of a key is its hash masked to the array size, and on a collision the
+ * next slot is tried (linear probing). An entry costs the 12 bytes of its key and value reference divided by the load
+ * factor, get() only reads the two arrays and allocates nothing.
+ * <br>
+ * Updates use CAS like CompareAndSwapExample, on single array elements:
+ * 1. A new key claims a slot by CASing the key from EMPTY_KEY to itself. Once claimed, a slot keeps its key for the
+ *    lifetime of the table, so readers never see keys move.
+ * 2. The value is then set by CASing the value slot. remove() CASes it back to null, which leaves the key claimed
+ *    until the next resize.
+ * <br>
+ * When the table gets too full, a new table is created and the entries are copied cooperatively: every thread that
+ * runs into the resize claims chunks of slots with getAndAdd on a counter and copies them, so the work is spread over
+ * all writers and nobody waits for one thread to copy millions of entries. Only the thread that claimed a chunk copies
+ * its slots: it copies the value to the new table and then CASes the old value slot to MOVED. If a writer changed the
+ * value in between, the CAS fails and the copier copies the newer value. Empty slots are sealed with MOVED too, so
+ * no new key can be inserted behind the copier's back. Readers and writers that find MOVED continue in the new table.
+ * The resize itself is implemented in LongKeyMap and shared with LongLongHashMap, this class only stores and copies
+ * the slots.
+ * <br>
+ * Long.MIN_VALUE marks an empty key slot and cannot be used as a key. Null values are not allowed, as in
+ * ConcurrentHashMap. size() is a StripedCounter sum, it is not exact while other threads are updating the map.
+ */
+public class LongHashMap<V> extends LongKeyMap<LongHashMap.Table> {
+
+    private static final Object MOVED = new Object();
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    static final class Table extends LongKeyMap.Table<Table> {
+        final long[] keys;
+        final Object[] values;
+
+        Table(int capacity) {
+            super(capacity);
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY_KEY);
+            values = new Object[capacity];
+        }
+    }
+
+    public LongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates a map that can hold expectedSize entries without resizing.
+     */
+    public LongHashMap(int expectedSize) {
+        super(new Table(capacityFor(expectedSize, MAX_CAPACITY)), MAX_CAPACITY);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        checkKey(key);
+        Table t = table;
+        int hash = hash(key);
+        while (t != null) {
+            Object value = find(t, key, hash);
+            if (value != MOVED) {
+                return (V) value;
+            }
+            t = t.next.get();
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associates the value with the key and returns the previous value, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        checkKey(key);
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        return (V) update(table, key, value, false, true);
+    }
+
+    /**
+     * Associates the value with the key unless it already has one, and returns the value it already had or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(long key, V value) {
+        checkKey(key);
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        return (V) update(table, key, value, true, true);
+    }
+
+    /**
+     * Removes the value of the key and returns it, or null if the key had none.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        checkKey(key);
+        return (V) update(table, key, null, false, true);
+    }
+
+    /**
+     * Looks the key up in one table. Returns its value, null if the table does not have it, or MOVED if the caller
+     * has to look in the next table.
+     */
+    private static Object find(Table t, long key, int hash) {
+        int mask = t.mask;
+        int index = hash & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long slotKey = (long) KEYS.getAcquire(t.keys, index);
+            if (slotKey == key) {
+                return VALUES.getAcquire(t.values, index);
+            }
+            if (slotKey == EMPTY_KEY) {
+                // A sealed empty slot means the key may have been inserted into the next table since
+                return VALUES.getAcquire(t.values, index) == MOVED ? MOVED : null;
+            }
+            index = (index + 1) & mask;
+        }
+        // Every slot is claimed, if a resize is running the key may be in the next table
+        return MOVED;
+    }
+
+    /**
+     * Sets the value of the key, or removes it if value is null, and returns the previous value.
+     * counted is false when a resize copies an entry, which must not change the size.
+     */
+    private Object update(Table t, long key, Object value, boolean onlyIfAbsent, boolean counted) {
+        int hash = hash(key);
+        retry:
+        while (true) {
+            if (t.next.get() != null) {
+                // Writers help with a running resize so that the copy makes progress. They stay in this table until
+                // they find their slot MOVED, before that the next table may not have the key's latest value yet
+                helpResize(t);
+            }
+            int mask = t.mask;
+            int index = hash & mask;
+            int probes = 0;
+            while (true) {
+                long slotKey = (long) KEYS.getAcquire(t.keys, index);
+                if (slotKey == EMPTY_KEY) {
+                    if (value == null) {
+                        // Nothing to remove, unless the slot is sealed and the key was inserted into the next table
+                        if (VALUES.getAcquire(t.values, index) == MOVED) {
+                            t = helpResize(t);
+                            continue retry;
+                        }
+                        return null;
+                    }
+                    slotKey = (long) KEYS.compareAndExchange(t.keys, index, EMPTY_KEY, key);
+                    if (slotKey == EMPTY_KEY) {
+                        t.claimed.increment();
+                        if (probes > REPROBE_LIMIT && t.claimed.sum() > (long) t.capacity() * 3 / 4) {
+                            // Once the copy has sealed the claimed slot, the retry sends the value to the next table
+                            startResize(t);
+                            helpResize(t);
+                            continue retry;
+                        }
+                        break;
+                    }
+                }
+                if (slotKey == key) {
+                    break;
+                }
+                if (++probes > mask) {
+                    // Every slot is claimed by other keys
+                    startResize(t);
+                    t = helpResize(t);
+                    continue retry;
+                }
+                index = (index + 1) & mask;
+            }
+
+            while (true) {
+                Object current = VALUES.getAcquire(t.values, index);
+                if (current == MOVED) {
+                    t = helpResize(t);
+                    continue retry;
+                }
+                if (current == value || (onlyIfAbsent && current != null)) {
+                    return current;
+                }
+                if (VALUES.compareAndSet(t.values, index, current, value)) {
+                    if (counted && current == null) {
+                        size.increment();
+                    } else if (counted && value == null) {
+                        size.decrement();
+                    }
+                    return current;
+                }
+            }
+        }
+    }
+
+    @Override
+    Table newTable(int capacity) {
+        return new Table(capacity);
+    }
+
+    @Override
+    void copySlot(Table t, Table next, int index) {
+        boolean copiedValue = false;
+        while (true) {
+            Object value = VALUES.getAcquire(t.values, index);
+            if (value == null) {
+                if (copiedValue) {
+                    // A writer removed the value after it was copied, remove it from the next table too
+                    update(next, (long) KEYS.getAcquire(t.keys, index), null, false, false);
+                    copiedValue = false;
+                }
+                if (VALUES.compareAndSet(t.values, index, null, MOVED)) {
+                    return;
+                }
+            } else {
+                update(next, (long) KEYS.getAcquire(t.keys, index), value, false, false);
+                copiedValue = true;
+                if (VALUES.compareAndSet(t.values, index, value, MOVED)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the heap used and the lookup time with ConcurrentHashMap&lt;Long, V&gt;, then checks that concurrent
+     * puts and removes during several resizes keep every entry. The number of entries can be passed as the first
+     * argument, the default of 2_000_000 fits a small heap, use -Xmx4g for tens of millions.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        /* Memory and lookup time against ConcurrentHashMap */
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        String value = "session";
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        long before = usedHeap(memory);
+        LongHashMap<String> longHashMap = new LongHashMap<>();
+        for (long key = 1; key <= entries; key++) {
+            longHashMap.put(key * 7919, value);
+        }
+        long longHashMapBytes = usedHeap(memory) - before;
+
+        before = usedHeap(memory);
+        ConcurrentHashMap<Long, String> concurrentHashMap = new ConcurrentHashMap<>();
+        for (long key = 1; key <= entries; key++) {
+            concurrentHashMap.put(key * 7919, value);
+        }
+        long concurrentHashMapBytes = usedHeap(memory) - before;
+
+        System.out.printf("%d entries: LongHashMap %d bytes/entry, ConcurrentHashMap %d bytes/entry%n", entries,
+                longHashMapBytes / entries, concurrentHashMapBytes / entries);
+
+        long[] keys = new long[1 << 20];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (1 + (i * 104_729L) % entries) * 7919;
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (long key : keys) {
+                found += longHashMap.get(key) != null ? 1 : 0;
+            }
+            long longHashMapNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (long key : keys) {
+                found += concurrentHashMap.get(key) != null ? 1 : 0;
+            }
+            long concurrentHashMapNanos = System.nanoTime() - start;
+            System.out.printf("Round %d: LongHashMap %d ns/get, ConcurrentHashMap %d ns/get (%d found)%n", round,
+                    longHashMapNanos / keys.length, concurrentHashMapNanos / keys.length, found);
+        }
+
+        /* Concurrent puts and removes while the map grows from 16 slots */
+        LongHashMap<Long> grown = new LongHashMap<>();
+        int threadCount = 4;
+        int keysPerThread = 250_000;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            long offset = (long) t * keysPerThread;
+            threads[t] = new Thread(() -> {
+                for (long key = offset; key < offset + keysPerThread; key++) {
+                    grown.put(key, key);
+                    // Remove every tenth key again, so resizes also have to drop removed entries
+                    if (key % 10 == 0) {
+                        grown.remove(key);
+                    }
+                }
+            }, "WriterThread-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int wrong = 0;
+        for (long key = 0; key < (long) threadCount * keysPerThread; key++) {
+            Long found = grown.get(key);
+            if (key % 10 == 0 ? found != null : found == null || found != key) {
+                wrong++;
+            }
+        }
+        System.out.println("Concurrent puts: size " + grown.size() + " (expected " + threadCount * keysPerThread * 9 / 10
+                + "), " + wrong + " wrong lookups, capacity " + grown.capacity());
+    }
+
+    private static long usedHeap(MemoryMXBean memory) {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
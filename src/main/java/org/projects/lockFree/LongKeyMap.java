@@ -0,0 +1,174 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The table management shared by the lock-free long keyed maps, LongHashMap and LongLongHashMap: the current table,
+ * the size, and the cooperative resize described in LongHashMap.
+ * <br>
+ * A subclass decides how a table stores its slots and copies one slot to the next table, this class decides when a
+ * next table is created, hands out the chunks to copy and makes the next table current once every chunk is copied.
+ * If allocating the next table fails, e.g. with an OutOfMemoryError, the resize marker is cleared again, so the
+ * threads waiting for the table retry the allocation themselves instead of spinning forever.
+ */
+abstract class LongKeyMap<T extends LongKeyMap.Table<T>> {
+
+    public static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    static final int MIN_CAPACITY = 16;
+    // A new key that needs more probes than this checks whether the table is due for a resize
+    static final int REPROBE_LIMIT = 8;
+    private static final int COPY_CHUNK = 1024;
+
+    private static final VarHandle TABLE;
+
+    static {
+        try {
+            TABLE = MethodHandles.lookup().findVarHandle(LongKeyMap.class, "table", Table.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The resize state of one table, the slots are up to the subclass.
+     */
+    abstract static class Table<T extends Table<T>> {
+        final int mask;
+        // Slots whose key is claimed, including those whose value has been removed
+        final StripedCounter claimed = new StripedCounter();
+        final AtomicBoolean resizing = new AtomicBoolean();
+        final AtomicReference<T> next = new AtomicReference<>();
+        final AtomicInteger copyIndex = new AtomicInteger();
+        final AtomicInteger copied = new AtomicInteger();
+
+        Table(int capacity) {
+            mask = capacity - 1;
+        }
+
+        final int capacity() {
+            return mask + 1;
+        }
+    }
+
+    volatile T table;
+    final StripedCounter size = new StripedCounter();
+    private final int maxCapacity;
+
+    LongKeyMap(T table, int maxCapacity) {
+        this.table = table;
+        this.maxCapacity = maxCapacity;
+    }
+
+    /**
+     * Returns the table capacity for expectedSize entries at a load factor of 3/4, a power of two.
+     */
+    static int capacityFor(int expectedSize, int maxCapacity) {
+        long capacity = Math.max(MIN_CAPACITY, (long) expectedSize * 4 / 3 + 1);
+        return (int) Math.min(maxCapacity, Long.highestOneBit(capacity - 1) << 1);
+    }
+
+    public int size() {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, size.sum()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number of slots of the current table.
+     */
+    public int capacity() {
+        return table.capacity();
+    }
+
+    abstract T newTable(int capacity);
+
+    /**
+     * Copies the slot at index to the next table and seals it with MOVED, only called by the thread that claimed
+     * the chunk of the slot.
+     */
+    abstract void copySlot(T t, T next, int index);
+
+    /**
+     * Installs the next table unless another thread already started the resize. The next table is twice as large
+     * if at least a quarter of the slots hold values, otherwise removed keys are taking the space and the same size
+     * is enough.
+     */
+    final void startResize(T t) {
+        if (t.next.get() == null && t.resizing.compareAndSet(false, true)) {
+            int capacity = t.capacity();
+            boolean grow = size.sum() >= capacity / 4 && capacity < maxCapacity;
+            try {
+                t.next.set(newTable(grow ? capacity << 1 : capacity));
+            } catch (Throwable throwable) {
+                // Let the next writer try again rather than leave the helpers waiting for a table that never comes
+                t.resizing.set(false);
+                throw throwable;
+            }
+        }
+    }
+
+    /**
+     * Copies chunks of the table until none are left unclaimed, then returns the next table. Other threads may still
+     * be copying their chunks, so only a slot found MOVED guarantees that the next table has its latest value.
+     * The thread that finishes the last chunk makes the next table the map's table.
+     */
+    final T helpResize(T t) {
+        T next;
+        while ((next = t.next.get()) == null) {
+            if (t.resizing.get()) {
+                // The thread that won startResize() is allocating the next table
+                Thread.onSpinWait();
+            } else {
+                // Its allocation failed, try it here, which throws here as well if the heap is still full
+                startResize(t);
+            }
+        }
+        int capacity = t.capacity();
+        int start;
+        while ((start = t.copyIndex.getAndAdd(COPY_CHUNK)) < capacity) {
+            int end = Math.min(start + COPY_CHUNK, capacity);
+            for (int index = start; index < end; index++) {
+                copySlot(t, next, index);
+            }
+            if (t.copied.addAndGet(end - start) == capacity) {
+                promote();
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Replaces the map's table with its next table for as long as the table has been copied completely. A nested
+     * resize of the next table can finish before the one of the map's table, then both are skipped at once.
+     */
+    private void promote() {
+        T t;
+        T next;
+        while ((next = (t = table).next.get()) != null && t.copied.get() == t.capacity()) {
+            TABLE.compareAndSet(this, t, next);
+        }
+    }
+
+    static int hash(long key) {
+        // The finalizer of MurmurHash3, so that sequential ids spread over the whole table
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    static void checkKey(long key) {
+        if (key == EMPTY_KEY) {
+            throw new IllegalArgumentException("Long.MIN_VALUE is reserved and cannot be used as a key");
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A lock-free hash map from primitive long keys to primitive long values, e.g. from a connection id to the id of
+ * its session, or per id counters with addAndGet().
+ * <br>
+ * It works like LongHashMap: open addressing with linear probing, keys claimed by CAS and never moved within a table,
+ * values updated by CAS, and cooperative resizing in chunks where a copied value slot is sealed with MOVED, which
+ * both inherit from LongKeyMap.
+ * Since keys and values are both longs, they are stored next to each other in a single array, key at 2 * slot and
+ * value at 2 * slot + 1. A lookup then reads one cache line instead of one in the key array and one in the value
+ * array, and an entry costs 16 bytes divided by the load factor with nothing boxed.
+ * <br>
+ * Two longs are reserved: Long.MIN_VALUE marks an empty key slot and a missing value (NO_VALUE), and
+ * Long.MIN_VALUE + 1 marks a moved value. Neither can be used as a key or a value. Methods that return a previous
+ * value return NO_VALUE if there was none.
+ */
+public class LongLongHashMap extends LongKeyMap<LongLongHashMap.Table> {
+
+    public static final long NO_VALUE = Long.MIN_VALUE;
+
+    private static final long MOVED = Long.MIN_VALUE + 1;
+    // Two longs per slot, so half the slots of LongHashMap fit an array
+    private static final int MAX_CAPACITY = 1 << 29;
+
+    private static final int PUT = 0;
+    private static final int PUT_IF_ABSENT = 1;
+    private static final int REMOVE = 2;
+    private static final int ADD = 3;
+
+    private static final VarHandle ENTRIES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    static final class Table extends LongKeyMap.Table<Table> {
+        // Key of slot i at 2 * i, its value at 2 * i + 1
+        final long[] entries;
+
+        Table(int capacity) {
+            super(capacity);
+            // EMPTY_KEY and NO_VALUE are the same, so one fill marks every slot as empty
+            entries = new long[capacity * 2];
+            Arrays.fill(entries, EMPTY_KEY);
+        }
+    }
+
+    public LongLongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates a map that can hold expectedSize entries without resizing.
+     */
+    public LongLongHashMap(int expectedSize) {
+        super(new Table(capacityFor(expectedSize, MAX_CAPACITY)), MAX_CAPACITY);
+    }
+
+    /**
+     * Returns the value of the key, or NO_VALUE if it has none.
+     */
+    public long get(long key) {
+        checkKey(key);
+        Table t = table;
+        int hash = hash(key);
+        while (t != null) {
+            long value = find(t, key, hash);
+            if (value != MOVED) {
+                return value;
+            }
+            t = t.next.get();
+        }
+        return NO_VALUE;
+    }
+
+    public long getOrDefault(long key, long defaultValue) {
+        long value = get(key);
+        return value == NO_VALUE ? defaultValue : value;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != NO_VALUE;
+    }
+
+    /**
+     * Associates the value with the key and returns the previous value, or NO_VALUE.
+     */
+    public long put(long key, long value) {
+        checkKey(key);
+        checkValue(value);
+        return update(table, key, value, PUT, true);
+    }
+
+    /**
+     * Associates the value with the key unless it already has one, and returns the value it already had or NO_VALUE.
+     */
+    public long putIfAbsent(long key, long value) {
+        checkKey(key);
+        checkValue(value);
+        return update(table, key, value, PUT_IF_ABSENT, true);
+    }
+
+    /**
+     * Removes the value of the key and returns it, or NO_VALUE if the key had none.
+     */
+    public long remove(long key) {
+        checkKey(key);
+        return update(table, key, NO_VALUE, REMOVE, true);
+    }
+
+    /**
+     * Adds delta to the value of the key, treating a missing value as zero, and returns the new value.
+     */
+    public long addAndGet(long key, long delta) {
+        checkKey(key);
+        long previous = update(table, key, delta, ADD, true);
+        return (previous == NO_VALUE ? 0 : previous) + delta;
+    }
+
+    /**
+     * Looks the key up in one table. Returns its value, NO_VALUE if the table does not have it, or MOVED if the
+     * caller has to look in the next table.
+     */
+    private static long find(Table t, long key, int hash) {
+        long[] entries = t.entries;
+        int mask = t.mask;
+        int index = hash & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long slotKey = (long) ENTRIES.getAcquire(entries, index << 1);
+            if (slotKey == key) {
+                return (long) ENTRIES.getAcquire(entries, (index << 1) + 1);
+            }
+            if (slotKey == EMPTY_KEY) {
+                return (long) ENTRIES.getAcquire(entries, (index << 1) + 1) == MOVED ? MOVED : NO_VALUE;
+            }
+            index = (index + 1) & mask;
+        }
+        return MOVED;
+    }
+
+    /**
+     * Applies the operation to the value of the key and returns the previous value. counted is false when a resize
+     * copies an entry, which must not change the size.
+     */
+    private long update(Table t, long key, long operand, int operation, boolean counted) {
+        int hash = hash(key);
+        retry:
+        while (true) {
+            if (t.next.get() != null) {
+                // As in LongHashMap: help, but only leave this table once the key's slot is found MOVED
+                helpResize(t);
+            }
+            long[] entries = t.entries;
+            int mask = t.mask;
+            int index = hash & mask;
+            int probes = 0;
+            while (true) {
+                long slotKey = (long) ENTRIES.getAcquire(entries, index << 1);
+                if (slotKey == EMPTY_KEY) {
+                    if (operation == REMOVE) {
+                        if ((long) ENTRIES.getAcquire(entries, (index << 1) + 1) == MOVED) {
+                            t = helpResize(t);
+                            continue retry;
+                        }
+                        return NO_VALUE;
+                    }
+                    slotKey = (long) ENTRIES.compareAndExchange(entries, index << 1, EMPTY_KEY, key);
+                    if (slotKey == EMPTY_KEY) {
+                        t.claimed.increment();
+                        if (probes > REPROBE_LIMIT && t.claimed.sum() > (long) t.capacity() * 3 / 4) {
+                            startResize(t);
+                            helpResize(t);
+                            continue retry;
+                        }
+                        break;
+                    }
+                }
+                if (slotKey == key) {
+                    break;
+                }
+                if (++probes > mask) {
+                    startResize(t);
+                    t = helpResize(t);
+                    continue retry;
+                }
+                index = (index + 1) & mask;
+            }
+
+            int valueIndex = (index << 1) + 1;
+            while (true) {
+                long current = (long) ENTRIES.getAcquire(entries, valueIndex);
+                if (current == MOVED) {
+                    t = helpResize(t);
+                    continue retry;
+                }
+                long value = switch (operation) {
+                    case PUT -> operand;
+                    case PUT_IF_ABSENT -> current == NO_VALUE ? operand : current;
+                    case REMOVE -> NO_VALUE;
+                    default -> checkValue((current == NO_VALUE ? 0 : current) + operand);
+                };
+                if (current == value) {
+                    return current;
+                }
+                if (ENTRIES.compareAndSet(entries, valueIndex, current, value)) {
+                    if (counted && current == NO_VALUE) {
+                        size.increment();
+                    } else if (counted && value == NO_VALUE) {
+                        size.decrement();
+                    }
+                    return current;
+                }
+            }
+        }
+    }
+
+    @Override
+    Table newTable(int capacity) {
+        return new Table(capacity);
+    }
+
+    @Override
+    void copySlot(Table t, Table next, int index) {
+        long[] entries = t.entries;
+        int valueIndex = (index << 1) + 1;
+        boolean copiedValue = false;
+        while (true) {
+            long value = (long) ENTRIES.getAcquire(entries, valueIndex);
+            long key = (long) ENTRIES.getAcquire(entries, index << 1);
+            if (value == NO_VALUE) {
+                if (copiedValue) {
+                    update(next, key, NO_VALUE, REMOVE, false);
+                    copiedValue = false;
+                }
+                if (ENTRIES.compareAndSet(entries, valueIndex, NO_VALUE, MOVED)) {
+                    return;
+                }
+            } else {
+                update(next, key, value, PUT, false);
+                copiedValue = true;
+                if (ENTRIES.compareAndSet(entries, valueIndex, value, MOVED)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static long checkValue(long value) {
+        if (value == NO_VALUE || value == MOVED) {
+            throw new IllegalArgumentException("Long.MIN_VALUE and Long.MIN_VALUE + 1 are reserved values");
+        }
+        return value;
+    }
+
+    /**
+     * Counts hits per id from several threads with addAndGet() and compares the lookup time with a
+     * ConcurrentHashMap&lt;Long, Long&gt; holding the same counts.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        LongLongHashMap counts = new LongLongHashMap();
+        int threadCount = 4;
+        int ids = 100_000;
+        int hitsPerId = 10;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                for (int hit = 0; hit < hitsPerId; hit++) {
+                    for (long id = 1; id <= ids; id++) {
+                        counts.addAndGet(id, 1);
+                    }
+                }
+            }, "CounterThread-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int wrong = 0;
+        for (long id = 1; id <= ids; id++) {
+            if (counts.get(id) != (long) threadCount * hitsPerId) {
+                wrong++;
+            }
+        }
+        System.out.println("Counted " + counts.size() + " ids with " + wrong + " wrong counts, capacity "
+                + counts.capacity());
+
+        ConcurrentHashMap<Long, Long> boxedCounts = new ConcurrentHashMap<>();
+        for (long id = 1; id <= ids; id++) {
+            boxedCounts.put(id, counts.get(id));
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < 10; i++) {
+                for (long id = 1; id <= ids; id++) {
+                    sum += counts.get(id);
+                }
+            }
+            long primitiveNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                for (long id = 1; id <= ids; id++) {
+                    sum += boxedCounts.get(id);
+                }
+            }
+            long boxedNanos = System.nanoTime() - start;
+            System.out.printf("Round %d: LongLongHashMap %d ns/get, ConcurrentHashMap %d ns/get (sum %d)%n", round,
+                    primitiveNanos / (10L * ids), boxedNanos / (10L * ids), sum);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An unbounded lock-free FIFO queue, the algorithm by Maged Michael and Michael Scott that
+ * java.util.concurrent.ConcurrentLinkedQueue is based on.
+ * <br>
+ * The queue is a linked list that always starts with a dummy node, head points at the dummy and tail at the last
+ * node or one close to it:
+ * 1. offer() CASes the next reference of the last node from null to the new node, then tries to swing tail to it.
+ * 2. poll() reads the element of the node after the dummy and CASes head to that node, which becomes the new dummy.
+ * Between the two CASes of an offer() the tail lags one node behind. Any thread that finds tail.next set first helps
+ * by advancing the tail, so no thread has to wait for a producer that was descheduled halfway through.
+ * <br>
+ * With the default constructor every offer allocates a node and the garbage collector prevents the ABA problem.
+ * The pooled mode, created with a capacity, keeps elements and links in pre-allocated arrays and hands out nodes as
+ * indices from an IndexPool, so offer and poll allocate nothing in steady state. As in the original paper, head,
+ * tail and every next link are counted pointers: an index and a stamp packed into one long, and every CAS increments
+ * the stamp. A node that is reused while a slow thread still holds its old index then has a different stamp and the
+ * slow thread's CAS fails. A pooled queue holds at most capacity elements and offer() returns false when full.
+ */
+public class MichaelScottQueue<E> {
+
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+    private static final VarHandle NODE_NEXT;
+    private static final VarHandle STAMPED_NEXT = MethodHandles.arrayElementVarHandle(long[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(MichaelScottQueue.class, "head", Node.class);
+            TAIL = lookup.findVarHandle(MichaelScottQueue.class, "tail", Node.class);
+            NODE_NEXT = lookup.findVarHandle(Node.class, "next", Node.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Node<E> {
+        E item;
+        @SuppressWarnings("unused")
+        volatile Node<E> next;
+
+        Node(E item) {
+            this.item = item;
+        }
+    }
+
+    // Allocating mode
+    private volatile Node<E> head;
+    private volatile Node<E> tail;
+
+    // Pooled mode
+    private final IndexPool pool;
+    private final Object[] items;
+    private final long[] next;
+    private final AtomicLong stampedHead;
+    private final AtomicLong stampedTail;
+
+    public MichaelScottQueue() {
+        head = tail = new Node<>(null);
+        pool = null;
+        items = null;
+        next = null;
+        stampedHead = null;
+        stampedTail = null;
+    }
+
+    /**
+     * Creates a queue that reuses its nodes and holds at most capacity elements.
+     */
+    public MichaelScottQueue(int capacity) {
+        // One node more than the capacity for the dummy
+        pool = new IndexPool(capacity + 1);
+        items = new Object[capacity + 1];
+        next = new long[capacity + 1];
+        for (int i = 0; i <= capacity; i++) {
+            next[i] = IndexPool.pack(IndexPool.NONE, 0);
+        }
+        int dummy = pool.allocate();
+        stampedHead = new AtomicLong(IndexPool.pack(dummy, 0));
+        stampedTail = new AtomicLong(IndexPool.pack(dummy, 0));
+    }
+
+    /**
+     * Appends the element, returning false only if the queue is pooled and all its nodes are in use.
+     */
+    public boolean offer(E item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        if (pool != null) {
+            return offerPooled(item);
+        }
+        Node<E> node = new Node<>(item);
+        while (true) {
+            Node<E> last = tail;
+            Node<E> following = last.next;
+            if (last != tail) {
+                continue;
+            }
+            if (following == null) {
+                if (NODE_NEXT.compareAndSet(last, null, node)) {
+                    // Fails if another thread already helped, which is fine
+                    TAIL.compareAndSet(this, last, node);
+                    return true;
+                }
+            } else {
+                // The tail lags behind a half finished offer, help it along
+                TAIL.compareAndSet(this, last, following);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the oldest element, or returns null if the queue is empty.
+     */
+    public E poll() {
+        if (pool != null) {
+            return pollPooled();
+        }
+        while (true) {
+            Node<E> first = head;
+            Node<E> last = tail;
+            Node<E> following = first.next;
+            if (first != head) {
+                continue;
+            }
+            if (first == last) {
+                if (following == null) {
+                    return null;
+                }
+                TAIL.compareAndSet(this, last, following);
+            } else if (HEAD.compareAndSet(this, first, following)) {
+                // The node is the new dummy and only the winner of the CAS reads and clears its element
+                E item = following.item;
+                following.item = null;
+                return item;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        if (pool != null) {
+            return IndexPool.index((long) STAMPED_NEXT.getAcquire(next, IndexPool.index(stampedHead.get())))
+                    == IndexPool.NONE;
+        }
+        return head.next == null;
+    }
+
+    private boolean offerPooled(E item) {
+        int node = pool.allocate();
+        if (node == IndexPool.NONE) {
+            return false;
+        }
+        items[node] = item;
+        // Bump the stamp of the reused node's link, so a slow thread that saw this node in its previous life
+        // cannot link a new node behind it
+        long reset = (long) STAMPED_NEXT.getAcquire(next, node);
+        STAMPED_NEXT.setRelease(next, node, IndexPool.pack(IndexPool.NONE, IndexPool.stamp(reset) + 1));
+        while (true) {
+            long last = stampedTail.get();
+            int lastIndex = IndexPool.index(last);
+            long following = (long) STAMPED_NEXT.getAcquire(next, lastIndex);
+            if (last != stampedTail.get()) {
+                continue;
+            }
+            if (IndexPool.index(following) == IndexPool.NONE) {
+                if (STAMPED_NEXT.compareAndSet(next, lastIndex, following,
+                        IndexPool.pack(node, IndexPool.stamp(following) + 1))) {
+                    stampedTail.compareAndSet(last, IndexPool.pack(node, IndexPool.stamp(last) + 1));
+                    return true;
+                }
+            } else {
+                stampedTail.compareAndSet(last, IndexPool.pack(IndexPool.index(following), IndexPool.stamp(last) + 1));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E pollPooled() {
+        while (true) {
+            long first = stampedHead.get();
+            long last = stampedTail.get();
+            int firstIndex = IndexPool.index(first);
+            long following = (long) STAMPED_NEXT.getAcquire(next, firstIndex);
+            if (first != stampedHead.get()) {
+                continue;
+            }
+            int followingIndex = IndexPool.index(following);
+            if (firstIndex == IndexPool.index(last)) {
+                if (followingIndex == IndexPool.NONE) {
+                    return null;
+                }
+                stampedTail.compareAndSet(last, IndexPool.pack(followingIndex, IndexPool.stamp(last) + 1));
+            } else {
+                // Read before the CAS: once head has moved on, the node may be freed and reused by other threads.
+                // If that already happened, the head has changed and the CAS fails
+                E item = (E) items[followingIndex];
+                if (stampedHead.compareAndSet(first, IndexPool.pack(followingIndex, IndexPool.stamp(first) + 1))) {
+                    // The old dummy is ours now, its element was taken when it became the dummy
+                    items[firstIndex] = null;
+                    pool.free(firstIndex);
+                    return item;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stress test of the FIFO guarantee: producers offer increasing numbers tagged with their id while consumers poll.
+     * A linearizable FIFO queue never lets a consumer see two elements of the same producer out of order, and every
+     * element is polled exactly once, which shows as a sum check. The pooled queue runs with a small pool so that
+     * nodes are reused all the time.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        for (MichaelScottQueue<Long> queue : List.of(new MichaelScottQueue<Long>(), new MichaelScottQueue<Long>(64))) {
+            int producers = 2;
+            int consumers = 2;
+            int itemsPerProducer = 300_000;
+            AtomicLong consumed = new AtomicLong();
+            AtomicLong sum = new AtomicLong();
+            AtomicLong orderViolations = new AtomicLong();
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                long producerId = p;
+                threads.add(new Thread(() -> {
+                    for (long i = 0; i < itemsPerProducer; i++) {
+                        while (!queue.offer(producerId << 32 | i)) {
+                            Thread.yield();
+                        }
+                    }
+                }, "ProducerThread-" + p));
+            }
+            for (int c = 0; c < consumers; c++) {
+                threads.add(new Thread(() -> {
+                    long[] lastSeen = new long[producers];
+                    Arrays.fill(lastSeen, -1);
+                    while (consumed.get() < (long) producers * itemsPerProducer) {
+                        Long item = queue.poll();
+                        if (item == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        int producerId = (int) (item >>> 32);
+                        long sequence = item & 0xFFFF_FFFFL;
+                        if (sequence <= lastSeen[producerId]) {
+                            orderViolations.incrementAndGet();
+                        }
+                        lastSeen[producerId] = sequence;
+                        sum.addAndGet(sequence);
+                        consumed.incrementAndGet();
+                    }
+                }, "ConsumerThread-" + c));
+            }
+            long start = System.nanoTime();
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long expectedSum = (long) producers * itemsPerProducer * (itemsPerProducer - 1) / 2;
+            System.out.println((queue.pool != null ? "Pooled" : "Allocating") + " queue: " + consumed.get()
+                    + " elements polled, sum " + (sum.get() == expectedSum ? "correct" : "WRONG") + ", "
+                    + orderViolations.get() + " FIFO violations, empty afterwards: " + queue.isEmpty() + ", in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.projects.lockFree;
+
+/**
+ * A bounded ring of (object, long) pairs in two pre-allocated arrays, for handing work between threads as a
+ * reference to shared, long lived code and a primitive argument, e.g. a handler and the id it works on.
+ * Like LongBufferQueue it allocates nothing once it is constructed.
+ * <br>
+ * Unlike the queues, a consumer processes the pair in place, in three steps:
+ * 1. claim() waits for the next published position and returns it.
+ * 2. objectAt() and valueAt() read the pair of that position.
+ * 3. release() frees the slot once the consumer is done with it, and only then may the producer of the next lap
+ *    reuse it.
+ * Since a slot is released only when its consumer is done, isReleased() of a position returned by put() tells the
+ * producer that its pair has been processed, without any object per pair to signal it. The price is that a pair
+ * occupies its slot while it is processed, so the capacity has to cover the consumers as well as the backlog.
+ * <br>
+ * Slots are claimed as in RingBufferQueue, see SequencedRing.
+ */
+public class ObjectLongRing<T> extends SequencedRing {
+
+    private final Object[] objects;
+    private final long[] values;
+
+    public ObjectLongRing(int capacity) {
+        this(capacity, WaitStrategy.parking());
+    }
+
+    public ObjectLongRing(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.objects = new Object[this.capacity];
+        this.values = new long[this.capacity];
+    }
+
+    /**
+     * Adds the pair if there is space for it.
+     *
+     * @return its position, or -1 if the ring is full
+     */
+    public long offer(T object, long value) {
+        if (object == null) {
+            throw new NullPointerException();
+        }
+        long position = claimPut();
+        if (position >= 0) {
+            publish(position, object, value);
+        }
+        return position;
+    }
+
+    /**
+     * Adds the pair, using the wait strategy while the ring is full.
+     *
+     * @return its position
+     */
+    public long put(T object, long value) {
+        if (object == null) {
+            throw new NullPointerException();
+        }
+        long position = awaitClaimPut();
+        publish(position, object, value);
+        return position;
+    }
+
+    /**
+     * Waits for the next pair and returns its position, which the caller must release() when done with it.
+     */
+    public long claim() {
+        return awaitClaimPoll();
+    }
+
+    /**
+     * Returns the position of the next pair, or -1 if the ring is empty.
+     */
+    public long tryClaim() {
+        return claimPoll();
+    }
+
+    @SuppressWarnings("unchecked")
+    public T objectAt(long position) {
+        return (T) objects[(int) position & mask];
+    }
+
+    public long valueAt(long position) {
+        return values[(int) position & mask];
+    }
+
+    /**
+     * Frees the slot of a claimed position for the next lap, after which isReleased(position) returns true.
+     */
+    public void release(long position) {
+        // Do not keep the object reachable until the slot is reused
+        objects[(int) position & mask] = null;
+        releasePoll(position);
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * Returns true once the pair added at the position has been released by its consumer.
+     */
+    public boolean isDone(long position) {
+        return isReleased(position);
+    }
+
+    private void publish(long position, T object, long value) {
+        int index = (int) position & mask;
+        objects[index] = object;
+        values[index] = value;
+        publishPut(position);
+        waitStrategy.signalAll();
+    }
+}
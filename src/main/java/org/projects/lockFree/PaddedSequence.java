@@ -0,0 +1,90 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A long counter that sits on a cache line of its own, for positions and counters that are written by one thread and
+ * read by others, or updated by CAS from many threads.
+ * <br>
+ * A CPU core does not cache single variables but whole 64 byte cache lines, and a write invalidates the line in every
+ * other core's cache. Two hot counters that happen to be allocated next to each other, e.g. the head and the tail of
+ * a queue, therefore slow each other down although no thread ever touches both of them (false sharing).
+ * The value is put between 56 unused bytes on each side, so whatever the object is allocated next to, no other hot
+ * field shares its line. The padding lives in superclasses because the JVM lays out superclass fields before
+ * subclass fields, while it is free to reorder the fields declared in one class.
+ * <br>
+ * get() is an acquire load and set() a release store, which is all a single writer needs to publish the data written
+ * before it. The CAS and add methods are fully ordered, like the ones of AtomicLong.
+ */
+public class PaddedSequence extends PaddedSequenceRhsPadding {
+
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(PaddedSequenceValue.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public PaddedSequence() {
+        this(0);
+    }
+
+    public PaddedSequence(long initialValue) {
+        // Assigned directly, passing this to the VarHandle would let it escape before a subclass is initialized
+        value = initialValue;
+    }
+
+    public long get() {
+        return (long) VALUE.getAcquire(this);
+    }
+
+    /**
+     * Publishes the new value. A release store is enough when the sequence has a single writer.
+     */
+    public void set(long newValue) {
+        VALUE.setRelease(this, newValue);
+    }
+
+    public boolean compareAndSet(long expectedValue, long newValue) {
+        return VALUE.compareAndSet(this, expectedValue, newValue);
+    }
+
+    /**
+     * Like compareAndSet(), but returns the value found instead of a boolean, which saves a reload on failure.
+     */
+    public long compareAndExchange(long expectedValue, long newValue) {
+        return (long) VALUE.compareAndExchange(this, expectedValue, newValue);
+    }
+
+    public long getAndAdd(long delta) {
+        return (long) VALUE.getAndAdd(this, delta);
+    }
+
+    public long addAndGet(long delta) {
+        return (long) VALUE.getAndAdd(this, delta) + delta;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
+
+abstract class PaddedSequenceLhsPadding {
+    @SuppressWarnings("unused")
+    private long p1, p2, p3, p4, p5, p6, p7;
+}
+
+abstract class PaddedSequenceValue extends PaddedSequenceLhsPadding {
+    @SuppressWarnings("unused")
+    volatile long value;
+}
+
+abstract class PaddedSequenceRhsPadding extends PaddedSequenceValue {
+    @SuppressWarnings("unused")
+    private long p9, p10, p11, p12, p13, p14, p15;
+}
@@ -0,0 +1,202 @@
+package org.projects.lockFree;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A token bucket that limits how often something may happen, e.g. calls to a downstream service, where
+ * SemaphoreLockExample only limits how many happen at the same time.
+ * <br>
+ * A token bucket holds up to burst permits and gains permitsPerSecond of them per second. Stored naively that is two
+ * values, the tokens and the time of the last refill, which have to change together and so would need a lock.
+ * This class uses the equivalent Generic Cell Rate Algorithm instead, which folds both into one long: the theoretical
+ * arrival time (TAT), the nanoTime at which the bucket will be full again.
+ * 1. Every permit moves the TAT forward by the emission interval, 1s / permitsPerSecond.
+ * 2. The bucket holds (burst * interval - (TAT - now)) / interval tokens, so a TAT in the past means a full bucket and
+ *    is treated as now, which is the refill.
+ * 3. n permits are granted if moving the TAT by n intervals leaves it at most burst intervals ahead of now.
+ * Acquiring is a read, a few additions and one CAS, O(1) and without a lock. A failed CAS means another caller took
+ * permits at the same moment, and the retry starts from the value the CAS returned.
+ * <br>
+ * acquire() with a timeout reserves the permits by moving the TAT even if they are not available yet, and then waits
+ * until the time they would have been. The waiting time is known exactly, so the thread parks for it in one go and
+ * spins only for the last few microseconds, where parkNanos is too coarse. Reserving keeps the callers in order and
+ * makes no one retry. A caller that is interrupted while waiting gives its reservation back.
+ * <br>
+ * The single word is also the limit: with hundreds of callers on many cores every acquire is a CAS on the same cache
+ * line. StripedRateLimiter spreads the rate over several independent buckets for that case.
+ */
+public class RateLimiter {
+
+    // Spin instead of parking when the remaining wait is below this, parkNanos usually oversleeps by about 50us
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final long intervalNanos;
+    private final int burst;
+    private final long burstNanos;
+    // The theoretical arrival time, on a cache line of its own as every caller writes it
+    private final PaddedSequence theoreticalArrival;
+
+    /**
+     * Creates a limiter that allows one second's worth of permits as a burst.
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, (int) Math.max(1, Math.ceil(permitsPerSecond)));
+    }
+
+    /**
+     * @param permitsPerSecond the sustained rate
+     * @param burst            the number of permits that can be taken at once after being idle, the bucket size
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0) || permitsPerSecond > TimeUnit.SECONDS.toNanos(1)) {
+            throw new IllegalArgumentException("Rate must be between 0 and 1e9 permits per second: " + permitsPerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least one permit: " + burst);
+        }
+        this.intervalNanos = Math.round(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burst = burst;
+        this.burstNanos = burst * intervalNanos;
+        // Start with a full bucket
+        this.theoreticalArrival = new PaddedSequence(System.nanoTime());
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Takes n permits if they are available now, without waiting.
+     */
+    public boolean tryAcquire(int permits) {
+        long cost = cost(permits);
+        long arrival = theoreticalArrival.get();
+        while (true) {
+            long now = System.nanoTime();
+            long next = Math.max(arrival, now) + cost;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            long witness = theoreticalArrival.compareAndExchange(arrival, next);
+            if (witness == arrival) {
+                return true;
+            }
+            arrival = witness;
+        }
+    }
+
+    /**
+     * Takes n permits, waiting for them if necessary. Returns false at once, without taking anything, if they cannot
+     * be available within the timeout.
+     *
+     * @throws InterruptedException if interrupted while waiting, the permits are returned
+     */
+    public boolean acquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long cost = cost(permits);
+        long timeoutNanos = unit.toNanos(timeout);
+        long arrival = theoreticalArrival.get();
+        long readyAt;
+        while (true) {
+            long now = System.nanoTime();
+            long next = Math.max(arrival, now) + cost;
+            readyAt = next - burstNanos;
+            if (readyAt - now > timeoutNanos) {
+                return false;
+            }
+            long witness = theoreticalArrival.compareAndExchange(arrival, next);
+            if (witness == arrival) {
+                break;
+            }
+            arrival = witness;
+        }
+
+        long remaining;
+        while ((remaining = readyAt - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(this, remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+            if (Thread.interrupted()) {
+                // Give the permits back. Moving the TAT back can only leave it in the past, i.e. a full bucket
+                theoreticalArrival.getAndAdd(-cost);
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of permits that could be taken now, a moment's value under concurrent use.
+     */
+    public int availablePermits() {
+        long now = System.nanoTime();
+        long ahead = Math.max(theoreticalArrival.get(), now) - now;
+        return (int) ((burstNanos - ahead) / intervalNanos);
+    }
+
+    public double permitsPerSecond() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+
+    public int burst() {
+        return burst;
+    }
+
+    private long cost(int permits) {
+        if (permits < 1 || permits > burst) {
+            throw new IllegalArgumentException("Permits must be between 1 and the burst of " + burst + ": " + permits);
+        }
+        return permits * intervalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter[" + permitsPerSecond() + "/s, burst " + burst + ", available " + availablePermits() + "]";
+    }
+
+    /**
+     * Lets 8 threads call tryAcquire() in a loop for a second and compares the number granted with the rate,
+     * then shows acquire() pacing a single caller.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int rate = 10_000;
+        RateLimiter limiter = new RateLimiter(rate, 100);
+        AtomicLong granted = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    if (limiter.tryAcquire()) {
+                        granted.incrementAndGet();
+                    } else {
+                        rejected.incrementAndGet();
+                        Thread.yield();
+                    }
+                }
+            }, "CallerThread-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.println("tryAcquire: granted " + granted + " (rate " + rate + "/s + burst 100), rejected "
+                + rejected);
+
+        RateLimiter paced = new RateLimiter(1000, 1);
+        int calls = 500;
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            paced.acquire(1, 1, TimeUnit.SECONDS);
+        }
+        System.out.printf("acquire: %d permits at 1000/s took %.1f ms, expected %.1f ms%n", calls,
+                (System.nanoTime() - start) / 1e6, (calls - 1) * 1.0);
+    }
+}
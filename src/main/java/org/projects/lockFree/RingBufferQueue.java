@@ -0,0 +1,264 @@
+package org.projects.lockFree;
+
+import org.projects.locks.BlockingBuffer;
+import org.projects.locks.BufferQueue;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * A bounded multi-producer multi-consumer queue backed by a pre-allocated array, without any locks.
+ * It implements the same put/poll contract as BufferQueue, so it can be used in its place.
+ * <br>
+ * Every slot of the array has its own sequence number. For a slot at index i the sequence tells whose turn it is:
+ * 1. sequence == position means the slot is free and the producer that claims that position may write to it.
+ * 2. sequence == position + 1 means the slot holds an element and the consumer that claims that position may read it.
+ * After reading, the consumer sets the sequence to position + capacity, which is the position the next producer
+ * will claim for the same slot on the next lap around the ring.
+ * <br>
+ * Producers claim positions by CAS on the tail counter and consumers by CAS on the head counter, so producers only
+ * contend with producers and consumers with consumers. The element is published with a release store of the slot
+ * sequence and read after an acquire load of it, which is enough to make the element visible without volatile
+ * element accesses. Full and empty checks read a single slot sequence and never count the elements.
+ * The claiming logic lives in SequencedRing and is shared with the primitive queues such as LongBufferQueue.
+ * <br>
+ * The capacity is rounded up to a power of two so the slot index is a mask of the position instead of a modulo,
+ * with at least two slots and at most 2^30.
+ * offer() and tryPoll() never block, but like every successful operation they signal the wait strategy, so a thread
+ * blocked in put() or poll() is woken by them too. put() and poll() use the WaitStrategy the queue was built with
+ * while the queue is full or empty. The default strategy spins first, then yields the CPU.
+ * offerUntil() and pollUntil() wait the same way but give up at the deadline.
+ * The batch operations claim positions one by one but signal the wait strategy once per batch.
+ */
+public class RingBufferQueue<E> extends SequencedRing implements BlockingBuffer<E> {
+
+    private final Object[] elements;
+
+    public RingBufferQueue(int capacity) {
+        this(capacity, WaitStrategy.yielding());
+    }
+
+    public RingBufferQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.elements = new Object[this.capacity];
+    }
+
+    /**
+     * Adds the element if there is space for it, returning false instead of waiting when the queue is full.
+     */
+    public boolean offer(E data) {
+        if (!add(data)) {
+            return false;
+        }
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    /**
+     * Removes and returns the oldest element, or returns null instead of waiting when the queue is empty.
+     */
+    public E tryPoll() {
+        long position = claimPoll();
+        if (position < 0) {
+            return null;
+        }
+        E data = take(position);
+        waitStrategy.signalAll();
+        return data;
+    }
+
+    @Override
+    public void put(E data) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        long position = awaitClaimPut();
+        elements[(int) position & mask] = data;
+        publishPut(position);
+        waitStrategy.signalAll();
+    }
+
+    @Override
+    public E poll() {
+        E data = take(awaitClaimPoll());
+        waitStrategy.signalAll();
+        return data;
+    }
+
+    @Override
+    public boolean offerUntil(E data, long deadlineNanos) throws InterruptedException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        long position = awaitClaimPut(deadlineNanos);
+        if (position < 0) {
+            return false;
+        }
+        elements[(int) position & mask] = data;
+        publishPut(position);
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    @Override
+    public E pollUntil(long deadlineNanos) throws InterruptedException {
+        long position = awaitClaimPoll(deadlineNanos);
+        if (position < 0) {
+            return null;
+        }
+        E data = take(position);
+        waitStrategy.signalAll();
+        return data;
+    }
+
+    @Override
+    public void putAll(Collection<? extends E> items) {
+        for (E data : items) {
+            while (!add(data)) {
+                // Wake the consumers for what was added so far before waiting for them to make space
+                waitStrategy.signalAll();
+                waitStrategy.await(canOffer);
+            }
+        }
+        waitStrategy.signalAll();
+    }
+
+    @Override
+    public int offerBatch(E[] items, int from, int length) {
+        int count = 0;
+        while (count < length && add(items[from + count])) {
+            count++;
+        }
+        if (count > 0) {
+            waitStrategy.signalAll();
+        }
+        return count;
+    }
+
+    @Override
+    public int drainTo(Consumer<? super E> consumer, int maxElements) {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        consumer.accept(take(awaitClaimPoll()));
+        int count = 1;
+        long position;
+        while (count < maxElements && (position = claimPoll()) >= 0) {
+            consumer.accept(take(position));
+            count++;
+        }
+        waitStrategy.signalAll();
+        return count;
+    }
+
+    @Override
+    public int drainTo(E[] target, int maxElements) {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        target[0] = take(awaitClaimPoll());
+        int count = 1;
+        long position;
+        while (count < maxElements && (position = claimPoll()) >= 0) {
+            target[count++] = take(position);
+        }
+        waitStrategy.signalAll();
+        return count;
+    }
+
+    /**
+     * Adds the element if there is space for it, without waking waiting consumers.
+     */
+    private boolean add(E data) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        long position = claimPut();
+        if (position < 0) {
+            return false;
+        }
+        elements[(int) position & mask] = data;
+        publishPut(position);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E take(long position) {
+        int index = (int) position & mask;
+        E data = (E) elements[index];
+        elements[index] = null;
+        releasePoll(position);
+        return data;
+    }
+
+    /**
+     * Measures the number of elements moved per second through the given buffer by the given number of
+     * producers and consumers.
+     */
+    static long throughput(BlockingBuffer<Integer> buffer, int producers, int consumers, int itemsPerProducer)
+            throws InterruptedException {
+        int totalItems = producers * itemsPerProducer;
+        Thread[] threads = new Thread[producers + consumers];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < itemsPerProducer; i++) {
+                    buffer.put(i);
+                }
+            }, "ProducerThread-" + p);
+        }
+        for (int c = 0; c < consumers; c++) {
+            // Spread the items over the consumers, the first consumers take the remainder
+            int share = totalItems / consumers + (c < totalItems % consumers ? 1 : 0);
+            threads[producers + c] = new Thread(() -> {
+                for (int i = 0; i < share; i++) {
+                    buffer.poll();
+                }
+            }, "ConsumerThread-" + c);
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        return totalItems * 1_000_000_000L / Math.max(1, elapsed);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        /* Same producer-consumer scenario as BufferQueue, capacity 3 is rounded up to 4 */
+        RingBufferQueue<String> ringBufferQueue = new RingBufferQueue<>(3);
+
+        Thread producer = new Thread(() -> {
+            for(int i = 1; i<=6; i++) {
+                ringBufferQueue.put("Item" + i);
+            }
+        }, "ProducerThread");
+
+        Thread consumer = new Thread(() -> {
+            for(int i = 1; i<=6; i++) {
+                String data = ringBufferQueue.poll();
+                System.out.println("Data consumed: " + data + " by thread: " + Thread.currentThread().getName());
+            }
+        }, "ConsumerThread");
+
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+
+        /* Throughput of the lock-free ring as the number of producers and consumers grows */
+        for (int threads = 1; threads <= 4; threads *= 2) {
+            long perSecond = throughput(new RingBufferQueue<>(1024), threads, threads, 1_000_000);
+            System.out.println(threads + " producer(s) / " + threads + " consumer(s): " + perSecond + " items/s");
+        }
+
+        /* BufferQueue implements the same contract and can be selected instead, e.g. new BufferQueue(1024) */
+        BlockingBuffer<String> selected = args.length > 0 && args[0].equals("monitor")
+                ? new BufferQueue(1024) : new RingBufferQueue<>(1024);
+        selected.put("Item");
+        System.out.println("Selected " + selected.getClass().getSimpleName() + ", polled: " + selected.poll());
+    }
+}
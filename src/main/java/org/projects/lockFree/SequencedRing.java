@@ -0,0 +1,186 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The slot claiming logic shared by the lock-free bounded ring queues. It only hands out positions,
+ * the subclasses decide what a slot holds (an object reference, a primitive or a fixed block of bytes)
+ * and keep it in their own pre-allocated arrays indexed by position & mask.
+ * <br>
+ * Every slot has a sequence number: sequence == position means the slot is free for the producer of that position,
+ * sequence == position + 1 means it holds data for the consumer of that position. A producer claims a position with
+ * claimPut(), writes the slot and calls publishPut(). A consumer claims with claimPoll(), reads the slot and calls
+ * releasePoll() to hand the slot to the producer of the next lap. The release store of the sequence in publishPut()
+ * and releasePoll() orders the plain slot writes before it, so the slot arrays need no volatile accesses.
+ */
+abstract class SequencedRing {
+
+    private static final VarHandle SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+    // The largest power of two an int holds, rounding a larger capacity up would overflow
+    static final int MAX_CAPACITY = 1 << 30;
+
+    final int capacity;
+    final int mask;
+    final WaitStrategy waitStrategy;
+    private final long[] sequences;
+    // Padded so that producers updating the tail and consumers updating the head do not share a cache line
+    private final PaddedSequence tail = new PaddedSequence();
+    private final PaddedSequence head = new PaddedSequence();
+    final BooleanSupplier canOffer = this::canOffer;
+    final BooleanSupplier canPoll = this::canPoll;
+
+    SequencedRing(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY + ": " + capacity);
+        }
+        // With a single slot, the sequence of a published slot would equal the position the next producer claims,
+        // so the ring needs at least two slots to tell full from free
+        this.capacity = Math.max(2, 1 << (32 - Integer.numberOfLeadingZeros(capacity - 1)));
+        this.mask = this.capacity - 1;
+        this.waitStrategy = waitStrategy;
+        this.sequences = new long[this.capacity];
+        for (int i = 0; i < this.capacity; i++) {
+            sequences[i] = i;
+        }
+    }
+
+    /**
+     * Claims the next position for writing, or returns -1 if the ring is full.
+     */
+    final long claimPut() {
+        long position = tail.get();
+        while (true) {
+            long sequence = (long) SEQUENCE.getAcquire(sequences, (int) position & mask);
+            long difference = sequence - position;
+            if (difference == 0) {
+                long witness = tail.compareAndExchange(position, position + 1);
+                if (witness == position) {
+                    return position;
+                }
+                position = witness;
+            } else if (difference < 0) {
+                // The consumer of the previous lap has not released this slot yet, so the ring is full
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    final void publishPut(long position) {
+        SEQUENCE.setRelease(sequences, (int) position & mask, position + 1);
+    }
+
+    /**
+     * Claims the next position for reading, or returns -1 if the ring is empty.
+     */
+    final long claimPoll() {
+        long position = head.get();
+        while (true) {
+            long sequence = (long) SEQUENCE.getAcquire(sequences, (int) position & mask);
+            long difference = sequence - (position + 1);
+            if (difference == 0) {
+                long witness = head.compareAndExchange(position, position + 1);
+                if (witness == position) {
+                    return position;
+                }
+                position = witness;
+            } else if (difference < 0) {
+                // The producer of this position has not published yet, so the ring is empty
+                return -1;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    final void releasePoll(long position) {
+        SEQUENCE.setRelease(sequences, (int) position & mask, position + capacity);
+    }
+
+    /**
+     * Returns true once the consumer of the position has released its slot. It stays true on later laps, since the
+     * sequence of a slot only grows.
+     */
+    final boolean isReleased(long position) {
+        return (long) SEQUENCE.getAcquire(sequences, (int) position & mask) - (position + capacity) >= 0;
+    }
+
+    /**
+     * Claims the next position for writing, using the wait strategy while the ring is full.
+     */
+    final long awaitClaimPut() {
+        long position;
+        while ((position = claimPut()) < 0) {
+            waitStrategy.await(canOffer);
+        }
+        return position;
+    }
+
+    /**
+     * Claims the next position for reading, using the wait strategy while the ring is empty.
+     */
+    final long awaitClaimPoll() {
+        long position;
+        while ((position = claimPoll()) < 0) {
+            waitStrategy.await(canPoll);
+        }
+        return position;
+    }
+
+    /**
+     * Claims the next position for writing, or returns -1 if the ring is still full at the deadline.
+     * Like Lock.lockInterruptibly(), it throws if the thread was interrupted before the call, even if a slot is free.
+     */
+    final long awaitClaimPut(long deadlineNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long position;
+        while ((position = claimPut()) < 0) {
+            if (!waitStrategy.await(canOffer, deadlineNanos)) {
+                return claimPut();
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Claims the next position for reading, or returns -1 if the ring is still empty at the deadline.
+     */
+    final long awaitClaimPoll(long deadlineNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long position;
+        while ((position = claimPoll()) < 0) {
+            if (!waitStrategy.await(canPoll, deadlineNanos)) {
+                return claimPoll();
+            }
+        }
+        return position;
+    }
+
+    private boolean canOffer() {
+        long position = tail.get();
+        return (long) SEQUENCE.getAcquire(sequences, (int) position & mask) == position;
+    }
+
+    private boolean canPoll() {
+        long position = head.get();
+        return (long) SEQUENCE.getAcquire(sequences, (int) position & mask) == position + 1;
+    }
+
+    public int size() {
+        // Read head first so that the difference can never be negative
+        long currentHead = head.get();
+        long currentTail = tail.get();
+        return (int) Math.max(0, Math.min(capacity, currentTail - currentHead));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,573 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An unbounded priority queue built on a lock-free skip list, for work ordered by deadline or priority where the
+ * single lock of PriorityBlockingQueue is contended by many producers and consumers.
+ * <br>
+ * The skip list is the lock-free one of Herlihy and Shavit. The nodes are sorted on level 0, and every node is also
+ * linked into a random number of higher levels, each holding about half the nodes of the level below, so a search
+ * skips ahead on the upper levels and needs O(log n) steps. Every link is an AtomicMarkableReference:
+ * 1. offer() searches the predecessors and successors of the new node on every level and links it in with one CAS per
+ *    level, bottom up. Level 0 decides, the upper levels are shortcuts. Nodes are ordered by element and then by an
+ *    insertion sequence number, like the tasks of ScheduledThreadPoolExecutor, so no two nodes are equal and elements
+ *    of the same priority come out in FIFO order.
+ * 2. A node is deleted by marking its links, which makes every CAS on them fail, top down, and then unlinking it.
+ *    Unlinking is done by every search that passes a marked node, so no thread waits for another to finish.
+ * <br>
+ * Polling is the algorithm of Lotan and Shavit: a node also has a taken flag, and poll() walks level 0 from the head
+ * and claims the first node it can set the flag on with a CAS, which makes the element its own, before deleting it.
+ * Every consumer still tries the same first node, so with many consumers that CAS is the hot spot. Created with a
+ * spray width, poll() instead takes a random jump along the upper levels, the spray of Alistarh et al., and lands on
+ * one of about the first 2 * sprayWidth nodes. Consumers then mostly claim different nodes, at the price that an
+ * element is not always the smallest one, only one of the smallest. With a spray width about the number of consumers
+ * that is harmless for scheduling, and poll() falls back to the exact walk if the spray finds nothing.
+ * <br>
+ * The queue implements BlockingQueue, so it can be the work queue of a ThreadPoolExecutor. Queue operations do not
+ * lock, only a consumer that finds the queue empty in take() or poll(timeout) waits on a condition, and offer() takes
+ * the lock to signal it only when a consumer is waiting. Note that ThreadPoolExecutor.submit() wraps tasks in a
+ * FutureTask, which is not Comparable, so tasks have to be passed to execute(), or to a comparator that knows them.
+ * <br>
+ * size() is a StripedCounter, exact only when the queue is quiet. The iterator is weakly consistent, like the ones of
+ * java.util.concurrent.
+ */
+public class SkipListPriorityQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private static final int MAX_LEVEL = 24;
+    private static final VarHandle TAKEN;
+
+    static {
+        try {
+            TAKEN = MethodHandles.lookup().findVarHandle(Node.class, "taken", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Node<E> {
+        final E element;
+        final long sequence;
+        final AtomicMarkableReference<Node<E>>[] next;
+        @SuppressWarnings("unused")
+        volatile boolean taken;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node(E element, long sequence, int topLevel) {
+            this.element = element;
+            this.sequence = sequence;
+            this.next = new AtomicMarkableReference[topLevel + 1];
+        }
+
+        int topLevel() {
+            return next.length - 1;
+        }
+
+        boolean claim() {
+            return !taken && TAKEN.compareAndSet(this, false, true);
+        }
+    }
+
+    private final Comparator<? super E> comparator;
+    private final int sprayHeight;
+    private final Node<E> head = new Node<>(null, Long.MIN_VALUE, MAX_LEVEL - 1);
+    private final Node<E> tail = new Node<>(null, Long.MAX_VALUE, MAX_LEVEL - 1);
+    private final AtomicLong sequencer = new AtomicLong();
+    private final StripedCounter size = new StripedCounter();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile int waitingConsumers;
+
+    /**
+     * Creates an exact queue with the natural ordering of the elements.
+     */
+    public SkipListPriorityQueue() {
+        this(null, 1);
+    }
+
+    /**
+     * Creates an exact queue ordered by the comparator.
+     */
+    public SkipListPriorityQueue(Comparator<? super E> comparator) {
+        this(comparator, 1);
+    }
+
+    /**
+     * @param comparator the ordering, or null for the natural ordering
+     * @param sprayWidth about the number of consumers, poll() spreads them over the first 2 * sprayWidth elements.
+     *                   1 makes poll() exact.
+     */
+    @SuppressWarnings("unchecked")
+    public SkipListPriorityQueue(Comparator<? super E> comparator, int sprayWidth) {
+        if (sprayWidth < 1) {
+            throw new IllegalArgumentException("Spray width must be at least 1: " + sprayWidth);
+        }
+        this.comparator = comparator != null ? comparator : (Comparator<? super E>) Comparator.naturalOrder();
+        this.sprayHeight = 32 - Integer.numberOfLeadingZeros(sprayWidth - 1);
+        for (int level = 0; level < MAX_LEVEL; level++) {
+            head.next[level] = new AtomicMarkableReference<>(tail, false);
+            tail.next[level] = new AtomicMarkableReference<>(null, false);
+        }
+    }
+
+    @Override
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        int topLevel = randomLevel();
+        Node<E> node = new Node<>(element, sequencer.getAndIncrement(), topLevel);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<E>[] preds = new Node[topLevel + 1];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<E>[] succs = new Node[topLevel + 1];
+        while (true) {
+            find(node, preds, succs);
+            for (int level = 0; level <= topLevel; level++) {
+                node.next[level] = new AtomicMarkableReference<>(succs[level], false);
+            }
+            if (preds[0].next[0].compareAndSet(succs[0], node, false, false)) {
+                break;
+            }
+        }
+        // The element is in the queue, the upper levels only speed up searches
+        for (int level = 1; level <= topLevel; level++) {
+            AtomicMarkableReference<Node<E>> link = node.next[level];
+            while (!link.isMarked() && !preds[level].next[level].compareAndSet(succs[level], node, false, false)) {
+                find(node, preds, succs);
+                Node<E> expected = link.getReference();
+                if (!link.compareAndSet(expected, succs[level], false, false)) {
+                    // Marked, the node is being deleted already and linking it higher up would only create work
+                    break;
+                }
+            }
+        }
+        size.increment();
+        signalConsumer();
+        return true;
+    }
+
+    @Override
+    public void put(E element) {
+        offer(element);
+    }
+
+    /**
+     * Never waits, the queue is unbounded.
+     */
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) {
+        return offer(element);
+    }
+
+    @Override
+    public E poll() {
+        return pollMin();
+    }
+
+    /**
+     * Removes a smallest element, or one of the smallest if the queue was created with a spray width.
+     */
+    public E pollMin() {
+        if (sprayHeight > 0) {
+            Node<E> node = spray();
+            if (node != null) {
+                return removeClaimed(node);
+            }
+        }
+        return pollExact();
+    }
+
+    /**
+     * Removes the smallest element, whatever the spray width.
+     */
+    public E pollExact() {
+        for (Node<E> node = head.next[0].getReference(); node != tail; node = node.next[0].getReference()) {
+            if (node.claim()) {
+                return removeClaimed(node);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public E peek() {
+        for (Node<E> node = head.next[0].getReference(); node != tail; node = node.next[0].getReference()) {
+            if (!node.taken) {
+                return node.element;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E element = poll();
+        if (element != null) {
+            return element;
+        }
+        lock.lockInterruptibly();
+        try {
+            waitingConsumers++;
+            try {
+                // Registered as waiting before this poll, so an offer() after it will signal
+                while ((element = poll()) == null) {
+                    notEmpty.await();
+                }
+            } finally {
+                waitingConsumers--;
+            }
+            passSignalOn();
+            return element;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E element = poll();
+        if (element != null) {
+            return element;
+        }
+        long remaining = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            waitingConsumers++;
+            try {
+                while ((element = poll()) == null) {
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    remaining = notEmpty.awaitNanos(remaining);
+                }
+            } finally {
+                waitingConsumers--;
+            }
+            passSignalOn();
+            return element;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        for (Node<E> node = head.next[0].getReference(); node != tail; node = node.next[0].getReference()) {
+            if (!node.taken && node.element.equals(o) && node.claim()) {
+                removeClaimed(node);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        E element;
+        while (drained < maxElements && (element = pollExact()) != null) {
+            c.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, size.sum()));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    /**
+     * Returns the elements in priority order, skipping the ones that are taken while iterating.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<>() {
+            private Node<E> next = advance(head);
+            private Node<E> last;
+
+            private Node<E> advance(Node<E> from) {
+                Node<E> node = from.next[0].getReference();
+                while (node != tail && node.taken) {
+                    node = node.next[0].getReference();
+                }
+                return node;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != tail;
+            }
+
+            @Override
+            public E next() {
+                if (next == tail) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = advance(next);
+                return last.element;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                if (last.claim()) {
+                    removeClaimed(last);
+                }
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * Walks down from sprayHeight taking 0 or 1 steps per level at random, which lands on one of about the first
+     * 2^(sprayHeight + 1) nodes, then claims the first node from there that is not taken yet.
+     * Returns null if there was none up to the tail, elements before the landing point may still exist.
+     */
+    private Node<E> spray() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Node<E> node = head;
+        for (int level = sprayHeight; level >= 0; level--) {
+            if (random.nextBoolean()) {
+                Node<E> next = node.next[level].getReference();
+                if (next != tail) {
+                    node = next;
+                }
+            }
+        }
+        if (node == head) {
+            node = head.next[0].getReference();
+        }
+        for (; node != tail; node = node.next[0].getReference()) {
+            if (node.claim()) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes a node this thread has claimed and returns its element.
+     */
+    private E removeClaimed(Node<E> node) {
+        size.decrement();
+        for (int level = node.topLevel(); level >= 0; level--) {
+            AtomicMarkableReference<Node<E>> link = node.next[level];
+            Node<E> succ = link.getReference();
+            while (!link.attemptMark(succ, true)) {
+                if (link.isMarked()) {
+                    break;
+                }
+                succ = link.getReference();
+            }
+        }
+        // Unlink the node from every level it is on
+        find(node, null, null);
+        return node.element;
+    }
+
+    /**
+     * Finds, on every level, the last node that is ordered before the given one and its successor, unlinking the
+     * marked nodes it passes. The arrays may be null or shorter than the number of levels, they are filled for the
+     * levels they have.
+     */
+    private void find(Node<E> node, Node<E>[] preds, Node<E>[] succs) {
+        boolean[] marked = new boolean[1];
+        retry:
+        while (true) {
+            Node<E> pred = head;
+            for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+                Node<E> curr = pred.next[level].getReference();
+                while (true) {
+                    Node<E> succ = curr.next[level].get(marked);
+                    while (marked[0]) {
+                        if (!pred.next[level].compareAndSet(curr, succ, false, false)) {
+                            continue retry;
+                        }
+                        curr = succ;
+                        succ = curr.next[level].get(marked);
+                    }
+                    if (curr != tail && isBefore(curr, node)) {
+                        pred = curr;
+                        curr = succ;
+                    } else {
+                        break;
+                    }
+                }
+                if (preds != null && level < preds.length) {
+                    preds[level] = pred;
+                    succs[level] = curr;
+                }
+            }
+            return;
+        }
+    }
+
+    private boolean isBefore(Node<E> a, Node<E> b) {
+        int order = comparator.compare(a.element, b.element);
+        return order < 0 || order == 0 && a.sequence < b.sequence;
+    }
+
+    private void signalConsumer() {
+        if (waitingConsumers > 0) {
+            lock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Called with the lock held by a consumer leaving take() or poll(timeout). If it consumed a signal it did not use,
+     * or more elements arrived, another waiting consumer gets the chance.
+     */
+    private void passSignalOn() {
+        if (waitingConsumers > 0 && peek() != null) {
+            notEmpty.signal();
+        }
+    }
+
+    private static int randomLevel() {
+        // Level l with probability 2^-(l+1), capped at the top level
+        return Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt() | 1 << (MAX_LEVEL - 1));
+    }
+
+    /**
+     * A task ordered by its deadline, which ThreadPoolExecutor.execute() passes to the queue as it is.
+     */
+    record DeadlineTask(String name, long deadlineNanos, CountDownLatch done) implements Runnable,
+            Comparable<DeadlineTask> {
+        @Override
+        public void run() {
+            System.out.printf("%s ran by %s, deadline in %d ms%n", name, Thread.currentThread().getName(),
+                    TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+            done.countDown();
+        }
+
+        @Override
+        public int compareTo(DeadlineTask other) {
+            return Long.compare(deadlineNanos, other.deadlineNanos);
+        }
+    }
+
+    /**
+     * 1. Checks with 4 producers and 4 consumers that every element comes out exactly once, with an exact and a
+     *    sprayed queue, and that a single consumer gets the elements in order.
+     * 2. Uses the queue as the work queue of a ThreadPoolExecutor with one thread: the tasks queued while it is busy
+     *    run by deadline, not in the order they were submitted.
+     */
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws InterruptedException {
+        for (int sprayWidth : new int[] {1, 4}) {
+            SkipListPriorityQueue<Long> queue = new SkipListPriorityQueue<>(null, sprayWidth);
+            int perProducer = 50_000;
+            int producers = 4;
+            boolean[] seen = new boolean[producers * perProducer];
+            BlockingQueue<Long> consumed = new ArrayBlockingQueue<>(seen.length);
+            Thread[] threads = new Thread[2 * producers];
+            for (int p = 0; p < producers; p++) {
+                int id = p;
+                threads[p] = new Thread(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.offer((long) id * perProducer + i);
+                    }
+                }, "Producer-" + p);
+                threads[producers + p] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < perProducer; i++) {
+                            consumed.add(queue.take());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "Consumer-" + p);
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            int duplicates = 0;
+            for (long value : consumed) {
+                if (seen[(int) value]) {
+                    duplicates++;
+                }
+                seen[(int) value] = true;
+            }
+            System.out.printf("Spray width %d: consumed %d of %d, %d duplicates, %d left%n", sprayWidth,
+                    consumed.size(), seen.length, duplicates, queue.size());
+        }
+
+        SkipListPriorityQueue<Integer> ordered = new SkipListPriorityQueue<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 10_000; i++) {
+            ordered.offer(random.nextInt(1000));
+        }
+        int previous = Integer.MIN_VALUE;
+        boolean inOrder = true;
+        for (Integer value; (value = ordered.poll()) != null; previous = value) {
+            inOrder &= value >= previous;
+        }
+        System.out.println("Single consumer in order: " + inOrder);
+
+        CountDownLatch done = new CountDownLatch(5);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                (BlockingQueue<Runnable>) (BlockingQueue<?>) new SkipListPriorityQueue<DeadlineTask>());
+        long now = System.nanoTime();
+        executor.execute(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        int[] deadlinesMillis = {900, 300, 700, 200, 500};
+        for (int i = 0; i < deadlinesMillis.length; i++) {
+            executor.execute(new DeadlineTask("Task-" + i, now + TimeUnit.MILLISECONDS.toNanos(deadlinesMillis[i]),
+                    done));
+        }
+        done.await();
+        executor.shutdown();
+    }
+}
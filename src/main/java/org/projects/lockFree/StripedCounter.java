@@ -0,0 +1,267 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A counter for values that many threads add to and that are read rarely, built like java.util.concurrent.atomic.LongAdder.
+ * <br>
+ * In CompareAndSwapExample every increment of the AtomicInteger is a CAS on the same cache line. With many cores the
+ * line moves from core to core on every increment, and CAS attempts fail and retry, so an increment gets slower the
+ * more threads there are. Here the count is spread over several cells instead:
+ * 1. As long as there is no contention, add() does a single CAS on the base value, like an AtomicLong.
+ * 2. The first time that CAS fails, a table of cells is created. Every thread has a probe, a per-thread hash that
+ *    picks its cell, so threads mostly add to different cells and the CASes no longer collide.
+ * 3. When the CAS on a cell fails, another thread uses the same cell. The thread then moves its probe to another cell,
+ *    and if collisions keep happening the table is doubled, up to the number of cores rounded up to a power of two.
+ * Every cell is a PaddedSequence, so the cells sit on cache lines of their own and threads adding to neighbouring
+ * cells do not invalidate each other's lines.
+ * <br>
+ * sum() adds up the base and all cells without locking. It is cheap compared to the increments it saves, but it is
+ * not a snapshot: adds that happen while it runs may or may not be included. This is fine for statistics such as
+ * request counts, but the counter cannot be used for decisions that need an exact value, e.g. to hand out ids.
+ */
+public class StripedCounter {
+
+    private static final int MAX_CELLS = 1 << (32 - Integer.numberOfLeadingZeros(
+            Math.max(1, Runtime.getRuntime().availableProcessors()) - 1));
+    private static final VarHandle CELLS_BUSY;
+    private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(() -> {
+        // Any non-zero seed works for the xorshift in advanceProbe(), spread the thread ids so neighbours differ
+        int seed = (int) (Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L >>> 32);
+        return new int[] {seed == 0 ? 1 : seed};
+    });
+
+    static {
+        try {
+            CELLS_BUSY = MethodHandles.lookup().findVarHandle(StripedCounter.class, "cellsBusy", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final PaddedSequence base = new PaddedSequence();
+    private volatile PaddedSequence[] cells;
+    // A spin lock held while the cell table is created, extended or resized
+    @SuppressWarnings("unused")
+    private volatile int cellsBusy;
+
+    public void increment() {
+        add(1);
+    }
+
+    public void decrement() {
+        add(-1);
+    }
+
+    public void add(long delta) {
+        PaddedSequence[] table = cells;
+        if (table == null) {
+            long current = base.get();
+            if (base.compareAndExchange(current, current + delta) == current) {
+                return;
+            }
+        } else {
+            PaddedSequence cell = table[probe() & (table.length - 1)];
+            if (cell != null) {
+                long current = cell.get();
+                if (cell.compareAndExchange(current, current + delta) == current) {
+                    return;
+                }
+            }
+        }
+        addContended(delta);
+    }
+
+    /**
+     * Returns the current total. Concurrent adds may or may not be included.
+     */
+    public long sum() {
+        long sum = base.get();
+        PaddedSequence[] table = cells;
+        if (table != null) {
+            for (PaddedSequence cell : table) {
+                if (cell != null) {
+                    sum += cell.get();
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Sets the counter back to zero. Only exact if no thread adds at the same time.
+     */
+    public void reset() {
+        base.set(0);
+        PaddedSequence[] table = cells;
+        if (table != null) {
+            for (PaddedSequence cell : table) {
+                if (cell != null) {
+                    cell.set(0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cells currently used, zero while the counter has not seen any contention.
+     */
+    public int cellCount() {
+        PaddedSequence[] table = cells;
+        return table == null ? 0 : table.length;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    /**
+     * The slow path of add(), taken after a failed CAS or when the thread's cell does not exist yet.
+     */
+    private void addContended(long delta) {
+        int[] probe = PROBE.get();
+        boolean collided = false;
+        while (true) {
+            PaddedSequence[] table = cells;
+            if (table == null) {
+                // First contention on the base value: create a table of two cells and add to one of them
+                if (tryLock()) {
+                    try {
+                        if (cells == null) {
+                            PaddedSequence[] created = new PaddedSequence[2];
+                            created[probe[0] & 1] = new PaddedSequence(delta);
+                            cells = created;
+                            return;
+                        }
+                    } finally {
+                        unlock();
+                    }
+                } else {
+                    // Another thread is creating the table, fall back on the base value meanwhile
+                    long current = base.get();
+                    if (base.compareAndExchange(current, current + delta) == current) {
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            int index = probe[0] & (table.length - 1);
+            PaddedSequence cell = table[index];
+            if (cell == null) {
+                // The first thread to hash to this index creates the cell with its delta already in it
+                if (tryLock()) {
+                    try {
+                        if (cells == table && table[index] == null) {
+                            table[index] = new PaddedSequence(delta);
+                            return;
+                        }
+                    } finally {
+                        unlock();
+                    }
+                }
+                collided = false;
+            } else {
+                long current = cell.get();
+                if (cell.compareAndExchange(current, current + delta) == current) {
+                    return;
+                }
+                if (table.length >= MAX_CELLS || cells != table) {
+                    // The table cannot grow any further or was just resized, moving the probe is all that helps
+                    collided = false;
+                } else if (!collided) {
+                    // Give moving the probe one chance before growing the table
+                    collided = true;
+                } else if (tryLock()) {
+                    try {
+                        if (cells == table) {
+                            PaddedSequence[] grown = new PaddedSequence[table.length << 1];
+                            System.arraycopy(table, 0, grown, 0, table.length);
+                            cells = grown;
+                        }
+                    } finally {
+                        unlock();
+                    }
+                    collided = false;
+                    continue;
+                }
+            }
+            probe[0] = advanceProbe(probe[0]);
+        }
+    }
+
+    private boolean tryLock() {
+        return cellsBusy == 0 && CELLS_BUSY.compareAndSet(this, 0, 1);
+    }
+
+    private void unlock() {
+        cellsBusy = 0;
+    }
+
+    /**
+     * Returns the calling thread's probe, also used by StripedRateLimiter to pick a stripe.
+     */
+    static int probe() {
+        return PROBE.get()[0];
+    }
+
+    /**
+     * Moves the calling thread's probe on and returns the new value.
+     */
+    static int nextProbe() {
+        int[] probe = PROBE.get();
+        return probe[0] = advanceProbe(probe[0]);
+    }
+
+    /**
+     * Marsaglia's xorshift, which moves the thread to a pseudo random other cell.
+     */
+    private static int advanceProbe(int probe) {
+        probe ^= probe << 13;
+        probe ^= probe >>> 17;
+        probe ^= probe << 5;
+        return probe;
+    }
+
+    /**
+     * Compares the time for 1_000_000 increments per thread on an AtomicLong and on a StripedCounter,
+     * for 1 up to twice as many threads as there are cores.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int incrementsPerThread = 1_000_000;
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        for (int threadCount = 1; threadCount <= maxThreads; threadCount <<= 1) {
+            AtomicLong atomicLong = new AtomicLong();
+            StripedCounter stripedCounter = new StripedCounter();
+            long atomicNanos = time(threadCount, () -> {
+                for (int i = 0; i < incrementsPerThread; i++) {
+                    atomicLong.incrementAndGet();
+                }
+            });
+            long stripedNanos = time(threadCount, () -> {
+                for (int i = 0; i < incrementsPerThread; i++) {
+                    stripedCounter.increment();
+                }
+            });
+            System.out.printf("%2d thread(s): AtomicLong %5d ms (%d), StripedCounter %5d ms (%d, %d cells)%n",
+                    threadCount, atomicNanos / 1_000_000, atomicLong.get(), stripedNanos / 1_000_000,
+                    stripedCounter.sum(), stripedCounter.cellCount());
+        }
+    }
+
+    private static long time(int threadCount, Runnable task) throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+        long start = System.nanoTime();
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(task, "IncrementThread-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,170 @@
+package org.projects.lockFree;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A rate limiter for very high request rates, that splits the rate over several independent RateLimiters the way
+ * StripedCounter splits a count over cells.
+ * <br>
+ * Every RateLimiter call is a CAS on one word, so with many callers on many cores the cache line of that word moves
+ * from core to core on every permit. Here each of the stripes gets permitsPerSecond / stripes and its share of the
+ * burst, and a thread uses the stripe its probe (the per-thread hash of StripedCounter) points at, so threads mostly
+ * work on different cache lines.
+ * 1. A RateLimiter spaces its permits by a whole number of nanoseconds, so the rate of one stripe can only be 1e9 / n
+ *    per second. The stripes therefore get the two intervals on either side of the exact one, mixed so that the total
+ *    is as close to the configured rate as whole intervals allow: it is off by at most half the difference between
+ *    the rates of the two intervals, e.g. exact for 3e9/s over 16 stripes (10 stripes of 5 ns and 6 of 6 ns), where
+ *    rounding every stripe to 5 ns would allow 6.7% more. permitsPerSecond() returns the actual total.
+ * 2. Every stripe has the same burst, the configured burst divided by the stripes and rounded up, at least one permit.
+ *    The total burst, burst() and availablePermits() after being idle, is therefore the configured burst rounded up
+ *    to a multiple of the number of stripes, e.g. a burst of 1 over 16 stripes allows 16 permits at once.
+ * 3. A caller can be rejected while another stripe still has permits. To limit this, a rejected caller moves its probe
+ *    and tries one other stripe before giving up, which also spreads the callers of a busy stripe.
+ * 4. A single acquire can take at most the burst of one stripe.
+ * This makes sense for rates of hundreds of thousands of permits per second and up. Below that the single word of
+ * RateLimiter is not contended enough to matter and is exact.
+ */
+public class StripedRateLimiter {
+
+    private final RateLimiter[] stripes;
+    private final int mask;
+
+    /**
+     * Creates one stripe per core, rounded up to a power of two.
+     */
+    public StripedRateLimiter(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes rounded up to a power of two
+     */
+    public StripedRateLimiter(double permitsPerSecond, int burst, int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("At least one stripe is needed: " + stripes);
+        }
+        int count = 1 << (32 - Integer.numberOfLeadingZeros(stripes - 1));
+        // Every stripe can grant at most one permit per nanosecond
+        if (!(permitsPerSecond > 0) || permitsPerSecond > (double) count * TimeUnit.SECONDS.toNanos(1)) {
+            throw new IllegalArgumentException("Rate must be between 0 and " + count + "e9 permits per second: "
+                    + permitsPerSecond);
+        }
+        this.stripes = new RateLimiter[count];
+        this.mask = count - 1;
+        int stripeBurst = Math.max(1, (burst + count - 1) / count);
+
+        double nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+        // The exact interval of a stripe lies between the whole intervals shorter and longer
+        double exactInterval = nanosPerSecond * count / permitsPerSecond;
+        long shorter = Math.max(1, (long) exactInterval);
+        long longer = shorter + 1;
+        // Solve shorterCount / shorter + (count - shorterCount) / longer = count / exactInterval for shorterCount
+        double fastRate = nanosPerSecond / shorter;
+        double slowRate = nanosPerSecond / longer;
+        long shorterCount = Math.round((permitsPerSecond - count * slowRate) / (fastRate - slowRate));
+        shorterCount = Math.max(0, Math.min(count, shorterCount));
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new RateLimiter(i < shorterCount ? fastRate : slowRate, stripeBurst);
+        }
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    public boolean tryAcquire(int permits) {
+        if (stripes[StripedCounter.probe() & mask].tryAcquire(permits)) {
+            return true;
+        }
+        return mask != 0 && stripes[StripedCounter.nextProbe() & mask].tryAcquire(permits);
+    }
+
+    /**
+     * Waits for the permits on the caller's stripe, see RateLimiter.acquire().
+     */
+    public boolean acquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+        return stripes[StripedCounter.probe() & mask].acquire(permits, timeout, unit);
+    }
+
+    /**
+     * Returns the sum of the permits available on all stripes.
+     */
+    public int availablePermits() {
+        int available = 0;
+        for (RateLimiter stripe : stripes) {
+            available += stripe.availablePermits();
+        }
+        return available;
+    }
+
+    /**
+     * Returns the total rate of all stripes, which is as close to the configured rate as whole nanosecond intervals
+     * allow.
+     */
+    public double permitsPerSecond() {
+        double total = 0;
+        for (RateLimiter stripe : stripes) {
+            total += stripe.permitsPerSecond();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the total burst of all stripes, the configured burst rounded up to a multiple of the stripe count.
+     */
+    public int burst() {
+        return stripes[0].burst() * stripes.length;
+    }
+
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Compares the admission throughput and the permits granted of a RateLimiter and a StripedRateLimiter with
+     * 1 up to twice as many threads as there are cores, at a rate high enough for contention to show.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int rate = 2_000_000;
+        int burst = 1_000;
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        for (int threadCount = 1; threadCount <= maxThreads; threadCount <<= 1) {
+            RateLimiter single = new RateLimiter(rate, burst);
+            StripedRateLimiter striped = new StripedRateLimiter(rate, burst);
+            System.out.printf("%2d thread(s): RateLimiter %s, StripedRateLimiter (%d stripes) %s%n", threadCount,
+                    run(threadCount, single::tryAcquire), striped.stripeCount(),
+                    run(threadCount, striped::tryAcquire));
+        }
+    }
+
+    private static String run(int threadCount, BooleanSupplier tryAcquire)
+            throws InterruptedException {
+        AtomicLong granted = new AtomicLong();
+        AtomicLong calls = new AtomicLong();
+        long nanos = TimeUnit.MILLISECONDS.toNanos(500);
+        long end = System.nanoTime() + nanos;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                long localGranted = 0;
+                long localCalls = 0;
+                while (System.nanoTime() < end) {
+                    localCalls++;
+                    if (tryAcquire.getAsBoolean()) {
+                        localGranted++;
+                    }
+                }
+                granted.addAndGet(localGranted);
+                calls.addAndGet(localCalls);
+            }, "CallerThread-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return String.format("%d calls/ms, %d granted/s", calls.get() / TimeUnit.NANOSECONDS.toMillis(nanos),
+                granted.get() * TimeUnit.SECONDS.toNanos(1) / nanos);
+    }
+}
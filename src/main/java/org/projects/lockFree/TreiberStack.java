@@ -0,0 +1,212 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An unbounded lock-free stack, the classic algorithm by R. Kent Treiber.
+ * <br>
+ * The stack is a linked list and the only shared variable is the reference to the top node:
+ * 1. push() creates a node pointing at the current top and CASes the top from the old node to the new one.
+ * 2. pop() reads the top and its next node and CASes the top from the old node to the next one.
+ * If another thread changed the top in between, the CAS fails and the operation retries with the new top.
+ * No thread ever waits for another, a failed CAS means another thread has made progress.
+ * <br>
+ * With the default constructor every push allocates a node, and the garbage collector guarantees that a node is not
+ * reused while a thread still holds a reference to it. That is what makes the plain CAS on the top safe.
+ * <br>
+ * The pooled mode, created with a capacity, stores elements and links in pre-allocated arrays instead, so a push in
+ * steady state allocates nothing. Nodes are indices that are handed out by an IndexPool and returned to it by pop().
+ * Since an index can come back to the top while a slow thread still holds an old view of it (the ABA problem), the
+ * top is a stamped index packed into an AtomicLong, see IndexPool. A pooled stack holds at most capacity elements
+ * and push() returns false when the pool is exhausted.
+ */
+public class TreiberStack<E> {
+
+    private static final VarHandle TOP;
+    private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(int[].class);
+
+    static {
+        try {
+            TOP = MethodHandles.lookup().findVarHandle(TreiberStack.class, "top", Node.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Node<E> {
+        final E item;
+        Node<E> next;
+
+        Node(E item) {
+            this.item = item;
+        }
+    }
+
+    // Allocating mode
+    @SuppressWarnings("unused")
+    private volatile Node<E> top;
+
+    // Pooled mode
+    private final IndexPool pool;
+    private final Object[] items;
+    private final int[] next;
+    private final AtomicLong stampedTop;
+
+    public TreiberStack() {
+        pool = null;
+        items = null;
+        next = null;
+        stampedTop = null;
+    }
+
+    /**
+     * Creates a stack that reuses its nodes and holds at most capacity elements.
+     */
+    public TreiberStack(int capacity) {
+        pool = new IndexPool(capacity);
+        items = new Object[capacity];
+        next = new int[capacity];
+        stampedTop = new AtomicLong(IndexPool.pack(IndexPool.NONE, 0));
+    }
+
+    /**
+     * Pushes the element, returning false only if the stack is pooled and all its nodes are in use.
+     */
+    public boolean push(E item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        if (pool != null) {
+            return pushPooled(item);
+        }
+        Node<E> node = new Node<>(item);
+        while (true) {
+            Node<E> current = top;
+            node.next = current;
+            if (TOP.compareAndSet(this, current, node)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the top element, or returns null if the stack is empty.
+     */
+    public E pop() {
+        if (pool != null) {
+            return popPooled();
+        }
+        while (true) {
+            Node<E> current = top;
+            if (current == null) {
+                return null;
+            }
+            if (TOP.compareAndSet(this, current, current.next)) {
+                return current.item;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return pool != null ? IndexPool.index(stampedTop.get()) == IndexPool.NONE : top == null;
+    }
+
+    private boolean pushPooled(E item) {
+        int index = pool.allocate();
+        if (index == IndexPool.NONE) {
+            return false;
+        }
+        // The node is ours until the CAS publishes it, the volatile CAS makes both writes visible to poppers
+        items[index] = item;
+        while (true) {
+            long current = stampedTop.get();
+            NEXT.setRelease(next, index, IndexPool.index(current));
+            if (stampedTop.compareAndSet(current, IndexPool.pack(index, IndexPool.stamp(current) + 1))) {
+                return true;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E popPooled() {
+        while (true) {
+            long current = stampedTop.get();
+            int index = IndexPool.index(current);
+            if (index == IndexPool.NONE) {
+                return null;
+            }
+            // If the node was popped and pushed again meanwhile, this next may be stale, but then the stamp has
+            // changed and the CAS below fails
+            int following = (int) NEXT.getAcquire(next, index);
+            if (stampedTop.compareAndSet(current, IndexPool.pack(following, IndexPool.stamp(current) + 1))) {
+                E item = (E) items[index];
+                items[index] = null;
+                pool.free(index);
+                return item;
+            }
+        }
+    }
+
+    /**
+     * Stress test: several threads push unique elements and pop at the same time, then every element must have been
+     * popped exactly once. A lost or duplicated element would show up as a wrong count or a duplicate in the set.
+     * The pooled stack runs with a pool much smaller than the number of operations, so nodes are reused constantly.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        /* Sequential order check */
+        TreiberStack<String> stack = new TreiberStack<>(4);
+        for (int i = 1; i <= 4; i++) {
+            stack.push("Item" + i);
+        }
+        System.out.println("Push to a full pooled stack: " + stack.push("Item5"));
+        StringBuilder order = new StringBuilder();
+        String item;
+        while ((item = stack.pop()) != null) {
+            order.append(item).append(' ');
+        }
+        System.out.println("Popped in LIFO order: " + order);
+
+        for (TreiberStack<Long> shared : List.of(new TreiberStack<Long>(), new TreiberStack<Long>(64))) {
+            int threadCount = 4;
+            int itemsPerThread = 200_000;
+            ConcurrentHashMap<Long, Boolean> popped = new ConcurrentHashMap<>();
+            AtomicLong duplicates = new AtomicLong();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                long offset = (long) t * itemsPerThread;
+                threads.add(new Thread(() -> {
+                    for (long i = offset; i < offset + itemsPerThread; i++) {
+                        while (!shared.push(i)) {
+                            // The pool is exhausted, help by popping
+                            record(shared.pop(), popped, duplicates);
+                        }
+                        record(shared.pop(), popped, duplicates);
+                    }
+                }, "StressThread-" + t));
+            }
+            long start = System.nanoTime();
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Long remaining;
+            while ((remaining = shared.pop()) != null) {
+                record(remaining, popped, duplicates);
+            }
+            System.out.println((shared.pool != null ? "Pooled" : "Allocating") + " stack: " + popped.size() + " of "
+                    + threadCount * itemsPerThread + " elements popped, " + duplicates.get() + " duplicates, in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+
+    private static void record(Long item, ConcurrentHashMap<Long, Boolean> popped, AtomicLong duplicates) {
+        if (item != null && popped.put(item, Boolean.TRUE) != null) {
+            duplicates.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decides what a producer or consumer does while it cannot make progress, e.g. the buffer is full or empty.
+ * The choice trades wake-up latency against CPU usage:
+ * 1. busySpin() keeps the core busy with Thread.onSpinWait(). It reacts fastest but burns a full core while waiting.
+ * 2. yielding() spins for a while, then gives the core to other threads with Thread.yield().
+ * 3. parking() spins, then parks the thread for exponentially growing periods, so an idle thread costs almost no CPU
+ *    but may take up to the maximum park time to notice new data.
+ * 4. blocking() waits on a lock Condition and is woken by signalAll(), like wait()/notifyAll() in BufferQueue.
+ *    It costs no CPU while idle but every wake-up is a context switch.
+ * <br>
+ * await() returns once the given condition holds. The condition should be a cheap read of shared state,
+ * the caller retries its operation afterwards since another thread may have won the race for it.
+ * signalAll() is called after every state change that may let a waiting thread progress. It is free for the
+ * strategies that do not block.
+ * The deadline variant of await() gives up at a System.nanoTime() deadline and throws InterruptedException instead
+ * of wrapping it. The parking and blocking strategies never sleep past the deadline, so a bounded wait costs no
+ * more CPU than an unbounded one.
+ * See WaitStrategyExample for the measured wake-up latency and CPU cost of each strategy.
+ */
+public interface WaitStrategy {
+
+    void await(BooleanSupplier ready);
+
+    /**
+     * Waits until the condition holds or the deadline passes.
+     *
+     * @return false if the deadline passed before the condition held
+     */
+    boolean await(BooleanSupplier ready, long deadlineNanos) throws InterruptedException;
+
+    void signalAll();
+
+    static WaitStrategy busySpin() {
+        return new BusySpinWaitStrategy();
+    }
+
+    static WaitStrategy yielding() {
+        return new YieldingWaitStrategy(100);
+    }
+
+    static WaitStrategy parking() {
+        return new ParkingWaitStrategy(100, 1_000, 1_000_000);
+    }
+
+    static WaitStrategy blocking() {
+        return new BlockingWaitStrategy();
+    }
+
+    /**
+     * The queue operations do not declare InterruptedException, so an interrupt while waiting is reported the same
+     * way BufferQueue does, with the interrupt status restored for the caller.
+     */
+    private static void checkInterrupted() {
+        if (Thread.interrupted()) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(new InterruptedException());
+        }
+    }
+
+    private static void checkInterruptedThrowing() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    final class BusySpinWaitStrategy implements WaitStrategy {
+
+        @Override
+        public void await(BooleanSupplier ready) {
+            while (!ready.getAsBoolean()) {
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public boolean await(BooleanSupplier ready, long deadlineNanos) throws InterruptedException {
+            while (!ready.getAsBoolean()) {
+                if (System.nanoTime() - deadlineNanos >= 0) {
+                    return false;
+                }
+                checkInterruptedThrowing();
+                Thread.onSpinWait();
+            }
+            return true;
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+    final class YieldingWaitStrategy implements WaitStrategy {
+        private final int spinTries;
+
+        YieldingWaitStrategy(int spinTries) {
+            this.spinTries = spinTries;
+        }
+
+        @Override
+        public void await(BooleanSupplier ready) {
+            int attempts = 0;
+            while (!ready.getAsBoolean()) {
+                if (attempts++ < spinTries) {
+                    Thread.onSpinWait();
+                } else {
+                    checkInterrupted();
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public boolean await(BooleanSupplier ready, long deadlineNanos) throws InterruptedException {
+            int attempts = 0;
+            while (!ready.getAsBoolean()) {
+                if (attempts++ < spinTries) {
+                    Thread.onSpinWait();
+                } else {
+                    if (System.nanoTime() - deadlineNanos >= 0) {
+                        return false;
+                    }
+                    checkInterruptedThrowing();
+                    Thread.yield();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+    final class ParkingWaitStrategy implements WaitStrategy {
+        private final int spinTries;
+        private final long minParkNanos;
+        private final long maxParkNanos;
+
+        ParkingWaitStrategy(int spinTries, long minParkNanos, long maxParkNanos) {
+            this.spinTries = spinTries;
+            this.minParkNanos = minParkNanos;
+            this.maxParkNanos = maxParkNanos;
+        }
+
+        @Override
+        public void await(BooleanSupplier ready) {
+            int attempts = 0;
+            long parkNanos = minParkNanos;
+            while (!ready.getAsBoolean()) {
+                if (attempts++ < spinTries) {
+                    Thread.onSpinWait();
+                } else {
+                    checkInterrupted();
+                    LockSupport.parkNanos(parkNanos);
+                    parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+                }
+            }
+        }
+
+        @Override
+        public boolean await(BooleanSupplier ready, long deadlineNanos) throws InterruptedException {
+            int attempts = 0;
+            long parkNanos = minParkNanos;
+            while (!ready.getAsBoolean()) {
+                if (attempts++ < spinTries) {
+                    Thread.onSpinWait();
+                } else {
+                    long remaining = deadlineNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    checkInterruptedThrowing();
+                    // Never park past the deadline, so a timed out caller returns on time
+                    LockSupport.parkNanos(Math.min(parkNanos, remaining));
+                    parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+    final class BlockingWaitStrategy implements WaitStrategy {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        @Override
+        public void await(BooleanSupplier ready) {
+            if (ready.getAsBoolean()) {
+                return;
+            }
+            lock.lock();
+            waiters.incrementAndGet();
+            try {
+                while (!ready.getAsBoolean()) {
+                    changed.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } finally {
+                waiters.decrementAndGet();
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean await(BooleanSupplier ready, long deadlineNanos) throws InterruptedException {
+            if (ready.getAsBoolean()) {
+                return true;
+            }
+            lock.lockInterruptibly();
+            waiters.incrementAndGet();
+            try {
+                while (!ready.getAsBoolean()) {
+                    long remaining = deadlineNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    changed.awaitNanos(remaining);
+                }
+                return true;
+            } finally {
+                waiters.decrementAndGet();
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void signalAll() {
+            // The state change was published with a release store, the fence keeps the waiters read below from
+            // moving ahead of it. Otherwise a thread that just registered could miss both the change and the signal.
+            VarHandle.fullFence();
+            if (waiters.get() == 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
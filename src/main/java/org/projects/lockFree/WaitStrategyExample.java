@@ -0,0 +1,59 @@
+package org.projects.lockFree;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This example measures the cost of each WaitStrategy for a consumer that is idle most of the time.
+ * A producer puts a timestamp into a RingBufferQueue every 200 microseconds, and the consumer waits for it using the
+ * strategy under test. For each strategy it reports:
+ * 1. Wake-up latency, the time between the put() and the moment the consumer has the element, as median, p99 and max.
+ * 2. CPU cost, the CPU time used by the consumer thread as a percentage of one core over the run.
+ * Busy spin has the lowest latency but keeps one core at 100%, blocking uses almost no CPU but every wake-up
+ * pays for a context switch. Yielding and parking sit in between, with parking trading latency for CPU as its
+ * park time backs off.
+ */
+public class WaitStrategyExample {
+
+    private static final int MESSAGES = 5_000;
+    private static final long INTERVAL_NANOS = 200_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        String[] names = {"busySpin", "yielding", "parking", "blocking"};
+        WaitStrategy[] strategies = {WaitStrategy.busySpin(), WaitStrategy.yielding(), WaitStrategy.parking(),
+                WaitStrategy.blocking()};
+
+        for (int s = 0; s < strategies.length; s++) {
+            RingBufferQueue<Long> queue = new RingBufferQueue<>(1024, strategies[s]);
+            long[] latencies = new long[MESSAGES];
+            long[] cpuNanos = new long[1];
+
+            Thread consumer = new Thread(() -> {
+                long cpuStart = threadMXBean.getCurrentThreadCpuTime();
+                for (int i = 0; i < MESSAGES; i++) {
+                    long sentAt = queue.poll();
+                    latencies[i] = System.nanoTime() - sentAt;
+                }
+                cpuNanos[0] = threadMXBean.getCurrentThreadCpuTime() - cpuStart;
+            }, "ConsumerThread");
+
+            consumer.start();
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                LockSupport.parkNanos(INTERVAL_NANOS);
+                queue.put(System.nanoTime());
+            }
+            consumer.join();
+            long elapsed = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            System.out.printf("%-9s wake-up median %7d ns, p99 %8d ns, max %9d ns, consumer CPU %5.1f%%%n",
+                    names[s], latencies[MESSAGES / 2], latencies[MESSAGES * 99 / 100], latencies[MESSAGES - 1],
+                    100.0 * cpuNanos[0] / elapsed);
+        }
+    }
+}
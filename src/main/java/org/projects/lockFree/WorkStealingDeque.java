@@ -0,0 +1,144 @@
+package org.projects.lockFree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * The deque of a work-stealing worker, the lock-free algorithm of Chase and Lev, with the memory orderings of
+ * Le, Pop, Cohen and Zappa Nardelli ("Correct and Efficient Work-Stealing for Weak Memory Models").
+ * <br>
+ * One thread, the owner, pushes and pops at the bottom, any other thread steals from the top:
+ * 1. push() and pop() by the owner touch only the bottom index and need no CAS, except for the last element, which
+ *    the owner and a thief may both want. The owner works LIFO, so it runs the task it pushed last, whose data is most
+ *    likely still in its cache.
+ * 2. steal() takes the oldest element with a CAS on the top index. Old tasks tend to be the big ones that spawn more
+ *    work, so a thief gets a lot of work for one steal and thieves rarely come back.
+ * The elements are in a circular array that the owner doubles when it is full. Thieves still reading the old array
+ * see the same elements there, as the owner only writes the new one.
+ * <br>
+ * Only pop() can clear the slot it takes. A slot taken by steal() keeps its reference until the owner reuses it,
+ * so the deque can hold on to up to capacity already executed elements.
+ */
+public class WorkStealingDeque<E> {
+
+    private static final VarHandle TOP;
+    private static final VarHandle BOTTOM;
+    private static final VarHandle ARRAY;
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            TOP = lookup.findVarHandle(WorkStealingDeque.class, "top", long.class);
+            BOTTOM = lookup.findVarHandle(WorkStealingDeque.class, "bottom", long.class);
+            ARRAY = lookup.findVarHandle(WorkStealingDeque.class, "array", Object[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private volatile long top;
+    @SuppressWarnings("unused")
+    private volatile long bottom;
+    @SuppressWarnings("unused")
+    private volatile Object[] array;
+
+    public WorkStealingDeque() {
+        this(64);
+    }
+
+    /**
+     * @param initialCapacity rounded up to a power of two, the deque grows when it is full
+     */
+    public WorkStealingDeque(int initialCapacity) {
+        this.array = new Object[1 << (32 - Integer.numberOfLeadingZeros(Math.max(2, initialCapacity) - 1))];
+    }
+
+    /**
+     * Adds the element at the bottom. Only the owner may call it.
+     */
+    public void push(E element) {
+        long b = (long) BOTTOM.getOpaque(this);
+        long t = (long) TOP.getAcquire(this);
+        Object[] a = (Object[]) ARRAY.getOpaque(this);
+        if (b - t > a.length - 1) {
+            a = grow(a, t, b);
+        }
+        SLOT.setOpaque(a, (int) b & (a.length - 1), element);
+        // Publishes the element before the new bottom, a thief that sees the bottom sees the element
+        BOTTOM.setRelease(this, b + 1);
+    }
+
+    /**
+     * Removes the element at the bottom, the one pushed last, or returns null. Only the owner may call it.
+     */
+    @SuppressWarnings("unchecked")
+    public E pop() {
+        long b = (long) BOTTOM.getOpaque(this) - 1;
+        Object[] a = (Object[]) ARRAY.getOpaque(this);
+        BOTTOM.setOpaque(this, b);
+        // Thieves must see the lowered bottom before the owner reads the top, or both could take the last element
+        VarHandle.fullFence();
+        long t = (long) TOP.getOpaque(this);
+        if (t > b) {
+            // Empty
+            BOTTOM.setOpaque(this, b + 1);
+            return null;
+        }
+        int index = (int) b & (a.length - 1);
+        E element = (E) SLOT.getOpaque(a, index);
+        if (t == b) {
+            // The last element, race the thieves for it on the top index
+            if (!TOP.compareAndSet(this, t, t + 1)) {
+                element = null;
+            }
+            BOTTOM.setOpaque(this, b + 1);
+            return element;
+        }
+        SLOT.setOpaque(a, index, null);
+        return element;
+    }
+
+    /**
+     * Removes the element at the top, the oldest one, or returns null if the deque is empty or another thread took
+     * the element first. Any thread may call it.
+     */
+    @SuppressWarnings("unchecked")
+    public E steal() {
+        long t = (long) TOP.getAcquire(this);
+        VarHandle.fullFence();
+        long b = (long) BOTTOM.getAcquire(this);
+        if (t >= b) {
+            return null;
+        }
+        Object[] a = (Object[]) ARRAY.getAcquire(this);
+        E element = (E) SLOT.getOpaque(a, (int) t & (a.length - 1));
+        if (!TOP.compareAndSet(this, t, t + 1)) {
+            return null;
+        }
+        return element;
+    }
+
+    /**
+     * Returns the number of elements, a moment's value when other threads steal at the same time.
+     */
+    public int size() {
+        long b = (long) BOTTOM.getAcquire(this);
+        long t = (long) TOP.getAcquire(this);
+        return (int) Math.max(0, b - t);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private Object[] grow(Object[] old, long t, long b) {
+        Object[] grown = new Object[old.length << 1];
+        for (long i = t; i < b; i++) {
+            grown[(int) i & (grown.length - 1)] = old[(int) i & (old.length - 1)];
+        }
+        ARRAY.setRelease(this, grown);
+        return grown;
+    }
+}
@@ -0,0 +1,97 @@
+package org.projects.locks;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The put/poll contract shared by the bounded producer-consumer buffers in this project.
+ * put() blocks the producer while the buffer is full and poll() blocks the consumer while the buffer is empty,
+ * so a caller can switch between the monitor based BufferQueue and the lock-free ring buffer implementations
+ * without changing the producer or consumer code.
+ * The batch operations move many elements per synchronization round and wake waiting threads once per batch
+ * instead of once per element.
+ * The timed operations give up when a timeout or a deadline passes and can be interrupted, so callers can bound
+ * how long they wait for a stalled producer or consumer. Deadlines are System.nanoTime() values.
+ *
+ * @param <E> the type of the elements held in the buffer
+ */
+public interface BlockingBuffer<E> {
+
+    /**
+     * Adds the element to the buffer, waiting for space to become available if the buffer is full.
+     */
+    void put(E data);
+
+    /**
+     * Removes and returns the oldest element, waiting for an element to become available if the buffer is empty.
+     */
+    E poll();
+
+    /**
+     * Adds the element, waiting until the deadline for space to become available.
+     *
+     * @return false if the deadline passed while the buffer was full
+     */
+    boolean offerUntil(E data, long deadlineNanos) throws InterruptedException;
+
+    /**
+     * Removes and returns the oldest element, waiting until the deadline for an element to become available.
+     *
+     * @return null if the deadline passed while the buffer was empty
+     */
+    E pollUntil(long deadlineNanos) throws InterruptedException;
+
+    default boolean offer(E data, long timeout, TimeUnit unit) throws InterruptedException {
+        return offerUntil(data, deadlineAfter(timeout, unit));
+    }
+
+    default E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return pollUntil(deadlineAfter(timeout, unit));
+    }
+
+    /**
+     * Converts a timeout into a System.nanoTime() deadline, capping it so that the addition cannot overflow.
+     */
+    static long deadlineAfter(long timeout, TimeUnit unit) {
+        return System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE >> 1);
+    }
+
+    /**
+     * Adds all the elements in iteration order, waiting for space whenever the buffer fills up.
+     */
+    void putAll(Collection<? extends E> items);
+
+    /**
+     * Adds as many of items[from, from + length) as currently fit without waiting.
+     *
+     * @return the number of elements added, the first ones of the given range
+     */
+    int offerBatch(E[] items, int from, int length);
+
+    /**
+     * Waits until at least one element is available, then removes up to maxElements elements and passes them
+     * to the consumer in order.
+     *
+     * @return the number of elements removed
+     */
+    int drainTo(Consumer<? super E> consumer, int maxElements);
+
+    /**
+     * Waits until at least one element is available, then removes up to maxElements elements into the target
+     * array starting at index 0.
+     *
+     * @return the number of elements removed
+     */
+    int drainTo(E[] target, int maxElements);
+
+    /**
+     * Returns the number of elements currently held. Under concurrent access this is only an estimate.
+     */
+    int size();
+
+    /**
+     * Returns the maximum number of elements the buffer can hold.
+     */
+    int capacity();
+}
@@ -1,67 +1,269 @@
 package org.projects.locks;
 
+import org.projects.trace.Tracer;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import static java.lang.Thread.sleep;
 
 /**
  * A thread-safe buffer queue implementation with producer-consumer functionality.
- * This class uses synchronized methods along with wait() and notifyAll() to manage
- * access to the buffer, ensuring that producers wait when the buffer is full and
- * consumers wait when the buffer is empty.
+ * This class uses a ReentrantLock with two Conditions to manage access to the buffer, ensuring that producers wait
+ * when the buffer is full and consumers wait when the buffer is empty. It works like synchronized methods with
+ * wait() and notifyAll() (see LockConditionExample), with two differences:
+ * 1. Producers wait on notFull and consumers on notEmpty, so a put only wakes consumers and a poll only wakes producers.
+ * 2. Condition.awaitNanos() waits with nanosecond precision, while Object.wait() rounds its timeout to milliseconds.
+ *    That lets offer() and poll() take a timeout or a deadline without spending more CPU than the untimed versions.
+ * The timed operations return false or null when the time runs out, and throw InterruptedException when the thread
+ * is interrupted, so request threads can give up on a stalled consumer or be cancelled. The untimed put() and poll()
+ * report an interrupt as a RuntimeException with the thread's interrupt status restored.
+ * The backing queue is only touched while holding the lock, so a plain ArrayDeque is enough. Its size() is O(1),
+ * unlike ConcurrentLinkedQueue.size() which walks the whole list while the lock is held.
+ * The batch operations take the lock once for many elements and signal once per batch, and they log
+ * one line per batch rather than several per element.
+ * See org.projects.lockFree.RingBufferQueue for a lock-free implementation of the same contract.
  */
-public class BufferQueue {
+public class BufferQueue implements BlockingBuffer<String> {
     int size;
     Queue<String> queue;
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition notFull = lock.newCondition();
+    final Condition notEmpty = lock.newCondition();
 
     public BufferQueue(int size) {
         this.size = size;
-        queue = new ConcurrentLinkedQueue<>();
+        queue = new ArrayDeque<>(size);
     }
 
-    public synchronized void put(String data) {
-        System.out.println("Thread " + Thread.currentThread().getName() + " is trying to put data: " + data);
+    @Override
+    public void put(String data) {
+        lock.lock();
+        try {
+            Tracer.info("Thread {} is trying to put data: {}", Thread.currentThread().getName(), data);
 
-        while(queue.size() == size) {
-            try {
-                System.out.println("Buffer is full. Thread " + Thread.currentThread().getName() + " is waiting to put data.");
-                wait();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+            while(queue.size() == size) {
+                Tracer.info("Buffer is full. Thread {} is waiting to put data.", Thread.currentThread().getName());
+                awaitUninterrupted(notFull);
             }
+
+            add(data);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        queue.add(data);
-        System.out.println("Thread " + Thread.currentThread().getName() + " put data: " + data);
-        if (queue.size() == 1) {
-            System.out.println("Buffer was empty. Notifying all waiting threads.");
-            notifyAll();
+    @Override
+    public String poll() {
+        lock.lock();
+        try {
+            Tracer.info("Thread {} is trying to consume data.", Thread.currentThread().getName());
+
+            while(queue.isEmpty()) {
+                Tracer.info("Buffer is empty. Thread {} is waiting to consume data.", Thread.currentThread().getName());
+                awaitUninterrupted(notEmpty);
+            }
+
+            return remove();
+        } finally {
+            lock.unlock();
         }
     }
 
-    public synchronized String poll() {
-        System.out.println("Thread " + Thread.currentThread().getName() + " is trying to consume data.");
+    @Override
+    public boolean offerUntil(String data, long deadlineNanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() == size) {
+                long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    Tracer.info("Buffer is full. Thread {} timed out putting data.", Thread.currentThread().getName());
+                    return false;
+                }
+                notFull.awaitNanos(remaining);
+            }
 
-        while(queue.isEmpty()) {
-            try {
-                System.out.println("Buffer is empty. Thread " + Thread.currentThread().getName() + " is waiting to consume data.");
-                wait();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+            add(data);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String pollUntil(long deadlineNanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    Tracer.info("Buffer is empty. Thread {} timed out consuming data.", Thread.currentThread().getName());
+                    return null;
+                }
+                notEmpty.awaitNanos(remaining);
+            }
+
+            return remove();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Collection<? extends String> items) {
+        lock.lock();
+        try {
+            if (Tracer.isEnabled(Tracer.Level.INFO)) {
+                Tracer.info("Thread {} is trying to put {} items.", Thread.currentThread().getName(), items.size());
+            }
+
+            Iterator<? extends String> iterator = items.iterator();
+            while (iterator.hasNext()) {
+                while (queue.size() == size) {
+                    Tracer.info("Buffer is full. Thread {} is waiting to put data.", Thread.currentThread().getName());
+                    awaitUninterrupted(notFull);
+                }
+
+                boolean wasEmpty = queue.isEmpty();
+                while (queue.size() < size && iterator.hasNext()) {
+                    queue.add(iterator.next());
+                }
+                if (wasEmpty) {
+                    notEmpty.signalAll();
+                }
             }
+            if (Tracer.isEnabled(Tracer.Level.INFO)) {
+                Tracer.info("Thread {} put {} items.", Thread.currentThread().getName(), items.size());
+            }
+        } finally {
+            lock.unlock();
         }
+    }
 
+    @Override
+    public int offerBatch(String[] items, int from, int length) {
+        lock.lock();
+        try {
+            int count = Math.min(length, size - queue.size());
+            if (count <= 0) {
+                return 0;
+            }
+
+            boolean wasEmpty = queue.isEmpty();
+            for (int i = from; i < from + count; i++) {
+                queue.add(items[i]);
+            }
+            if (Tracer.isEnabled(Tracer.Level.INFO)) {
+                Tracer.info("Thread {} put {} of {} items.", Thread.currentThread().getName(), count, length);
+            }
+            if (wasEmpty) {
+                notEmpty.signalAll();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Consumer<? super String> consumer, int maxElements) {
+        // Hand the elements to the consumer after releasing the lock, so a slow consumer does not block producers
+        if (maxElements <= 0) {
+            return 0;
+        }
+        String[] drained = new String[Math.min(maxElements, size)];
+        int count = drainTo(drained, drained.length);
+        for (int i = 0; i < count; i++) {
+            consumer.accept(drained[i]);
+        }
+        return count;
+    }
+
+    @Override
+    public int drainTo(String[] target, int maxElements) {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                Tracer.info("Buffer is empty. Thread {} is waiting to consume data.", Thread.currentThread().getName());
+                awaitUninterrupted(notEmpty);
+            }
+
+            boolean wasFull = queue.size() == size;
+            int count = Math.min(maxElements, queue.size());
+            for (int i = 0; i < count; i++) {
+                target[i] = queue.poll();
+            }
+            if (Tracer.isEnabled(Tracer.Level.INFO)) {
+                Tracer.info("Thread {} consumed {} items.", Thread.currentThread().getName(), count);
+            }
+            if (wasFull) {
+                notFull.signalAll();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return size;
+    }
+
+    /**
+     * Adds the element and wakes the consumers if the buffer was empty, called with the lock held.
+     */
+    private void add(String data) {
+        queue.add(data);
+        Tracer.info("Thread {} put data: {}", Thread.currentThread().getName(), data);
+        if (queue.size() == 1) {
+            Tracer.info("Buffer was empty. Signalling waiting consumers.");
+            notEmpty.signalAll();
+        }
+    }
+
+    /**
+     * Removes the oldest element and wakes the producers if the buffer was full, called with the lock held.
+     */
+    private String remove() {
         String data = queue.poll();
-        System.out.println("Thread " + Thread.currentThread().getName() + " consumed data: " + data);
+        Tracer.info("Thread {} consumed data: {}", Thread.currentThread().getName(), data);
 
         if (queue.size() == size - 1) {
-            System.out.println("Buffer was full. Notifying all waiting threads.");
-            notifyAll();
+            Tracer.info("Buffer was full. Signalling waiting producers.");
+            notFull.signalAll();
         }
         return data;
     }
 
+    private static void awaitUninterrupted(Condition condition) {
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
     public static void main(String[] args) {
 
         /* Creating two consumer threads to demonstrate multiple consumers waiting on the buffer */
@@ -81,7 +283,7 @@ public class BufferQueue {
 
         Runnable consumerRunnable = () -> {
             String data = bufferQueue.poll();
-            System.out.println("Data consumed: " + data + " by thread: " + Thread.currentThread().getName());
+            Tracer.info("Data consumed: {} by thread: {}", data, Thread.currentThread().getName());
         };
 
         Thread consumer1 = new Thread(consumerRunnable, "ConsumerThread-1");
@@ -92,6 +294,58 @@ public class BufferQueue {
         producer.start();
         */
 
+        /* Creating one producer and one consumer thread that move the items in batches */
+        /*
+        BufferQueue bufferQueue = new BufferQueue(4);
+
+        Thread producer = new Thread(() -> {
+            bufferQueue.putAll(List.of("Item1", "Item2", "Item3", "Item4", "Item5", "Item6"));
+        }, "ProducerThread");
+
+        Thread consumer = new Thread(() -> {
+            int consumed = 0;
+            while (consumed < 6) {
+                consumed += bufferQueue.drainTo(data -> Tracer.info("Data consumed: {} by thread: {}", data,
+                        Thread.currentThread().getName()), 4);
+            }
+        }, "ConsumerThread");
+
+        consumer.start();
+        producer.start();
+        */
+
+        /* Creating one consumer thread that gives up when the producer stalls, and a producer that gives up when the buffer stays full */
+        /*
+        BufferQueue bufferQueue = new BufferQueue(1);
+
+        Thread producer = new Thread(() -> {
+            try {
+                for(int i = 1; i<=3; i++) {
+                    boolean added = bufferQueue.offer("Item" + i, 100, TimeUnit.MILLISECONDS);
+                    Tracer.info("Item{} added: {}", i, added);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "ProducerThread");
+
+        Thread consumer = new Thread(() -> {
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+                String data;
+                while ((data = bufferQueue.pollUntil(deadline)) != null) {
+                    Tracer.info("Data consumed: {} by thread: {}", data, Thread.currentThread().getName());
+                }
+                Tracer.info("Deadline passed, thread {} stops consuming", Thread.currentThread().getName());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "ConsumerThread");
+
+        consumer.start();
+        producer.start();
+        */
+
         /* Creating one producer and one consumer thread to demonstrate buffer with size greater than one */
         BufferQueue bufferQueue = new BufferQueue(3);
 
@@ -104,7 +358,7 @@ public class BufferQueue {
         Thread consumer = new Thread(() -> {
             for(int i = 1; i<=6; i++) {
                 String data = bufferQueue.poll();
-                System.out.println("Data consumed: " + data + " by thread: " + Thread.currentThread().getName());
+                Tracer.info("Data consumed: {} by thread: {}", data, Thread.currentThread().getName());
             }
         }, "ConsumerThread");
 
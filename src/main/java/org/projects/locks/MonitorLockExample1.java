@@ -1,5 +1,7 @@
 package org.projects.locks;
 
+import org.projects.trace.Tracer;
+
 /**
  * This class demonstrates the use of monitor locks in Java.
  * It contains three methods: task1, task2, and task3.
@@ -16,37 +18,37 @@ package org.projects.locks;
  */
 public class MonitorLockExample1 {
     public synchronized void task1() {
-        System.out.println("Task 1 started");
+        Tracer.info("Task 1 started");
         try {
             for(int i = 1; i <= 10; i++) {
-                System.out.println("Task 1 - Count: " + i + " thread: " + Thread.currentThread().getName());
+                Tracer.info("Task 1 - Count: {} thread: {}", i, Thread.currentThread().getName());
                 Thread.sleep(500); // Simulating work with sleep
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        System.out.println("Task 1 finished");
+        Tracer.info("Task 1 finished");
     }
 
     public void task2() {
-        System.out.println("Task 2 outside synchronized block by thread: " + Thread.currentThread().getName());
+        Tracer.info("Task 2 outside synchronized block by thread: {}", Thread.currentThread().getName());
         synchronized (this) {
-            System.out.println("Task 2 inside synchronized block started by thread: " + Thread.currentThread().getName());
+            Tracer.info("Task 2 inside synchronized block started by thread: {}", Thread.currentThread().getName());
             try {
                 for(int i = 1; i <= 6; i++) {
-                    System.out.println("Task 2 - Count: " + i + " thread: " + Thread.currentThread().getName());
+                    Tracer.info("Task 2 - Count: {} thread: {}", i, Thread.currentThread().getName());
                     Thread.sleep(500); // Simulating work with sleep
                 } // Simulating work with sleep
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
         }
-        System.out.println("Task 2 finished by thread: " + Thread.currentThread().getName());
+        Tracer.info("Task 2 finished by thread: {}", Thread.currentThread().getName());
     }
 
     public void task3() {
-        System.out.println("Task 3 started");
-        System.out.println("Task 3 finished");
+        Tracer.info("Task 3 started");
+        Tracer.info("Task 3 finished");
     }
 
     public static void main(String[] args) {
@@ -1,5 +1,7 @@
 package org.projects.locks;
 
+import org.projects.trace.Tracer;
+
 import static java.lang.Thread.sleep;
 
 /**
@@ -15,12 +17,12 @@ public class MonitorLockWaitExample {
 
         public synchronized void addItem() {
             itemAvailable = true;
-            System.out.println("Item added by thread: " + Thread.currentThread().getName());
+            Tracer.info("Item added by thread: {}", Thread.currentThread().getName());
             notifyAll(); // Notify waiting threads that an item is available
         }
 
         public synchronized void consumeTask() {
-            System.out.println("Consume task invoked by thread: " + Thread.currentThread().getName());
+            Tracer.info("Consume task invoked by thread: {}", Thread.currentThread().getName());
 
             // while loop to handle spurious wakeups(function resuming even though notify was not called),
             // since after being notified, the execution continues from the
@@ -28,7 +30,7 @@ public class MonitorLockWaitExample {
             // whereas if while is used, the condition is re-evaluated after being notified or spurious wakeup
             while(!itemAvailable) {
                 try {
-                    System.out.println("Item not available, thread " + Thread.currentThread().getName() + " is waiting.");
+                    Tracer.info("Item not available, thread {} is waiting.", Thread.currentThread().getName());
                     wait(); // Wait until notified that an item is available, this releases the monitor lock
                 } catch (InterruptedException e) {
                     e.printStackTrace();
@@ -41,7 +43,7 @@ public class MonitorLockWaitExample {
                 e.printStackTrace();
             }
 
-            System.out.println("Item consumed by thread: " + Thread.currentThread().getName());
+            Tracer.info("Item consumed by thread: {}", Thread.currentThread().getName());
             itemAvailable = false; // Reset the flag after consuming the item
         }
     }
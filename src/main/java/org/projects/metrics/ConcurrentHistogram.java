@@ -0,0 +1,321 @@
+package org.projects.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, or any other non-negative values, that many threads can record into at the same time.
+ * It answers questions such as "what was the 99.9th percentile lock wait in the last second", which printing
+ * timestamps or keeping an average cannot.
+ * <br>
+ * Values are counted in log-linear buckets, like HdrHistogram: every power of two range [2^e, 2^(e+1)) is split into
+ * 2^precisionBits equally wide buckets. The relative error of a reported value is therefore below 2^-precisionBits
+ * whatever its magnitude, 0.8% with the default of 7 bits, and 1 ns to 1 hour fits into about 4_600 counters.
+ * The bucket of a value is found with one numberOfLeadingZeros and a shift, no search and no floating point.
+ * <br>
+ * record() is wait-free and allocates nothing: it enters a WriterReaderPhaser critical section, increments one
+ * element of an AtomicLongArray and leaves, three atomic adds in total. The two of the phaser go to the epochs of
+ * the stripe of the recording thread, which threads on other cores rarely share. The count is shared by every thread
+ * that records into the same bucket, so threads recording similar values on many cores still contend on its line.
+ * main() measures about 40 ns of CPU time per record() with four threads on a single core, including generating the
+ * values. On many cores every atomic add whose line has to come from another core costs more than that.
+ * intervalSnapshot() returns the counts recorded since the previous snapshot and starts a new interval without
+ * losing or double counting any value: the histogram keeps two count arrays, the snapshot makes the spare one active
+ * and uses the phaser to wait for writers still using the old one before reading and clearing it.
+ * <br>
+ * Snapshots are immutable and can be merged, e.g. to combine the histograms of several threads or servers,
+ * or to add up intervals into a total.
+ */
+public class ConcurrentHistogram {
+
+    private final int precisionBits;
+    private final long highestTrackableValue;
+    private final int bucketCount;
+    private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+    private volatile AtomicLongArray activeCounts;
+    private AtomicLongArray inactiveCounts;
+    private long intervalStartNanos = System.nanoTime();
+
+    /**
+     * Creates a histogram for nanosecond latencies up to one hour with a relative error below 1%.
+     */
+    public ConcurrentHistogram() {
+        this(TimeUnit.HOURS.toNanos(1), 7);
+    }
+
+    /**
+     * @param highestTrackableValue larger values are counted as this value
+     * @param precisionBits         the relative error is below 2^-precisionBits, between 1 and 16
+     */
+    public ConcurrentHistogram(long highestTrackableValue, int precisionBits) {
+        if (precisionBits < 1 || precisionBits > 16) {
+            throw new IllegalArgumentException("Precision must be between 1 and 16 bits: " + precisionBits);
+        }
+        if (highestTrackableValue < 1) {
+            throw new IllegalArgumentException("Highest trackable value must be positive: " + highestTrackableValue);
+        }
+        this.precisionBits = precisionBits;
+        this.highestTrackableValue = highestTrackableValue;
+        this.bucketCount = bucketIndex(highestTrackableValue, precisionBits) + 1;
+        this.activeCounts = new AtomicLongArray(bucketCount);
+        this.inactiveCounts = new AtomicLongArray(bucketCount);
+    }
+
+    /**
+     * Counts the value. Negative values are counted as zero and values above the highest trackable value as that value,
+     * so recording never fails.
+     */
+    public void record(long value) {
+        int index = bucketIndex(Math.max(0, Math.min(value, highestTrackableValue)), precisionBits);
+        long critical = phaser.writerCriticalSectionEnter();
+        try {
+            activeCounts.getAndIncrement(index);
+        } finally {
+            phaser.writerCriticalSectionExit(critical);
+        }
+    }
+
+    /**
+     * Records the time elapsed since startNanos, a value of System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the values recorded since the previous call, or since the histogram was created, and starts a new
+     * interval. Writers are never blocked, the caller waits only for writers that are in the middle of a record().
+     */
+    public Snapshot intervalSnapshot() {
+        phaser.readerLock();
+        try {
+            AtomicLongArray recorded = activeCounts;
+            activeCounts = inactiveCounts;
+            phaser.flipPhase();
+
+            long[] counts = new long[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                counts[i] = recorded.get(i);
+                recorded.set(i, 0);
+            }
+            inactiveCounts = recorded;
+            long now = System.nanoTime();
+            Snapshot snapshot = new Snapshot(precisionBits, counts, now - intervalStartNanos);
+            intervalStartNanos = now;
+            return snapshot;
+        } finally {
+            phaser.readerUnlock();
+        }
+    }
+
+    static int bucketIndex(long value, int precisionBits) {
+        long subBuckets = 1L << precisionBits;
+        if (value < subBuckets) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - precisionBits;
+        // (shift + 1) ranges of 2^precisionBits buckets below, plus the position within this range
+        return ((shift + 1) << precisionBits) + (int) ((value >>> shift) - subBuckets);
+    }
+
+    static long lowestValue(int index, int precisionBits) {
+        int subBuckets = 1 << precisionBits;
+        if (index < subBuckets) {
+            return index;
+        }
+        int shift = (index >>> precisionBits) - 1;
+        return ((long) (index & (subBuckets - 1)) + subBuckets) << shift;
+    }
+
+    static long highestValue(int index, int precisionBits) {
+        int subBuckets = 1 << precisionBits;
+        if (index < subBuckets) {
+            return index;
+        }
+        int shift = (index >>> precisionBits) - 1;
+        return (((long) (index & (subBuckets - 1)) + subBuckets + 1) << shift) - 1;
+    }
+
+    /**
+     * An immutable copy of the counts of an interval. Percentiles are reported as the highest value of the bucket,
+     * so they are never lower than the value actually recorded.
+     */
+    public static final class Snapshot {
+        private final int precisionBits;
+        private final long[] counts;
+        private final long totalCount;
+        private final long intervalNanos;
+
+        Snapshot(int precisionBits, long[] counts, long intervalNanos) {
+            this.precisionBits = precisionBits;
+            this.counts = counts;
+            this.intervalNanos = intervalNanos;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        public long totalCount() {
+            return totalCount;
+        }
+
+        /**
+         * Returns the length of the interval the snapshot covers, the sum of the intervals for a merged snapshot.
+         */
+        public long intervalNanos() {
+            return intervalNanos;
+        }
+
+        /**
+         * Returns the value below or at which the given percentage of the recorded values lie, or 0 if nothing was
+         * recorded.
+         */
+        public long valueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return highestValue(i, precisionBits);
+                }
+            }
+            return highestValue(counts.length - 1, precisionBits);
+        }
+
+        public long min() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    return lowestValue(i, precisionBits);
+                }
+            }
+            return 0;
+        }
+
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestValue(i, precisionBits);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the mean, taking the middle of each bucket for the values in it.
+         */
+        public double mean() {
+            if (totalCount == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    sum += counts[i] * ((lowestValue(i, precisionBits) + highestValue(i, precisionBits)) / 2.0);
+                }
+            }
+            return sum / totalCount;
+        }
+
+        /**
+         * Returns a snapshot with the counts of both snapshots, which must come from histograms with the same
+         * precision. The result covers the larger of the two value ranges.
+         */
+        public Snapshot merge(Snapshot other) {
+            if (other.precisionBits != precisionBits) {
+                throw new IllegalArgumentException("Cannot merge histograms of " + precisionBits + " and "
+                        + other.precisionBits + " precision bits");
+            }
+            long[] merged = Arrays.copyOf(counts, Math.max(counts.length, other.counts.length));
+            for (int i = 0; i < other.counts.length; i++) {
+                merged[i] += other.counts[i];
+            }
+            return new Snapshot(precisionBits, merged, intervalNanos + other.intervalNanos);
+        }
+
+        /**
+         * Formats count and percentiles, with the values converted from the unit they were recorded in.
+         */
+        public String summary(TimeUnit recordedUnit, TimeUnit displayUnit) {
+            double scale = (double) recordedUnit.toNanos(1) / displayUnit.toNanos(1);
+            String unit = switch (displayUnit) {
+                case NANOSECONDS -> "ns";
+                case MICROSECONDS -> "us";
+                case MILLISECONDS -> "ms";
+                case SECONDS -> "s";
+                default -> displayUnit.name().toLowerCase();
+            };
+            return String.format("count=%d min=%.1f%s p50=%.1f%s p90=%.1f%s p99=%.1f%s p99.9=%.1f%s max=%.1f%s "
+                            + "mean=%.1f%s",
+                    totalCount, min() * scale, unit, valueAtPercentile(50) * scale, unit,
+                    valueAtPercentile(90) * scale, unit, valueAtPercentile(99) * scale, unit,
+                    valueAtPercentile(99.9) * scale, unit, max() * scale, unit, mean() * scale, unit);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d min=%d p50=%d p90=%d p99=%d p99.9=%d max=%d", totalCount, min(),
+                    valueAtPercentile(50), valueAtPercentile(90), valueAtPercentile(99), valueAtPercentile(99.9),
+                    max());
+        }
+    }
+
+    /**
+     * Measures the CPU time of record() with several threads recording, takes interval snapshots while they run and
+     * checks that no value was lost or counted twice across the intervals, then merges the intervals.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        ConcurrentHistogram histogram = new ConcurrentHistogram();
+        int threadCount = 4;
+        int valuesPerThread = 2_000_000;
+        Thread[] threads = new Thread[threadCount];
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long[] nanosPerRecord = new long[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                long seed = id * 0x9E3779B97F4A7C15L + 1;
+                // CPU time rather than elapsed time, which would include the time slices of the other threads
+                long start = threadMXBean.getCurrentThreadCpuTime();
+                for (int i = 0; i < valuesPerThread; i++) {
+                    // A latency like distribution: mostly around 50us, with a long tail up to 50ms
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 7;
+                    seed ^= seed << 17;
+                    long latency = 50_000 + (seed & 0xFFFF);
+                    if ((seed >>> 48 & 0xFF) == 0) {
+                        latency *= 1000;
+                    }
+                    histogram.record(latency);
+                }
+                nanosPerRecord[id] = (threadMXBean.getCurrentThreadCpuTime() - start) / valuesPerThread;
+            }, "RecorderThread-" + t);
+            threads[t].start();
+        }
+
+        Snapshot total = null;
+        int intervals = 0;
+        boolean running = true;
+        while (running) {
+            Thread.sleep(20);
+            running = false;
+            for (Thread thread : threads) {
+                running |= thread.isAlive();
+            }
+            Snapshot interval = histogram.intervalSnapshot();
+            intervals++;
+            total = total == null ? interval : total.merge(interval);
+        }
+
+        System.out.println("Recorded " + total.totalCount() + " of " + (long) threadCount * valuesPerThread
+                + " values in " + intervals + " intervals, " + Arrays.toString(nanosPerRecord) + " ns CPU time per record");
+        System.out.println("Total: " + total.summary(TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS));
+    }
+}
@@ -0,0 +1,111 @@
+package org.projects.metrics;
+
+import org.projects.lockFree.PaddedSequence;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets a reader swap a data structure that many writers update without making the writers wait, the technique of
+ * Gil Tene's HdrHistogram Recorder.
+ * <br>
+ * Writers wrap every update in writerCriticalSectionEnter() and writerCriticalSectionExit(). Entering increments a
+ * start epoch, exiting increments the end epoch of the phase the writer entered in, and the sign of the start epoch
+ * tells which phase that is. Both are a single atomic add, so writers never block and never retry (wait-free).
+ * <br>
+ * The epochs are striped: every stripe has a start epoch and two end epochs of its own, each a PaddedSequence on a
+ * cache line of its own, and a writer uses the stripe its thread id hashes to. With a single set of epochs every
+ * update of every thread would be an atomic add on the same two cache lines, which then move from core to core on
+ * every record(). There are as many stripes as cores, rounded up to a power of two, so threads on different cores
+ * mostly add to lines no other core writes. The value returned by writerCriticalSectionEnter() carries the phase in
+ * its sign and the stripe in its low bits, so that the exit goes to the same stripe.
+ * <br>
+ * The reader first makes the spare structure active, so new writers use it, then calls flipPhase(). That resets the
+ * start epoch of every stripe for the other phase and waits until the end epoch of the old phase of each stripe has
+ * caught up with the start epoch value it replaced, i.e. until every writer that could still be using the old
+ * structure has left. After that the reader owns the old structure and can read and reset it. Only the reader ever
+ * waits, and only for writers that are in the middle of an update.
+ */
+public class WriterReaderPhaser {
+
+    private static final int STRIPES = 1 << (32 - Integer.numberOfLeadingZeros(
+            Math.max(1, Runtime.getRuntime().availableProcessors()) - 1));
+    private static final long ODD_PHASE = Long.MIN_VALUE;
+
+    private final PaddedSequence[] startEpochs = new PaddedSequence[STRIPES];
+    private final PaddedSequence[] evenEndEpochs = new PaddedSequence[STRIPES];
+    private final PaddedSequence[] oddEndEpochs = new PaddedSequence[STRIPES];
+    private final long[] startValuesAtFlip = new long[STRIPES];
+    private final ReentrantLock readerLock = new ReentrantLock();
+
+    public WriterReaderPhaser() {
+        for (int i = 0; i < STRIPES; i++) {
+            startEpochs[i] = new PaddedSequence();
+            evenEndEpochs[i] = new PaddedSequence();
+            oddEndEpochs[i] = new PaddedSequence(ODD_PHASE);
+        }
+    }
+
+    /**
+     * Enters a writer critical section, returning the value to pass to writerCriticalSectionExit().
+     */
+    public long writerCriticalSectionEnter() {
+        int stripe = stripe();
+        return (startEpochs[stripe].getAndAdd(1) & ODD_PHASE) | stripe;
+    }
+
+    public void writerCriticalSectionExit(long criticalValueAtEnter) {
+        int stripe = (int) criticalValueAtEnter & (STRIPES - 1);
+        (criticalValueAtEnter < 0 ? oddEndEpochs : evenEndEpochs)[stripe].getAndAdd(1);
+    }
+
+    /**
+     * Serializes readers, flipPhase() may only be called while holding the reader lock.
+     */
+    public void readerLock() {
+        readerLock.lock();
+    }
+
+    public void readerUnlock() {
+        readerLock.unlock();
+    }
+
+    /**
+     * Waits until all writers that entered before the flip have exited. The caller must hold the reader lock and
+     * must have redirected writers to the new structure before calling it.
+     */
+    public void flipPhase() {
+        if (!readerLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("flipPhase() requires the reader lock");
+        }
+        // Every stripe is flipped here under the reader lock, so they are all in the same phase
+        boolean nextPhaseIsEven = startEpochs[0].get() < 0;
+        long initialStartValue = nextPhaseIsEven ? 0 : ODD_PHASE;
+        PaddedSequence[] nextEndEpochs = nextPhaseIsEven ? evenEndEpochs : oddEndEpochs;
+        for (int i = 0; i < STRIPES; i++) {
+            nextEndEpochs[i].set(initialStartValue);
+            startValuesAtFlip[i] = getAndSet(startEpochs[i], initialStartValue);
+        }
+
+        PaddedSequence[] previousEndEpochs = nextPhaseIsEven ? oddEndEpochs : evenEndEpochs;
+        for (int i = 0; i < STRIPES; i++) {
+            while (previousEndEpochs[i].get() != startValuesAtFlip[i]) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static long getAndSet(PaddedSequence sequence, long newValue) {
+        long current = sequence.get();
+        long witness;
+        // Writers keep adding to the start epoch, retry until no add came in between
+        while ((witness = sequence.compareAndExchange(current, newValue)) != current) {
+            current = witness;
+        }
+        return current;
+    }
+
+    private static int stripe() {
+        // Fibonacci hashing, so that threads with consecutive ids get different stripes
+        return (int) (Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L >>> 32) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,269 @@
+package org.projects.pipeline;
+
+import org.projects.lockFree.PaddedSequence;
+import org.projects.lockFree.WaitStrategy;
+import org.projects.trace.Tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A multi-stage processing pipeline over one ring buffer of pre-allocated events, in the style of the LMAX Disruptor.
+ * <br>
+ * With a queue per stage, every stage removes an item, processes it and puts it into the next stage's queue, which
+ * means a lock or CAS handoff per item per stage. Here the events stay in their slots instead:
+ * 1. The producer claims the next slot, fills in the event object already stored there and publishes the slot by
+ *    advancing the cursor. Events are created once by the factory and reused, so nothing is allocated per event.
+ * 2. Every stage owns a sequence, the last slot it has finished. A stage may process a slot once the stage before it
+ *    (or the cursor, for the first stage) has passed it. That check against the upstream sequence is the stage's
+ *    sequence barrier. The sequences are PaddedSequences, so stages updating theirs do not slow each other down
+ *    through false sharing.
+ * 3. The producer may only reuse a slot once the last stage has passed it, so the last stage gates the producer.
+ * A stage that finds several slots available processes them all before publishing its sequence once, so stages
+ * batch naturally when they fall behind. Every sequence is written by a single thread, so no CAS is needed anywhere.
+ * <br>
+ * Each stage reports the events it processed, its average batch size, its throughput and the latency from
+ * publication until the stage finished the event.
+ * <br>
+ * The pipeline has a single producer: next(), get() and publish() must be called from one thread.
+ */
+public class EventPipeline<E> {
+
+    /**
+     * The work a stage does on each event. endOfBatch is true for the last event available to the stage at the
+     * moment, which is a good point to flush any buffered output.
+     */
+    @FunctionalInterface
+    public interface EventHandler<E> {
+        void onEvent(E event, long sequence, boolean endOfBatch) throws Exception;
+    }
+
+    private final int bufferSize;
+    private final int mask;
+    private final Object[] events;
+    private final long[] publishNanos;
+    private final WaitStrategy waitStrategy;
+    private final PaddedSequence cursor = new PaddedSequence(-1);
+    private final List<Stage> stages = new ArrayList<>();
+    private volatile boolean running;
+
+    // Producer state, only touched by the producer thread
+    private long nextSequence = -1;
+    private long cachedGatingSequence = -1;
+    private long wrapPoint;
+    private final BooleanSupplier slotFree = () -> gatingSequence() >= wrapPoint;
+
+    public EventPipeline(int bufferSize, Supplier<E> eventFactory, WaitStrategy waitStrategy) {
+        if (Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("Buffer size must be a power of two: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.mask = bufferSize - 1;
+        this.events = new Object[bufferSize];
+        this.publishNanos = new long[bufferSize];
+        this.waitStrategy = waitStrategy;
+        for (int i = 0; i < bufferSize; i++) {
+            events[i] = eventFactory.get();
+        }
+    }
+
+    /**
+     * Adds a stage that processes every event after the previously added stage has finished with it.
+     */
+    public EventPipeline<E> addStage(String name, EventHandler<E> handler) {
+        if (running) {
+            throw new IllegalStateException("Stages must be added before the pipeline is started");
+        }
+        PaddedSequence upstream = stages.isEmpty() ? cursor : stages.get(stages.size() - 1).sequence;
+        stages.add(new Stage(name, handler, upstream));
+        return this;
+    }
+
+    public void start() {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("The pipeline has no stages");
+        }
+        running = true;
+        for (Stage stage : stages) {
+            stage.thread.start();
+        }
+    }
+
+    /**
+     * Claims the next slot, waiting until the last stage has finished with the event stored in it.
+     */
+    public long next() {
+        long sequence = nextSequence + 1;
+        wrapPoint = sequence - bufferSize;
+        if (wrapPoint > cachedGatingSequence) {
+            while (gatingSequence() < wrapPoint) {
+                waitStrategy.await(slotFree);
+            }
+            cachedGatingSequence = gatingSequence();
+        }
+        nextSequence = sequence;
+        return sequence;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) events[(int) sequence & mask];
+    }
+
+    /**
+     * Makes the claimed slot visible to the first stage.
+     */
+    public void publish(long sequence) {
+        publishNanos[(int) sequence & mask] = System.nanoTime();
+        cursor.set(sequence);
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * Waits until every published event has passed the last stage, then stops the stage threads.
+     */
+    public void drainAndHalt() throws InterruptedException {
+        long published = cursor.get();
+        while (gatingSequence() < published) {
+            waitStrategy.await(() -> gatingSequence() >= published);
+        }
+        running = false;
+        waitStrategy.signalAll();
+        for (Stage stage : stages) {
+            stage.thread.join();
+        }
+    }
+
+    public void printStatistics() {
+        for (Stage stage : stages) {
+            System.out.println(stage);
+        }
+    }
+
+    private long gatingSequence() {
+        return stages.get(stages.size() - 1).sequence.get();
+    }
+
+    private final class Stage implements Runnable {
+        final String name;
+        final EventHandler<E> handler;
+        final PaddedSequence upstream;
+        final PaddedSequence sequence = new PaddedSequence(-1);
+        final Thread thread;
+
+        // Only touched by the stage thread until it has stopped
+        private long target;
+        private final BooleanSupplier available;
+        private long processed;
+        private long batches;
+        private long totalLatencyNanos;
+        private long maxLatencyNanos;
+        private long startNanos;
+        private long endNanos;
+
+        Stage(String name, EventHandler<E> handler, PaddedSequence upstream) {
+            this.name = name;
+            this.handler = handler;
+            this.upstream = upstream;
+            this.available = () -> upstream.get() >= target || !running;
+            this.thread = new Thread(this, "Stage-" + name);
+        }
+
+        @Override
+        public void run() {
+            startNanos = System.nanoTime();
+            long next = sequence.get() + 1;
+            while (true) {
+                // The sequence barrier: wait until the upstream stage has passed the next slot
+                target = next;
+                long upstreamSequence;
+                while ((upstreamSequence = upstream.get()) < next && running) {
+                    waitStrategy.await(available);
+                }
+                if (upstreamSequence < next) {
+                    break;
+                }
+
+                for (long s = next; s <= upstreamSequence; s++) {
+                    try {
+                        handler.onEvent(get(s), s, s == upstreamSequence);
+                    } catch (Exception e) {
+                        Tracer.log(Tracer.Level.WARN, "Stage {} failed on sequence {}: {}", name, s, e);
+                    }
+                }
+                long now = System.nanoTime();
+                for (long s = next; s <= upstreamSequence; s++) {
+                    long latency = now - publishNanos[(int) s & mask];
+                    totalLatencyNanos += latency;
+                    maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+                }
+                processed += upstreamSequence - next + 1;
+                batches++;
+
+                sequence.set(upstreamSequence);
+                waitStrategy.signalAll();
+                next = upstreamSequence + 1;
+            }
+            endNanos = System.nanoTime();
+        }
+
+        @Override
+        public String toString() {
+            long elapsed = Math.max(1, endNanos - startNanos);
+            return String.format("Stage %-8s processed %d events in %d batches (avg batch %.1f), %d events/s, "
+                            + "latency since publish avg %d ns, max %d ns",
+                    name, processed, batches, batches == 0 ? 0.0 : (double) processed / batches,
+                    processed * 1_000_000_000L / elapsed, processed == 0 ? 0 : totalLatencyNanos / processed,
+                    maxLatencyNanos);
+        }
+    }
+
+    /**
+     * A mutable event reused for every order that passes through the slot.
+     */
+    static final class OrderEvent {
+        String raw;
+        long orderId;
+        long quantity;
+        long priceCents;
+        long totalCents;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        EventPipeline<OrderEvent> pipeline = new EventPipeline<>(1024, OrderEvent::new, WaitStrategy.yielding());
+        long[] persisted = new long[1];
+
+        pipeline.addStage("decode", (event, sequence, endOfBatch) -> {
+            int separator = event.raw.indexOf(':');
+            event.orderId = Long.parseLong(event.raw, 0, separator, 10);
+            event.quantity = Long.parseLong(event.raw, separator + 1, event.raw.length(), 10);
+        }).addStage("enrich", (event, sequence, endOfBatch) -> {
+            event.priceCents = 100 + event.orderId % 50;
+            event.totalCents = event.priceCents * event.quantity;
+        }).addStage("persist", (event, sequence, endOfBatch) -> {
+            persisted[0] += event.totalCents;
+        });
+        pipeline.start();
+
+        String[] inputs = new String[1024];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = i + ":" + (i % 10 + 1);
+        }
+
+        int orders = 2_000_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            long sequence = pipeline.next();
+            pipeline.get(sequence).raw = inputs[i & 1023];
+            pipeline.publish(sequence);
+        }
+        pipeline.drainAndHalt();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Pipeline moved " + orders + " orders through 3 stages in " + elapsed / 1_000_000
+                + " ms, total value persisted: " + persisted[0]);
+        pipeline.printStatistics();
+    }
+}
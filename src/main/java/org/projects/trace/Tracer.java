@@ -0,0 +1,477 @@
+package org.projects.trace;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A low overhead replacement for System.out.println in code that runs while holding a lock or on a hot path.
+ * <br>
+ * println() is synchronized on the stream and does the string formatting and the write to stdout on the calling thread,
+ * so logging inside a critical section makes the lock hold time much longer, and all threads that log contend on the
+ * stream's lock. The Tracer only records the event instead:
+ * 1. Messages are templates with {} placeholders, and the arguments are passed separately. The arguments are only
+ *    turned into text later by the writer thread, so nothing is concatenated on the calling thread. With the level
+ *    disabled the call returns right after comparing the level, without allocating anything.
+ * 2. Every platform thread appends its events to its own pre-allocated ring buffer. The owning thread is the only
+ *    writer and the background writer thread the only reader, so recording an event needs no lock or CAS, just a
+ *    release store. If a ring is full because the writer cannot keep up, the event is dropped and counted rather
+ *    than blocking.
+ *    Virtual threads are created per task by the hundred thousand, and a ring of their own would cost more heap than
+ *    the thread itself. They share one larger ring instead, where a producer claims its slot with a CAS, as in
+ *    RingBufferQueue. The virtual threads of a program run on a few carrier threads, so few of them contend at once.
+ * 3. The daemon writer thread drains all rings about once a millisecond, merges the events in time order and
+ *    writes them to the output with one print call. A shutdown hook drains whatever is left when the JVM exits.
+ * <br>
+ * The level is read from the trace.level system property and defaults to INFO. Arguments must not be mutated
+ * after the call, since they are formatted later. A template with a single primitive argument can use the long
+ * overload, which does not box it. Calls with several arguments box them, so guard those with isEnabled() on a hot
+ * path.
+ */
+public final class Tracer {
+
+    public enum Level {
+        TRACE, DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static final int BUFFER_SIZE = 1024;
+    private static final int SHARED_BUFFER_SIZE = 16 * 1024;
+    private static final long WRITER_INTERVAL_NANOS = 1_000_000;
+
+    private static volatile int threshold = Level.valueOf(System.getProperty("trace.level", "INFO")).ordinal();
+    private static volatile PrintStream output = System.out;
+
+    // Registering is a lock-free append, and only the writer thread iterates and removes the buffers of dead threads
+    private static final ConcurrentLinkedQueue<ThreadBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+    private static final SharedBuffer SHARED_BUFFER = new SharedBuffer(SHARED_BUFFER_SIZE);
+    private static final ThreadLocal<ThreadBuffer> LOCAL_BUFFER = ThreadLocal.withInitial(() -> {
+        ThreadBuffer buffer = new ThreadBuffer(Thread.currentThread(), BUFFER_SIZE);
+        BUFFERS.add(buffer);
+        return buffer;
+    });
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final ReentrantLock DRAIN_LOCK = new ReentrantLock();
+
+    static {
+        Thread writer = new Thread(() -> {
+            while (true) {
+                LockSupport.parkNanos(WRITER_INTERVAL_NANOS);
+                flush();
+            }
+        }, "TraceWriter");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Tracer::flush, "TraceShutdownFlush"));
+    }
+
+    private Tracer() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    public static void setOutput(PrintStream printStream) {
+        output = printStream;
+    }
+
+    /**
+     * Returns the number of events dropped so far because a thread's buffer was full.
+     */
+    public static long dropped() {
+        return DROPPED.get();
+    }
+
+    public static void log(Level level, String template) {
+        if (isEnabled(level)) {
+            buffer().add(level, template, 0, null, null, null, 0, false);
+        }
+    }
+
+    public static void log(Level level, String template, Object arg1) {
+        if (isEnabled(level)) {
+            buffer().add(level, template, 1, arg1, null, null, 0, false);
+        }
+    }
+
+    public static void log(Level level, String template, Object arg1, Object arg2) {
+        if (isEnabled(level)) {
+            buffer().add(level, template, 2, arg1, arg2, null, 0, false);
+        }
+    }
+
+    public static void log(Level level, String template, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(level)) {
+            buffer().add(level, template, 3, arg1, arg2, arg3, 0, false);
+        }
+    }
+
+    /**
+     * Logs a template whose only placeholder is a primitive value, without boxing it.
+     */
+    public static void log(Level level, String template, long value) {
+        if (isEnabled(level)) {
+            buffer().add(level, template, 0, null, null, null, value, true);
+        }
+    }
+
+
+    public static void debug(String template) {
+        log(Level.DEBUG, template);
+    }
+
+    public static void debug(String template, Object arg1) {
+        log(Level.DEBUG, template, arg1);
+    }
+
+    public static void debug(String template, Object arg1, Object arg2) {
+        log(Level.DEBUG, template, arg1, arg2);
+    }
+
+    public static void debug(String template, Object arg1, Object arg2, Object arg3) {
+        log(Level.DEBUG, template, arg1, arg2, arg3);
+    }
+
+    public static void info(String template) {
+        log(Level.INFO, template);
+    }
+
+    public static void info(String template, Object arg1) {
+        log(Level.INFO, template, arg1);
+    }
+
+    public static void info(String template, Object arg1, Object arg2) {
+        log(Level.INFO, template, arg1, arg2);
+    }
+
+    public static void info(String template, Object arg1, Object arg2, Object arg3) {
+        log(Level.INFO, template, arg1, arg2, arg3);
+    }
+
+    public static void info(String template, long value) {
+        log(Level.INFO, template, value);
+    }
+
+    public static void warn(String template) {
+        log(Level.WARN, template);
+    }
+
+    public static void warn(String template, Object arg1) {
+        log(Level.WARN, template, arg1);
+    }
+
+    public static void warn(String template, Object arg1, Object arg2) {
+        log(Level.WARN, template, arg1, arg2);
+    }
+
+    private static EventBuffer buffer() {
+        return Thread.currentThread().isVirtual() ? SHARED_BUFFER : LOCAL_BUFFER.get();
+    }
+
+    /**
+     * Drains every thread's buffer and writes the events in time order. Normally called by the writer thread,
+     * callers may use it to make sure everything logged so far has been written.
+     */
+    public static void flush() {
+        DRAIN_LOCK.lock();
+        try {
+            List<Line> lines = new ArrayList<>();
+            for (Iterator<ThreadBuffer> buffers = BUFFERS.iterator(); buffers.hasNext(); ) {
+                ThreadBuffer buffer = buffers.next();
+                buffer.drainTo(lines);
+                if (!buffer.owner.isAlive() && buffer.isEmpty()) {
+                    buffers.remove();
+                }
+            }
+            SHARED_BUFFER.drainTo(lines);
+            if (lines.isEmpty()) {
+                return;
+            }
+            lines.sort(Comparator.comparingLong(Line::nanos));
+            StringBuilder text = new StringBuilder();
+            for (Line line : lines) {
+                text.append(line.text()).append(System.lineSeparator());
+            }
+            PrintStream printStream = output;
+            printStream.print(text);
+            printStream.flush();
+        } finally {
+            DRAIN_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Compares how long 4 threads take to do 200_000 logged increments each under one lock, logging with println
+     * and with the Tracer, both writing to a stream that discards the output.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        setOutput(discard);
+        Object lock = new Object();
+        long[] counter = new long[1];
+
+        Runnable printlnTask = () -> {
+            for (int i = 0; i < 200_000; i++) {
+                synchronized (lock) {
+                    counter[0]++;
+                    discard.println("Thread " + Thread.currentThread().getName() + " incremented to " + counter[0]);
+                }
+            }
+        };
+        Runnable tracerTask = () -> {
+            for (int i = 0; i < 200_000; i++) {
+                synchronized (lock) {
+                    counter[0]++;
+                    info("Thread {} incremented to {}", Thread.currentThread().getName(), counter[0]);
+                }
+            }
+        };
+
+        for (Runnable task : List.of(printlnTask, tracerTask)) {
+            Thread[] threads = new Thread[4];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(task, "Worker-" + t);
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.println((task == printlnTask ? "println: " : "Tracer:  ") + (System.nanoTime() - start) / 1_000_000
+                    + " ms");
+        }
+        System.out.println("Tracer events dropped because a buffer was full: " + dropped());
+    }
+
+    private record Line(long nanos, String text) {
+    }
+
+    /**
+     * The events of a ring, kept in parallel arrays so that recording an event allocates nothing.
+     */
+    private abstract static class EventBuffer {
+
+        final int mask;
+        private final long[] nanos;
+        private final Level[] levels;
+        private final String[] templates;
+        private final Object[] args;
+        private final int[] argCounts;
+        private final long[] values;
+        private final boolean[] hasValue;
+
+        EventBuffer(int size) {
+            this.mask = size - 1;
+            this.nanos = new long[size];
+            this.levels = new Level[size];
+            this.templates = new String[size];
+            this.args = new Object[size * 3];
+            this.argCounts = new int[size];
+            this.values = new long[size];
+            this.hasValue = new boolean[size];
+        }
+
+        abstract void add(Level level, String template, int argCount, Object arg1, Object arg2, Object arg3,
+                          long value, boolean withValue);
+
+        abstract void drainTo(List<Line> lines);
+
+        /**
+         * Writes an event into a slot the caller has claimed, before the caller publishes it.
+         */
+        final void write(int index, Level level, String template, int argCount, Object arg1, Object arg2, Object arg3,
+                         long value, boolean withValue) {
+            nanos[index] = System.nanoTime();
+            levels[index] = level;
+            templates[index] = template;
+            args[index * 3] = arg1;
+            args[index * 3 + 1] = arg2;
+            args[index * 3 + 2] = arg3;
+            argCounts[index] = argCount;
+            values[index] = value;
+            hasValue[index] = withValue;
+        }
+
+        /**
+         * Formats the event of a published slot and clears its arguments, before the caller frees the slot.
+         */
+        final Line take(int index) {
+            Line line = new Line(nanos[index], format(index));
+            args[index * 3] = null;
+            args[index * 3 + 1] = null;
+            args[index * 3 + 2] = null;
+            return line;
+        }
+
+        private String format(int index) {
+            String template = templates[index];
+            StringBuilder text = new StringBuilder(template.length() + 32);
+            if (levels[index] != Level.INFO) {
+                text.append(levels[index]).append(' ');
+            }
+            int argCount = argCounts[index];
+            int next = 0;
+            int from = 0;
+            int placeholder;
+            while ((placeholder = template.indexOf("{}", from)) >= 0) {
+                text.append(template, from, placeholder);
+                if (next < argCount) {
+                    text.append(args[index * 3 + next]);
+                } else if (next == argCount && hasValue[index]) {
+                    text.append(values[index]);
+                } else {
+                    text.append("{}");
+                }
+                next++;
+                from = placeholder + 2;
+            }
+            text.append(template, from, template.length());
+            return text.toString();
+        }
+    }
+
+    /**
+     * A single-producer single-consumer ring of events, written by the owning thread and read by the writer.
+     */
+    private static final class ThreadBuffer extends EventBuffer {
+
+        private static final VarHandle PUBLISHED;
+        private static final VarHandle CONSUMED;
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                PUBLISHED = lookup.findVarHandle(ThreadBuffer.class, "published", long.class);
+                CONSUMED = lookup.findVarHandle(ThreadBuffer.class, "consumed", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final Thread owner;
+
+        @SuppressWarnings("unused")
+        private volatile long published;
+        @SuppressWarnings("unused")
+        private volatile long consumed;
+        // Owner side copies, so the owner rarely has to read the writer's position
+        private long tail;
+        private long consumedCache;
+
+        ThreadBuffer(Thread owner, int size) {
+            super(size);
+            this.owner = owner;
+        }
+
+        @Override
+        void add(Level level, String template, int argCount, Object arg1, Object arg2, Object arg3, long value,
+                 boolean withValue) {
+            if (tail - consumedCache > mask) {
+                consumedCache = (long) CONSUMED.getAcquire(this);
+                if (tail - consumedCache > mask) {
+                    DROPPED.incrementAndGet();
+                    return;
+                }
+            }
+            write((int) tail & mask, level, template, argCount, arg1, arg2, arg3, value, withValue);
+            tail++;
+            PUBLISHED.setRelease(this, tail);
+        }
+
+        boolean isEmpty() {
+            return (long) CONSUMED.getAcquire(this) == (long) PUBLISHED.getAcquire(this);
+        }
+
+        @Override
+        void drainTo(List<Line> lines) {
+            long head = (long) CONSUMED.getAcquire(this);
+            long end = (long) PUBLISHED.getAcquire(this);
+            for (long position = head; position < end; position++) {
+                lines.add(take((int) position & mask));
+            }
+            CONSUMED.setRelease(this, end);
+        }
+    }
+
+    /**
+     * A multi-producer single-consumer ring of events for virtual threads. Every slot has a sequence: position means
+     * free for the producer of that position, position + 1 means published. A producer claims a position with a CAS
+     * on the tail, so events are dropped only when the ring is full, never because of contention.
+     */
+    private static final class SharedBuffer extends EventBuffer {
+
+        private static final VarHandle SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+        private static final VarHandle TAIL;
+
+        static {
+            try {
+                TAIL = MethodHandles.lookup().findVarHandle(SharedBuffer.class, "tail", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final long[] sequences;
+        @SuppressWarnings("unused")
+        private volatile long tail;
+        // Only read and written by the thread draining, under DRAIN_LOCK
+        private long head;
+
+        SharedBuffer(int size) {
+            super(size);
+            this.sequences = new long[size];
+            for (int i = 0; i < size; i++) {
+                sequences[i] = i;
+            }
+        }
+
+        @Override
+        void add(Level level, String template, int argCount, Object arg1, Object arg2, Object arg3, long value,
+                 boolean withValue) {
+            long position = tail;
+            while (true) {
+                long sequence = (long) SEQUENCE.getAcquire(sequences, (int) position & mask);
+                if (sequence == position) {
+                    long witness = (long) TAIL.compareAndExchange(this, position, position + 1);
+                    if (witness == position) {
+                        break;
+                    }
+                    position = witness;
+                } else if (sequence < position) {
+                    // The writer has not drained this slot of the previous lap, the ring is full
+                    DROPPED.incrementAndGet();
+                    return;
+                } else {
+                    position = tail;
+                }
+            }
+            int index = (int) position & mask;
+            write(index, level, template, argCount, arg1, arg2, arg3, value, withValue);
+            SEQUENCE.setRelease(sequences, index, position + 1);
+        }
+
+        @Override
+        void drainTo(List<Line> lines) {
+            // Stops at the first slot whose producer has claimed it but not published it yet
+            while ((long) SEQUENCE.getAcquire(sequences, (int) head & mask) == head + 1) {
+                int index = (int) head & mask;
+                lines.add(take(index));
+                SEQUENCE.setRelease(sequences, index, head + mask + 1);
+                head++;
+            }
+        }
+    }
+}